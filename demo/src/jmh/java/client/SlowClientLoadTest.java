@@ -0,0 +1,132 @@
+package client;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection-capacity load test for the web tier, run against a started web app
+ * and file server. It opens {@code slowClients} downloads that read a few KB per
+ * second, then times quick listing requests and the first byte of fresh downloads
+ * while those slow clients are holding their connections.
+ * <pre>
+ * mvn -Pjmh compile exec:exec -Djmh.main=client.SlowClientLoadTest \
+ *     -Djmh.args="http://localhost:8081 big.bin 300 20"
+ * </pre>
+ * Arguments: base URL, file to download (large enough not to fit in socket
+ * buffers), number of slow clients, seconds to hold them. All clients share one
+ * address, so start the web app with fileserver.max-transfers-per-user=0. Run it
+ * once per thread model (spring.threads.virtual.enabled,
+ * spring.task.execution.pool.*) and compare.
+ */
+public class SlowClientLoadTest {
+    private static final int PROBES = 50;
+    private static final int SLOW_READ_BYTES = 8 * 1024;
+    private static final long SLOW_READ_INTERVAL_MS = 500;
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8081";
+        String file = args.length > 1 ? args[1] : "big.bin";
+        int slowClients = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+        int holdSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        URI download = URI.create(baseUrl + "/download/" + file);
+        URI listing = URI.create(baseUrl + "/api/files");
+
+        List<Long> slowFirstByte = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger slowFailures = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(slowClients);
+        long holdUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(holdSeconds);
+
+        for (int i = 0; i < slowClients; i++) {
+            Thread client = new Thread(() -> {
+                long start = System.nanoTime();
+                boolean reading = false;
+                try {
+                    HttpResponse<InputStream> response = http.send(HttpRequest.newBuilder(download)
+                            .timeout(Duration.ofSeconds(holdSeconds)).build(),
+                            HttpResponse.BodyHandlers.ofInputStream());
+                    try (InputStream body = response.body()) {
+                        byte[] buffer = new byte[SLOW_READ_BYTES];
+                        if (response.statusCode() != 200 || body.read(buffer) < 0) {
+                            slowFailures.incrementAndGet();
+                            return;
+                        }
+                        slowFirstByte.add(System.nanoTime() - start);
+                        reading = true;
+                        started.countDown();
+                        while (System.nanoTime() < holdUntil && body.read(buffer) >= 0) {
+                            Thread.sleep(SLOW_READ_INTERVAL_MS);
+                        }
+                    }
+                } catch (Exception e) {
+                    slowFailures.incrementAndGet();
+                } finally {
+                    if (!reading) {
+                        started.countDown();
+                    }
+                }
+            }, "slow-client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+
+        // Probe once the slow clients have had a moment to occupy their threads
+        started.await(Math.max(1, holdSeconds / 4), TimeUnit.SECONDS);
+        List<Long> listings = new ArrayList<>();
+        List<Long> freshFirstByte = new ArrayList<>();
+        int probeFailures = 0;
+        for (int i = 0; i < PROBES && System.nanoTime() < holdUntil; i++) {
+            try {
+                long start = System.nanoTime();
+                HttpResponse<Void> list = http.send(HttpRequest.newBuilder(listing)
+                        .timeout(Duration.ofSeconds(10)).build(), HttpResponse.BodyHandlers.discarding());
+                listings.add(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                HttpResponse<InputStream> fresh = http.send(HttpRequest.newBuilder(download)
+                        .timeout(Duration.ofSeconds(10)).build(), HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = fresh.body()) {
+                    if (list.statusCode() != 200 || fresh.statusCode() != 200 || body.read() < 0) {
+                        probeFailures++;
+                        continue;
+                    }
+                    freshFirstByte.add(System.nanoTime() - start);
+                }
+            } catch (Exception e) {
+                probeFailures++;
+            }
+        }
+
+        System.out.printf("Slow clients: %d started, %d failed%n", slowFirstByte.size(), slowFailures.get());
+        print("Slow client first byte", new ArrayList<>(slowFirstByte));
+        print("Listing while loaded", listings);
+        print("Fresh download first byte", freshFirstByte);
+        System.out.println("Probe failures: " + probeFailures);
+        System.exit(0);
+    }
+
+    private static void print(String label, List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            System.out.printf("%-28s no samples%n", label);
+            return;
+        }
+        Collections.sort(nanos);
+        System.out.printf("%-28s n=%d p50=%.1f ms p99=%.1f ms max=%.1f ms%n", label, nanos.size(),
+                percentile(nanos, 0.50), percentile(nanos, 0.99), nanos.get(nanos.size() - 1) / 1e6);
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(p * sorted.size()) - 1)) / 1e6;
+    }
+}
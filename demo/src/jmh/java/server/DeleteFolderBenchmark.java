@@ -0,0 +1,43 @@
+package server;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recursive deletion of a folder with 10 to 100k entries. Each iteration deletes
+ * a freshly filled folder once; filling it is not measured. Background purging is
+ * switched off, so the whole parallel delete is timed.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 8)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-Dfileserver.asyncDeleteEntries=0"})
+@State(Scope.Benchmark)
+public class DeleteFolderBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    @Setup(Level.Iteration)
+    public void fill(FileServiceState state) throws RemoteException {
+        ListFolderBenchmark.populate(state.impl, "doomed", entries);
+    }
+
+    @Benchmark
+    public boolean deleteFolder(FileServiceState state) throws RemoteException {
+        return state.service.deleteFolder("doomed");
+    }
+}
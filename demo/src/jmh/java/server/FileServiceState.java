@@ -0,0 +1,106 @@
+package server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import shared.FileInterface;
+import shared.TunedSocketFactory;
+
+/**
+ * Benchmark fixture: a FileImpl over throwaway storage, called either directly
+ * ("in-process") or through a stub looked up from an RMI registry on loopback
+ * ("rmi"). The gap between the two is the marshalling and transport cost.
+ * In rmi mode, sockets picks RMI's own sockets or one of our socket factories.
+ */
+@State(Scope.Benchmark)
+public class FileServiceState {
+    @Param({"in-process", "rmi"})
+    public String transport;
+
+    // "memory" measures the off-heap backend (needs -XX:MaxDirectMemorySize above the file size)
+    @Param({"local"})
+    public String backend;
+
+    // 0 disables the listing cache, so every listFolderContents scans the folder
+    @Param({"100000"})
+    public int cacheEntries;
+
+    // default, tuned or compressed, as with -Dfileserver.rmiSockets
+    @Param({"default"})
+    public String sockets;
+
+    public FileInterface service;
+    public FileImpl impl;
+
+    private Path tempDir;
+    private Registry registry;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        tempDir = Files.createTempDirectory("fileserver-bench");
+        StorageBackend storage = "memory".equals(backend)
+                ? new MemoryStorageBackend(Runtime.getRuntime().maxMemory())
+                : new LocalStorageBackend(tempDir.resolve("server_storage"));
+        System.setProperty("fileserver.cacheEntries", String.valueOf(cacheEntries));
+        impl = new FileImpl(storage);
+
+        if ("rmi".equals(transport)) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            System.setProperty("fileserver.rmiSockets", sockets);
+            TunedSocketFactory factory = TunedSocketFactory.fromSystemProperties();
+            if (factory != null) {
+                UnicastRemoteObject.exportObject(impl, 0, factory, factory);
+            } else {
+                UnicastRemoteObject.exportObject(impl, 0);
+            }
+            registry = LocateRegistry.createRegistry(port);
+            registry.rebind("FileService", impl);
+            service = (FileInterface) LocateRegistry.getRegistry("localhost", port).lookup("FileService");
+        } else {
+            service = impl;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        if (registry != null) {
+            UnicastRemoteObject.unexportObject(impl, true);
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+        deleteRecursively(tempDir);
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
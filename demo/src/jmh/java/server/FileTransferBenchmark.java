@@ -0,0 +1,52 @@
+package server;
+
+import java.rmi.RemoteException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-file upload and download through FileInterface, from 4 KB to 1 GB.
+ * The heap is sized for a 1 GB payload plus its RMI-marshalled copy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class FileTransferBenchmark {
+    @Param({"4096", "1048576", "67108864", "1073741824"})
+    public int fileSize;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void prepare(FileServiceState state) throws RemoteException {
+        data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        state.impl.uploadFileToFolder("bench", "download.bin", data);
+    }
+
+    @Benchmark
+    public boolean uploadFileToFolder(FileServiceState state) throws RemoteException {
+        return state.service.uploadFileToFolder("bench", "upload.bin", data);
+    }
+
+    @Benchmark
+    public byte[] downloadFile(FileServiceState state) throws RemoteException {
+        return state.service.downloadFile("bench/download.bin");
+    }
+}
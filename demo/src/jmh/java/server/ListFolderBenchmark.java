@@ -0,0 +1,54 @@
+package server;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shared.FileMetadata;
+
+/**
+ * Listing a folder with 10 to 100k entries. Run with -p cacheEntries=0 to
+ * measure listings that miss the metadata cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ListFolderBenchmark {
+    private static final byte[] CONTENT = new byte[64];
+
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    @Setup(Level.Trial)
+    public void prepare(FileServiceState state) throws RemoteException {
+        populate(state.impl, "fanout", entries);
+    }
+
+    @Benchmark
+    public List<FileMetadata> listFolderContents(FileServiceState state) throws RemoteException {
+        return state.service.listFolderContents("fanout");
+    }
+
+    static void populate(FileImpl impl, String folder, int count) throws RemoteException {
+        impl.createFolder(folder);
+        for (int i = 0; i < count; i++) {
+            impl.uploadFileToFolder(folder, "file-" + i + ".dat", CONTENT);
+        }
+    }
+}
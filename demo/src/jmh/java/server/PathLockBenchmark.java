@@ -0,0 +1,104 @@
+package server;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lock contention between threads working on 16 folders of 64 files each, with
+ * a short critical section standing in for the storage call. With one stripe
+ * every path shares a lock, which is what a single global read/write lock gives.
+ * <ul>
+ * <li>mixed: six readers and two writers on random files</li>
+ * <li>subtree: seven writers on random files and one thread deleting random folders</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class PathLockBenchmark {
+    private static final int FOLDERS = 16;
+    private static final int FILES = 64;
+
+    @Param({"1", "1024"})
+    public int stripes;
+
+    // Blackhole.consumeCPU tokens spent while holding the lock
+    @Param({"200"})
+    public int work;
+
+    private PathLocks locks;
+    private String[] folders;
+    private String[] files;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        locks = new PathLocks(stripes);
+        folders = new String[FOLDERS];
+        files = new String[FOLDERS * FILES];
+        for (int i = 0; i < FOLDERS; i++) {
+            folders[i] = "projects/folder-" + i;
+            for (int j = 0; j < FILES; j++) {
+                files[i * FILES + j] = folders[i] + "/file-" + j + ".dat";
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public void read() {
+        try (PathLocks.Hold lock = locks.read(randomFile())) {
+            Blackhole.consumeCPU(work);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void write() {
+        try (PathLocks.Hold lock = locks.write(randomFile())) {
+            Blackhole.consumeCPU(work);
+        }
+    }
+
+    @Benchmark
+    @Group("subtree")
+    @GroupThreads(7)
+    public void writeFile() {
+        try (PathLocks.Hold lock = locks.write(randomFile())) {
+            Blackhole.consumeCPU(work);
+        }
+    }
+
+    @Benchmark
+    @Group("subtree")
+    @GroupThreads(1)
+    public void deleteFolder() {
+        try (PathLocks.Hold lock = locks.write(folders[ThreadLocalRandom.current().nextInt(FOLDERS)])) {
+            Blackhole.consumeCPU(work * 10L);
+        }
+    }
+
+    private String randomFile() {
+        return files[ThreadLocalRandom.current().nextInt(files.length)];
+    }
+}
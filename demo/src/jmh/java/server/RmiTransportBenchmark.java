@@ -0,0 +1,87 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shared.FileMetadata;
+
+/**
+ * RMI over loopback with RMI's own sockets, TunedSocketFactory and
+ * CompressingSocketFactory: a listing-heavy workload (a 1000-entry folder) and a
+ * transfer-heavy one (a 4 MB log, which compresses well, and 4 MB of random
+ * bytes, which does not). Loopback has no bandwidth limit to save, so this shows
+ * the CPU cost of compression; the gain appears on real networks. Run with
+ * <pre>-p transport=rmi -p sockets=default,tuned,compressed</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"}, jvmArgs = {"-Dfileserver.compression=none"})
+@State(Scope.Benchmark)
+public class RmiTransportBenchmark {
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    private byte[] log;
+    private byte[] random;
+
+    @Setup(Level.Trial)
+    public void prepare(FileServiceState state) throws RemoteException {
+        ListFolderBenchmark.populate(state.impl, "fanout", 1000);
+        log = logLines(FILE_SIZE);
+        random = new byte[FILE_SIZE];
+        new Random(42).nextBytes(random);
+        state.impl.uploadFileToFolder("bench", "app.log", log);
+        state.impl.uploadFileToFolder("bench", "random.bin", random);
+    }
+
+    @Benchmark
+    public List<FileMetadata> listing(FileServiceState state) throws RemoteException {
+        return state.service.listFolderContents("fanout");
+    }
+
+    @Benchmark
+    public byte[] downloadLog(FileServiceState state) throws RemoteException {
+        return state.service.downloadFile("bench/app.log");
+    }
+
+    @Benchmark
+    public byte[] downloadRandom(FileServiceState state) throws RemoteException {
+        return state.service.downloadFile("bench/random.bin");
+    }
+
+    @Benchmark
+    public boolean uploadLog(FileServiceState state) throws RemoteException {
+        return state.service.uploadFileToFolder("bench", "upload.log", log);
+    }
+
+    static byte[] logLines(int size) {
+        Random random = new Random(7);
+        String[] levels = {"INFO", "DEBUG", "WARN", "ERROR"};
+        StringBuilder text = new StringBuilder(size + 200);
+        for (int i = 0; text.length() < size; i++) {
+            text.append("2024-05-01T12:").append(10 + i % 50).append(':').append(10 + i % 49)
+                    .append(" [worker-").append(random.nextInt(16)).append("] ")
+                    .append(levels[random.nextInt(levels.length)])
+                    .append(" server.FileImpl - request ").append(random.nextInt(1_000_000))
+                    .append(" served in ").append(random.nextInt(500)).append(" ms\n");
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
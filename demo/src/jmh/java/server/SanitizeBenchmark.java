@@ -0,0 +1,48 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The path and filename sanitizers run on every FileImpl call; each is a few
+ * regex replaceAll passes. Inputs cover a clean value and a hostile one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitizeBenchmark {
+
+    @State(Scope.Thread)
+    public static class PathInput {
+        @Param({"projects/2024/reports", "\\projects\\..\\2024//../reports/"})
+        public String path;
+    }
+
+    @State(Scope.Thread)
+    public static class FilenameInput {
+        @Param({"quarterly-report.pdf", "C:\\Users\\me\\<draft>:report?.pdf"})
+        public String filename;
+    }
+
+    @Benchmark
+    public String sanitizePath(PathInput input) {
+        return FileImpl.sanitizePath(input.path);
+    }
+
+    @Benchmark
+    public String sanitizeFilename(FilenameInput input) {
+        return FileImpl.sanitizeFilename(input.filename);
+    }
+}
@@ -0,0 +1,266 @@
+package client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+import shared.ChangeBatch;
+import shared.ChangeEvent;
+import shared.FileNodeInterface;
+import shared.FileMetadata;
+
+/**
+ * Long-polls the file server's change feed on one thread and pushes each change
+ * as a server-sent event to the browsers showing the folder it happened in. A
+ * browser that reconnects with Last-Event-ID is sent what it missed from a short
+ * replay buffer, or a reset when it missed more than that. Changes also drop the
+ * affected files from the hot-file cache.
+ * <p>
+ * With several file servers each one's feed is polled on its own thread and the
+ * events are renumbered here, so browsers see a single sequence.
+ * <p>
+ * Events are numbered and queued per browser under a lock but written outside
+ * it, so one slow browser holds up neither the feed nor the others. A browser
+ * whose queue overflows is disconnected and catches up when it reconnects.
+ */
+@Component
+public class ChangeEventRelay {
+
+    private static final long POLL_TIMEOUT_MS = 25_000;
+    private static final long HEARTBEAT_MS = 20_000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    private static final int REPLAY_EVENTS = 1024;
+
+    private final HotFileCache hotFiles;
+    // Open event streams and the folder each one shows
+    private final Map<SseEmitter, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final ArrayDeque<ChangeEvent> replay = new ArrayDeque<>(); // Guarded by itself
+    private final List<Thread> pollers = new ArrayList<>();
+    // Event ids are ours: a restarted web app makes reconnecting browsers reload
+    private final long epoch = System.currentTimeMillis();
+    private volatile long lastSeq; // Written under replay
+    private volatile boolean running = true;
+    private long lastHeartbeat = System.currentTimeMillis(); // Guarded by replay
+
+    public ChangeEventRelay(FileServiceStubManager stubManager, HotFileCache hotFiles,
+            @Value("${fileserver.change-events:true}") boolean enabled) {
+        this.hotFiles = hotFiles;
+        List<FileNodeInterface> nodes = stubManager.getNodeStubs();
+        for (int i = 0; i < nodes.size(); i++) {
+            FileNodeInterface node = nodes.get(i);
+            Thread poller = new Thread(() -> pollLoop(node), nodes.size() == 1 ? "change-feed" : "change-feed-" + i);
+            poller.setDaemon(true);
+            pollers.add(poller);
+        }
+        if (enabled) {
+            pollers.forEach(Thread::start);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        pollers.forEach(Thread::interrupt);
+        subscribers.keySet().forEach(SseEmitter::complete);
+    }
+
+    public boolean isEnabled() {
+        return pollers.stream().anyMatch(Thread::isAlive);
+    }
+
+    public SseEmitter subscribe(String folder, String lastEventId) {
+        SseEmitter emitter = new SseEmitter(0L); // Open until the browser leaves; heartbeats keep it alive
+        emitter.onCompletion(() -> subscribers.remove(emitter));
+        emitter.onTimeout(() -> subscribers.remove(emitter));
+        emitter.onError(e -> subscribers.remove(emitter));
+        Subscriber subscriber = new Subscriber(emitter, folder);
+        synchronized (replay) {
+            if (lastEventId != null && !catchUp(subscriber, lastEventId)) {
+                subscriber.enqueue(resetEvent());
+            }
+            subscribers.put(emitter, subscriber);
+        }
+        subscriber.drain();
+        return emitter;
+    }
+
+    // Replays what a reconnecting browser missed; false if the replay buffer does not reach back that far
+    private boolean catchUp(Subscriber subscriber, String lastEventId) {
+        int colon = lastEventId.indexOf(':');
+        long seenEpoch;
+        long seenSeq;
+        try {
+            seenEpoch = Long.parseLong(lastEventId.substring(0, colon));
+            seenSeq = Long.parseLong(lastEventId.substring(colon + 1));
+        } catch (RuntimeException e) {
+            return false;
+        }
+        long oldest = replay.isEmpty() ? lastSeq + 1 : replay.peekFirst().getSeq();
+        if (seenEpoch != epoch || seenSeq < oldest - 1 || seenSeq > lastSeq) {
+            return false;
+        }
+        for (ChangeEvent event : replay) {
+            if (event.getSeq() > seenSeq && concerns(event, subscriber.folder)) {
+                subscriber.enqueue(event);
+            }
+        }
+        return true;
+    }
+
+    private void pollLoop(FileNodeInterface node) {
+        long nodeEpoch = 0;
+        long nodeSeq = 0;
+        long backoff = 1000;
+        while (running) {
+            try {
+                ChangeBatch batch = node.pollChanges(nodeEpoch, nodeSeq, POLL_TIMEOUT_MS);
+                if (batch == null) {
+                    continue;
+                }
+                if (batch.isReset()) {
+                    // First poll, or we lost track (file server restarted or we fell too far behind)
+                    boolean lostTrack = nodeEpoch != 0;
+                    nodeEpoch = batch.getEpoch();
+                    nodeSeq = batch.getLastSeq();
+                    if (lostTrack) {
+                        System.err.println("Change feed reset, browsers reload their listings");
+                        relay(ChangeEvent.Type.RESET, "", null);
+                    }
+                } else {
+                    for (ChangeEvent event : batch.getEvents()) {
+                        hotFiles.invalidate(event.getPath());
+                        relay(event.getType(), event.getPath(), event.getMetadata());
+                    }
+                    nodeSeq = batch.getLastSeq();
+                }
+                heartbeatIfIdle();
+                backoff = 1000;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("Change feed unavailable, retrying in " + backoff + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    // Numbers the change in our sequence; queued under the lock so every browser sees that order
+    private void relay(ChangeEvent.Type type, String path, FileMetadata metadata) {
+        synchronized (replay) {
+            ChangeEvent event = new ChangeEvent(lastSeq + 1, type, path, metadata);
+            replay.addLast(event);
+            if (replay.size() > REPLAY_EVENTS) {
+                replay.removeFirst();
+            }
+            lastSeq = event.getSeq();
+            for (Subscriber subscriber : subscribers.values()) {
+                if (concerns(event, subscriber.folder)) {
+                    subscriber.enqueue(event);
+                }
+            }
+        }
+        subscribers.values().forEach(Subscriber::drain);
+    }
+
+    // A browser showing folder needs changes listed in it, resets, and the deletion of the folder itself
+    private static boolean concerns(ChangeEvent event, String folder) {
+        if (event.getType() == ChangeEvent.Type.RESET || event.getFolder().equals(folder)) {
+            return true;
+        }
+        return event.getType() == ChangeEvent.Type.DELETED
+                && (folder.equals(event.getPath()) || folder.startsWith(event.getPath() + "/"));
+    }
+
+    // Comment lines keep idle streams from being cut by proxies and reveal dead browsers
+    private void heartbeatIfIdle() {
+        synchronized (replay) {
+            if (System.currentTimeMillis() - lastHeartbeat < HEARTBEAT_MS) {
+                return;
+            }
+            lastHeartbeat = System.currentTimeMillis();
+        }
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.enqueue(emitter -> emitter.send(SseEmitter.event().comment("ping")));
+            subscriber.drain();
+        }
+    }
+
+    private ChangeEvent resetEvent() {
+        return new ChangeEvent(lastSeq, ChangeEvent.Type.RESET, "", null);
+    }
+
+    // What one browser is still to be sent; whichever thread finds it idle writes it out
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final String folder;
+        private final ArrayDeque<Message> pending = new ArrayDeque<>(); // Guarded by this
+        private boolean sending; // Guarded by this
+
+        Subscriber(SseEmitter emitter, String folder) {
+            this.emitter = emitter;
+            this.folder = folder;
+        }
+
+        void enqueue(ChangeEvent event) {
+            enqueue(target -> target.send(SseEmitter.event()
+                    .id(epoch + ":" + event.getSeq())
+                    .name("change")
+                    .data(event, MediaType.APPLICATION_JSON)));
+        }
+
+        synchronized void enqueue(Message message) {
+            if (pending.size() >= REPLAY_EVENTS) {
+                // Too far behind to catch up live; it reconnects and replays or reloads
+                pending.clear();
+                pending.add(SseEmitter::complete);
+            } else {
+                pending.add(message);
+            }
+        }
+
+        void drain() {
+            while (true) {
+                Message next;
+                synchronized (this) {
+                    if (sending || pending.isEmpty()) {
+                        return;
+                    }
+                    next = pending.poll();
+                    sending = true;
+                }
+                try {
+                    next.send(emitter);
+                } catch (IOException | IllegalStateException e) {
+                    // Browser went away; the emitter's callbacks remove it
+                    subscribers.remove(emitter);
+                    synchronized (this) {
+                        pending.clear();
+                    }
+                } finally {
+                    synchronized (this) {
+                        sending = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private interface Message {
+        void send(SseEmitter emitter) throws IOException;
+    }
+}
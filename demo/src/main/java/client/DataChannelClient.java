@@ -0,0 +1,150 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import shared.ByteRange;
+
+/**
+ * Client for the file server's raw download channel (see server.DataChannelServer).
+ * The server pushes file bytes with transferTo; we only relay them to the HTTP response.
+ * With several file servers the request goes to the data port of the node owning the path.
+ */
+@Component
+public class DataChannelClient {
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_NOT_FOUND = 1;
+    public static final byte STATUS_UNSATISFIABLE = 2;
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    // Longest the server may go quiet, in the header or mid-file, before the download fails
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final FileServiceStubManager stubManager;
+    private final int port;
+    private final MeterRegistry registry;
+
+    // fileserver.data-port=0 turns the channel off for every node
+    public DataChannelClient(FileServiceStubManager stubManager,
+            @Value("${fileserver.data-port:1100}") int port, MeterRegistry registry) {
+        this.stubManager = stubManager;
+        this.port = port;
+        this.registry = registry;
+    }
+
+    public boolean isEnabled() {
+        return port > 0;
+    }
+
+    public Download open(String filepath, ByteRange range) throws IOException {
+        List<ShardNode> owners = stubManager.nodesFor(filepath);
+        for (int i = 0; ; i++) {
+            Download download;
+            try {
+                download = open(owners.get(i), filepath, range);
+            } catch (IOException e) {
+                // A replica asked first may be down; its primary still answers
+                if (i == owners.size() - 1) {
+                    throw e;
+                }
+                continue;
+            }
+            // During a rebalance the file may still be on its previous owner
+            if (download.getStatus() != STATUS_NOT_FOUND || i == owners.size() - 1) {
+                return download;
+            }
+            download.close();
+        }
+    }
+
+    private Download open(ShardNode node, String filepath, ByteRange range) throws IOException {
+        Socket socket = new Socket();
+        long started = System.nanoTime();
+        try {
+            socket.connect(new InetSocketAddress(node.getHost(), node.getDataPort()), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(filepath);
+            out.writeLong(range.getFirst());
+            out.writeLong(range.getLast());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte status = in.readByte();
+            long size = in.readLong();
+            long start = in.readLong();
+            long length = in.readLong();
+            recordOpen(status == STATUS_OK ? "ok" : status == STATUS_NOT_FOUND ? "not_found" : "unsatisfiable", started);
+            return new Download(socket, in, status, size, start, length);
+        } catch (IOException e) {
+            recordOpen("error", started);
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Connect plus request/response header: the time to first byte of a download
+    private void recordOpen(String outcome, long started) {
+        Timer.builder("fileserver.client.datachannel.open")
+                .description("Data channel connect and header exchange")
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    public static class Download implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream stream;
+        private final byte status;
+        private final long size;
+        private final long start;
+        private final long length;
+
+        Download(Socket socket, InputStream stream, byte status, long size, long start, long length) {
+            this.socket = socket;
+            this.stream = stream;
+            this.status = status;
+            this.size = size;
+            this.start = start;
+            this.length = length;
+        }
+
+        public InputStream getStream() {
+            return stream;
+        }
+
+        public byte getStatus() {
+            return status;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public ByteRange getRange() {
+            return new ByteRange(start, start + length - 1);
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package client;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMISocketFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import shared.CompressingSocketFactory;
+import shared.FileInterface;
+import shared.FileNodeInterface;
+import shared.FileOperationMetrics;
+import shared.TunedSocketFactory;
+
+/**
+ * Caches the FileService stub instead of looking it up on every request.
+ * The cached stub is dropped when a call fails with a RemoteException and
+ * resolved again on the next use; a background probe keeps it warm and
+ * reports connect/lookup latencies through /actuator/health. Every call is
+ * also measured as fileserver.client.* meters (see FileOperationMetrics),
+ * alongside RMI lookup and TCP connect timers.
+ * <p>
+ * With fileserver.nodes listing several file servers, each gets its own cached
+ * stub and getStub() returns a ShardRouter over them. fileserver.previous-nodes
+ * names the ring a running rebalance is moving data away from.
+ * <p>
+ * A file server listed with read-only replicas (fileserver.replicas, or
+ * primary+replica entries in fileserver.nodes) has its reads spread over itself
+ * and the replicas that are healthy and no more than fileserver.replica-max-lag-ms
+ * behind: of two picked at random, the one with the lower latency times calls in
+ * flight. Writes go to the primary, and reads below a top-level folder written
+ * less than fileserver.replica-read-after-write-ms ago stay there too, so users
+ * see their own changes at once.
+ */
+@Component("fileServer")
+public class FileServiceStubManager implements HealthIndicator {
+
+    // Calls a replica may answer
+    private static final Set<String> READS = Set.of("downloadFile", "downloadFiles", "listFolderContents",
+            "listFolderPage", "listFilesExtended", "listTree", "search");
+    // Calls after which the primary answers reads for a while
+    private static final Set<String> WRITES = Set.of("uploadFile", "uploadFileToFolder", "uploadByHash",
+            "deleteFile", "createFolder", "deleteFolder", "uploadFiles", "deleteFiles", "openUpload",
+            "commitUpload", "openMultipartUpload", "completeMultipartUpload");
+
+    private final List<Node> nodes = new ArrayList<>(); // Every file server we talk to
+    private final FileInterface proxy;
+    private final ShardRouter router; // Null with a single file server
+    private final ScheduledExecutorService prober;
+    private final FileOperationMetrics callMetrics;
+    private final MeterRegistry registry;
+    private final long replicaMaxLagMs;
+    private final long readAfterWriteMs;
+
+    // Latency metrics (nanoseconds)
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lookupFailures = new AtomicLong();
+    private final AtomicLong totalLookupNanos = new AtomicLong();
+
+    public FileServiceStubManager(@Value("${fileserver.host:localhost}") String host,
+            @Value("${fileserver.rmi-port:1099}") int port,
+            @Value("${fileserver.data-port:1100}") int dataPort,
+            @Value("${fileserver.nodes:}") String nodeList,
+            @Value("${fileserver.previous-nodes:}") String previousNodeList,
+            @Value("${fileserver.replicas:}") String replicaList,
+            @Value("${fileserver.replica-max-lag-ms:5000}") long replicaMaxLagMs,
+            @Value("${fileserver.replica-read-after-write-ms:5000}") long readAfterWriteMs,
+            @Value("${fileserver.virtual-nodes:128}") int virtualNodes,
+            @Value("${fileserver.health-interval-ms:10000}") long healthIntervalMs,
+            @Value("${fileserver.rmi-compression:true}") boolean rmiCompression,
+            @Value("${fileserver.rmi-socket-buffer:0}") int rmiSocketBuffer,
+            MeterRegistry registry) {
+        this.registry = registry;
+        this.replicaMaxLagMs = replicaMaxLagMs;
+        this.readAfterWriteMs = readAfterWriteMs;
+        this.callMetrics = new FileOperationMetrics(registry, "fileserver.client");
+        installConnectTimer(registry);
+        // Only apply when the server exports with a shared.TunedSocketFactory
+        CompressingSocketFactory.setClientCompression(rmiCompression);
+        TunedSocketFactory.setClientBufferSize(rmiSocketBuffer);
+
+        List<ShardNode> ring = ShardNode.parseList(nodeList);
+        if (ring.isEmpty()) {
+            ring = List.of(new ShardNode(host, port, dataPort, ShardNode.parseList(replicaList)));
+        }
+        List<ShardNode> previousRing = ShardNode.parseList(previousNodeList);
+        int[] ringNodes = addNodes(ring);
+        int[] previousRingNodes = addNodes(previousRing);
+        if (nodes.size() == 1) {
+            this.router = null;
+            this.proxy = nodes.get(0).reader;
+        } else {
+            List<FileInterface> readers = new ArrayList<>();
+            for (Node node : nodes) {
+                readers.add(node.reader);
+            }
+            this.router = new ShardRouter(readers, new HashRing(ids(ring), virtualNodes), ringNodes,
+                    previousRing.isEmpty() ? null : new HashRing(ids(previousRing), virtualNodes),
+                    previousRing.isEmpty() ? null : previousRingNodes);
+            this.proxy = router;
+            System.out.println("Sharding over file servers " + ring
+                    + (previousRing.isEmpty() ? "" : ", rebalancing from " + previousRing));
+        }
+        for (Node node : nodes) {
+            if (!node.replicas.isEmpty()) {
+                System.out.println("Reading from " + node.address + " and its replicas " + node.address.getReplicas());
+            }
+        }
+
+        this.prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rmi-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(() -> nodes.forEach(node -> {
+            node.probe();
+            node.replicas.forEach(Node::probe);
+        }), 0, healthIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // A node listed in both rings is one file server
+    private int[] addNodes(List<ShardNode> addresses) {
+        int[] indexes = new int[addresses.size()];
+        for (int i = 0; i < addresses.size(); i++) {
+            int index = -1;
+            for (int n = 0; n < nodes.size(); n++) {
+                if (nodes.get(n).address.getId().equals(addresses.get(i).getId())) {
+                    index = n;
+                }
+            }
+            if (index < 0) {
+                nodes.add(new Node(addresses.get(i), false));
+                index = nodes.size() - 1;
+            }
+            indexes[i] = index;
+        }
+        return indexes;
+    }
+
+    private static List<String> ids(List<ShardNode> addresses) {
+        List<String> ids = new ArrayList<>();
+        for (ShardNode address : addresses) {
+            ids.add(address.getId());
+        }
+        return ids;
+    }
+
+    // Returns a proxy that always talks to the current cached stub(s)
+    public FileInterface getStub() {
+        return proxy;
+    }
+
+    /** One proxy per primary file server, for what each node does on its own (e.g. its change feed). */
+    public List<FileNodeInterface> getNodeStubs() {
+        List<FileNodeInterface> stubs = new ArrayList<>();
+        for (Node node : nodes) {
+            stubs.add(node.proxy);
+        }
+        return stubs;
+    }
+
+    /** File servers that may hold path, the one to ask first leading (a replica, when one may answer). */
+    public List<ShardNode> nodesFor(String path) {
+        List<Node> owners = new ArrayList<>();
+        if (router == null) {
+            owners.add(nodes.get(0));
+        } else {
+            for (int node : router.owners(path)) {
+                owners.add(nodes.get(node));
+            }
+        }
+        List<ShardNode> addresses = new ArrayList<>();
+        Node first = owners.get(0);
+        if (first.balancer != null) {
+            Node reader = first.balancer.choose(HashRing.shardKey(path));
+            if (reader != first) {
+                addresses.add(reader.address);
+            }
+        }
+        for (Node owner : owners) {
+            addresses.add(owner.address);
+        }
+        return addresses;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prober.shutdownNow();
+        if (router != null) {
+            router.shutdown();
+        }
+    }
+
+    @Override
+    public Health health() {
+        boolean healthy = nodes.stream().allMatch(node -> node.healthy);
+        Health.Builder builder = healthy ? Health.up() : Health.down();
+        builder.withDetail("lookups", lookups.get())
+                .withDetail("lookupFailures", lookupFailures.get())
+                .withDetail("avgLookupMs", lookups.get() == 0 ? 0 : toMillis(totalLookupNanos.get() / lookups.get()));
+        if (nodes.size() == 1) {
+            // Replicas lagging or down do not make the web app unhealthy; reads avoid them
+            nodes.get(0).details().forEach(builder::withDetail);
+        } else {
+            Map<String, Object> perNode = new LinkedHashMap<>();
+            for (Node node : nodes) {
+                perNode.put(node.address.getId(), node.details());
+            }
+            builder.withDetail("nodes", perNode);
+        }
+        return builder.build();
+    }
+
+    /** One file server: its cached stub, health, and a retrying proxy over it. */
+    private class Node {
+        final ShardNode address;
+        final boolean replica;
+        final FileNodeInterface proxy;
+        final List<Node> replicas = new ArrayList<>();
+        final ReadBalancer balancer; // Null without replicas
+        final FileInterface reader; // Spreads reads over this server and its replicas
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile double latencyNanos; // Moving average of the reads sent here
+        volatile long lastReadNanos;
+        volatile long replicationLag = -1;
+
+        volatile FileNodeInterface stub;
+        volatile boolean healthy;
+        volatile String lastError;
+        volatile long lastConnectNanos;
+        volatile long lastLookupNanos;
+        volatile long lastProbeNanos;
+
+        Node(ShardNode address, boolean replica) {
+            this.address = address;
+            this.replica = replica;
+            this.proxy = (FileNodeInterface) Proxy.newProxyInstance(FileNodeInterface.class.getClassLoader(),
+                    new Class<?>[] { FileNodeInterface.class }, new RetryingHandler(this));
+            for (ShardNode replicaAddress : address.getReplicas()) {
+                replicas.add(new Node(replicaAddress, true));
+            }
+            this.balancer = replicas.isEmpty() ? null : new ReadBalancer(this);
+            this.reader = replicas.isEmpty() ? proxy : (FileInterface) Proxy.newProxyInstance(
+                    FileInterface.class.getClassLoader(), new Class<?>[] { FileInterface.class }, balancer);
+        }
+
+        // Expected wait for one more read here. A server not picked for a while has its average
+        // halved every second, so one slow call (a cold start) does not keep it out for good
+        double score() {
+            double idleSeconds = (System.nanoTime() - lastReadNanos) / 1e9;
+            return latencyNanos * Math.pow(0.5, idleSeconds) * (inFlight.get() + 1);
+        }
+
+        void recordLatency(long nanos) {
+            double average = latencyNanos;
+            latencyNanos = average == 0 ? nanos : average * 0.8 + nanos * 0.2;
+            lastReadNanos = System.nanoTime();
+        }
+
+        FileNodeInterface current() throws RemoteException {
+            FileNodeInterface cached = stub;
+            if (cached != null) {
+                return cached;
+            }
+            synchronized (this) {
+                if (stub == null) {
+                    stub = resolve();
+                }
+                return stub;
+            }
+        }
+
+        private FileNodeInterface resolve() throws RemoteException {
+            String host = address.getHost();
+            int port = address.getRmiPort();
+            long start = System.nanoTime();
+            try {
+                Registry registry = LocateRegistry.getRegistry(host, port);
+                long connected = System.nanoTime();
+                FileNodeInterface resolved = (FileNodeInterface) registry.lookup("FileService");
+                long done = System.nanoTime();
+
+                lastConnectNanos = connected - start;
+                lastLookupNanos = done - connected;
+                lookupTimer("success").record(done - start, TimeUnit.NANOSECONDS);
+                totalLookupNanos.addAndGet(done - start);
+                lookups.incrementAndGet();
+                System.out.println("RMI stub resolved from " + host + ":" + port
+                        + " in " + toMillis(done - start) + " ms");
+                return resolved;
+            } catch (RemoteException | NotBoundException e) {
+                lookupTimer("error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                lookupFailures.incrementAndGet();
+                lastError = e.getMessage();
+                healthy = false;
+                if (e instanceof RemoteException) {
+                    throw (RemoteException) e;
+                }
+                // Keep the proxy within FileInterface's declared exceptions
+                throw new RemoteException("FileService is not bound at " + host + ":" + port, e);
+            }
+        }
+
+        void invalidate(FileNodeInterface failed) {
+            synchronized (this) {
+                if (stub == failed) {
+                    stub = null;
+                }
+            }
+        }
+
+        void probe() {
+            FileNodeInterface probed = null;
+            try {
+                probed = current();
+                long start = System.nanoTime();
+                probed.folderExists("");
+                lastProbeNanos = System.nanoTime() - start;
+                if (replica) {
+                    replicationLag = probed.getReplicationLag();
+                }
+                healthy = true;
+                lastError = null;
+            } catch (Exception e) {
+                if (probed != null) {
+                    invalidate(probed);
+                }
+                if (healthy) {
+                    System.err.println("RMI health probe of " + address + " failed: " + e.getMessage());
+                }
+                healthy = false;
+                lastError = e.getMessage();
+            }
+        }
+
+        Map<String, Object> details() {
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("registry", address.getId());
+            details.put("healthy", healthy);
+            details.put("lastConnectMs", toMillis(lastConnectNanos));
+            details.put("lastLookupMs", toMillis(lastLookupNanos));
+            details.put("lastProbeMs", toMillis(lastProbeNanos));
+            if (replica) {
+                details.put("replicationLagMs", replicationLag);
+            }
+            if (lastError != null) {
+                details.put("lastError", lastError);
+            }
+            if (!replicas.isEmpty()) {
+                Map<String, Object> perReplica = new LinkedHashMap<>();
+                for (Node node : replicas) {
+                    perReplica.put(node.address.getId(), node.details());
+                }
+                details.put("replicas", perReplica);
+            }
+            return details;
+        }
+    }
+
+    private Timer lookupTimer(String outcome) {
+        return Timer.builder("fileserver.client.lookup")
+                .description("RMI registry lookup of the FileService stub")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    // Times every TCP connect RMI makes for stubs without their own socket factory
+    private static void installConnectTimer(MeterRegistry registry) {
+        if (RMISocketFactory.getSocketFactory() != null) {
+            return; // Already installed (e.g. by a devtools restart); it can only be set once
+        }
+        RMISocketFactory delegate = RMISocketFactory.getDefaultSocketFactory();
+        Timer connects = Timer.builder("fileserver.client.connect")
+                .description("TCP connects made by RMI to the file server")
+                .register(registry);
+        try {
+            RMISocketFactory.setSocketFactory(new RMISocketFactory() {
+                @Override
+                public Socket createSocket(String host, int port) throws IOException {
+                    long start = System.nanoTime();
+                    try {
+                        return delegate.createSocket(host, port);
+                    } finally {
+                        connects.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                }
+
+                @Override
+                public ServerSocket createServerSocket(int port) throws IOException {
+                    return delegate.createServerSocket(port);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Cannot time RMI connects: " + e.getMessage());
+        }
+    }
+
+    // Connection-level failures mean the call never reached the server, so it is safe to retry
+    private static boolean isRetryable(Throwable e) {
+        return e instanceof ConnectException
+                || e instanceof ConnectIOException
+                || e instanceof NoSuchObjectException;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private class RetryingHandler implements InvocationHandler {
+        private final Node node;
+
+        RetryingHandler(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            return callMetrics.record(method, args, () -> invokeWithRetry(method, args));
+        }
+
+        private Object invokeWithRetry(Method method, Object[] args) throws Throwable {
+            for (int attempt = 1; ; attempt++) {
+                FileNodeInterface target = node.current();
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    Throwable cause = e.getCause();
+                    if (!(cause instanceof RemoteException)) {
+                        throw cause;
+                    }
+                    node.invalidate(target);
+                    if (attempt > 1 || !isRetryable(cause)) {
+                        throw cause;
+                    }
+                    System.err.println("RMI call " + method.getName() + " to " + node.address
+                            + " failed, re-resolving stub: " + cause.getMessage());
+                    Counter.builder("fileserver.client.retries")
+                            .description("RMI calls retried after a connection failure")
+                            .tag("method", method.getName())
+                            .register(registry)
+                            .increment();
+                }
+            }
+        }
+    }
+
+    /** Sends a primary's reads to it or to one of its replicas, and its writes to it. */
+    private class ReadBalancer implements InvocationHandler {
+        private final Node primary;
+        private final Map<String, Long> recentWrites = new ConcurrentHashMap<>(); // Top-level key -> time
+        private volatile long lastWrite; // Any write
+        private volatile long lastUnkeyedWrite; // Writes we cannot place, such as commits by session id
+
+        ReadBalancer(Node primary) {
+            this.primary = primary;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            String name = method.getName();
+            if (!READS.contains(name)) {
+                try {
+                    return call(primary, method, args);
+                } finally {
+                    if (WRITES.contains(name)) {
+                        noteWrite(name, args);
+                    }
+                }
+            }
+            boolean byPath = !name.equals("search") && args != null && args.length > 0 && args[0] instanceof String;
+            Node reader = choose(byPath ? HashRing.shardKey((String) args[0]) : null);
+            long start = System.nanoTime();
+            reader.inFlight.incrementAndGet();
+            try {
+                return call(reader, method, args);
+            } catch (RemoteException e) {
+                if (reader == primary) {
+                    throw e;
+                }
+                return call(primary, method, args); // The replica went away; the primary has it all
+            } finally {
+                reader.inFlight.decrementAndGet();
+                reader.recordLatency(System.nanoTime() - start);
+            }
+        }
+
+        private Object call(Node node, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(node.proxy, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // Of the servers that may answer a read of key (null: not below one folder), two at random, the less busy
+        Node choose(String key) {
+            if (!replicasMayRead(key)) {
+                return primary;
+            }
+            List<Node> candidates = new ArrayList<>();
+            if (primary.healthy) {
+                candidates.add(primary);
+            }
+            for (Node replica : primary.replicas) {
+                if (replica.healthy && replica.replicationLag >= 0 && replica.replicationLag <= replicaMaxLagMs) {
+                    candidates.add(replica);
+                }
+            }
+            if (candidates.size() <= 1) {
+                return candidates.isEmpty() ? primary : candidates.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(candidates.size());
+            int second = random.nextInt(candidates.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            Node a = candidates.get(first);
+            Node b = candidates.get(second);
+            return a.score() <= b.score() ? a : b;
+        }
+
+        // Replicas may not have a write yet that this web app just made
+        private boolean replicasMayRead(String key) {
+            long since = System.currentTimeMillis() - readAfterWriteMs;
+            if (key == null || key.isEmpty()) {
+                return lastWrite < since;
+            }
+            Long written = recentWrites.get(key);
+            return lastUnkeyedWrite < since && (written == null || written < since);
+        }
+
+        private void noteWrite(String name, Object[] args) {
+            long now = System.currentTimeMillis();
+            lastWrite = now;
+            if (name.equals("commitUpload") || name.equals("completeMultipartUpload")
+                    || args == null || !(args[0] instanceof String)) {
+                lastUnkeyedWrite = now;
+                return;
+            }
+            // A file written to the root is keyed by its own name
+            String path = ((String) args[0]).isEmpty() && args.length > 1 && args[1] instanceof String
+                    ? (String) args[1] : (String) args[0];
+            String key = HashRing.shardKey(path);
+            if (!key.isEmpty()) {
+                recentWrites.put(key, now);
+                if (recentWrites.size() > 10_000) {
+                    recentWrites.values().removeIf(time -> time < now - readAfterWriteMs);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import shared.ByteRange;
+import shared.FileInterface;
+import shared.FileMetadata;
+import shared.TransferSession;
+
+/**
+ * Streams a folder from the file server as a ZIP archive. Files are pulled one
+ * at a time over the data channel (or RMI chunks) and deflated in parallel on a
+ * pool shared by all downloads, sized by fileserver.zip-threads.
+ */
+@Component
+public class FolderArchiver {
+
+    // Formats that are compressed already; deflating them again only costs CPU
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "aac", "ogg", "flac", "m4a",
+            "mp4", "m4v", "mkv", "mov", "avi", "webm", "zip", "gz", "tgz", "bz2", "xz", "7z",
+            "rar", "zst", "jar", "docx", "xlsx", "pptx");
+
+    private final FileServiceStubManager stubManager;
+    private final DataChannelClient dataChannel;
+    private final ExecutorService compressors;
+    private final int maxInFlight;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    public FolderArchiver(FileServiceStubManager stubManager, DataChannelClient dataChannel,
+            @Value("${fileserver.zip-threads:0}") int zipThreads) {
+        this.stubManager = stubManager;
+        this.dataChannel = dataChannel;
+        int threads = zipThreads > 0 ? zipThreads : Runtime.getRuntime().availableProcessors();
+        this.compressors = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "zip-deflate-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Enough queued blocks to keep every thread busy while the writer waits on the oldest
+        this.maxInFlight = threads * 2;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compressors.shutdownNow();
+    }
+
+    // Entry names start with the folder's own name, as when zipping it locally
+    public void write(String folderPath, List<FileMetadata> tree, boolean storeOnly, OutputStream out)
+            throws IOException {
+        String prefix = folderPath.isEmpty() ? "" : folderPath.substring(folderPath.lastIndexOf('/') + 1) + "/";
+        int skipped = folderPath.isEmpty() ? 0 : folderPath.length() + 1;
+        FileInterface stub = stubManager.getStub();
+
+        try (ZipStreamWriter zip = new ZipStreamWriter(out, storeOnly ? null : compressors, maxInFlight)) {
+            if (!prefix.isEmpty()) {
+                zip.addFolder(prefix, System.currentTimeMillis());
+            }
+            for (FileMetadata entry : tree) {
+                String name = prefix + entry.getPath().substring(skipped);
+                if (entry.isDirectory()) {
+                    zip.addFolder(name, entry.getLastModified());
+                    continue;
+                }
+                try (Source source = open(stub, entry.getPath())) {
+                    if (source == null) {
+                        // Deleted since the listing was taken
+                        continue;
+                    }
+                    zip.addFile(name, entry.getLastModified(), source.size,
+                            !storeOnly && !isCompressed(entry.getName()), source.stream);
+                }
+            }
+            zip.finish();
+        }
+    }
+
+    private static boolean isCompressed(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot != -1 && COMPRESSED_EXTENSIONS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Prefers the data channel and falls back to RMI chunks, like single-file downloads
+    private Source open(FileInterface stub, String filepath) throws IOException {
+        if (dataChannel.isEnabled()) {
+            try {
+                DataChannelClient.Download transfer = dataChannel.open(filepath, ByteRange.full());
+                if (transfer.getStatus() != DataChannelClient.STATUS_OK) {
+                    transfer.close();
+                    // No range of an empty file is satisfiable, so it comes back as one
+                    return transfer.getStatus() == DataChannelClient.STATUS_NOT_FOUND ? null
+                            : new Source(InputStream.nullInputStream(), 0, null);
+                }
+                return new Source(transfer.getStream(), transfer.getLength(), transfer);
+            } catch (IOException e) {
+                System.err.println("Data channel unavailable, falling back to RMI: " + e.getMessage());
+            }
+        }
+
+        TransferSession session = stub.openDownload(filepath);
+        if (session == null) {
+            return null;
+        }
+        return new Source(new ChunkInputStream(stub, session), session.getSize(),
+                () -> stub.closeDownload(session.getSessionId()));
+    }
+
+    private static class Source implements AutoCloseable {
+        final InputStream stream;
+        final long size;
+        final AutoCloseable onClose;
+
+        Source(InputStream stream, long size, AutoCloseable onClose) {
+            this.stream = stream;
+            this.size = size;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (onClose != null) {
+                try {
+                    onClose.close();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    // Reads a download session through readChunk, one chunk in memory at a time
+    private static class ChunkInputStream extends InputStream {
+        private static final int CHUNK_SIZE = 1024 * 1024;
+
+        private final FileInterface stub;
+        private final TransferSession session;
+        private final int chunkSize;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private long offset;
+
+        ChunkInputStream(FileInterface stub, TransferSession session) {
+            this.stub = stub;
+            this.session = session;
+            this.chunkSize = Math.min(CHUNK_SIZE, session.getMaxChunkSize());
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == chunk.length) {
+                if (offset >= session.getSize()) {
+                    return -1;
+                }
+                int length = (int) Math.min(chunkSize, session.getSize() - offset);
+                chunk = stub.readChunk(session.getSessionId(), offset, length);
+                if (chunk == null || chunk.length == 0) {
+                    throw new IOException("Transfer interrupted at offset " + offset + " of " + session.getPath());
+                }
+                offset += chunk.length;
+                position = 0;
+            }
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import shared.PathNames;
+
+/**
+ * Consistent-hash ring over file server nodes. Each node is placed on the ring
+ * at several points (virtual nodes) so keys spread evenly and adding or removing
+ * a node only moves the keys of its neighbours, about 1/N of them.
+ * <p>
+ * The key of a path is its first segment: everything below a top-level folder
+ * lives on one node, so folder listings, trees and deletes stay on one server
+ * and only the root has to be gathered from all of them.
+ */
+public class HashRing {
+
+    private final TreeMap<Long, Integer> points = new TreeMap<>();
+    private final int nodeCount;
+
+    // Node ids (host:port) are hashed, not list positions, so reordering the list moves nothing
+    public HashRing(List<String> nodeIds, int virtualNodes) {
+        if (nodeIds.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        this.nodeCount = nodeIds.size();
+        for (int node = 0; node < nodeIds.size(); node++) {
+            for (int replica = 0; replica < Math.max(virtualNodes, 1); replica++) {
+                points.put(hash(nodeIds.get(node) + "#" + replica), node);
+            }
+        }
+    }
+
+    /** Index (into the list the ring was built from) of the node that owns path. */
+    public int nodeFor(String path) {
+        if (nodeCount == 1) {
+            return 0;
+        }
+        Map.Entry<Long, Integer> point = points.ceilingEntry(hash(shardKey(path)));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    // First segment of the path as the file server stores it
+    public static String shardKey(String path) {
+        String normalized = PathNames.normalize(path);
+        int slash = normalized.indexOf('/');
+        return slash < 0 ? normalized : normalized.substring(0, slash);
+    }
+
+    // First 8 bytes of MD5, as ketama does: well spread and identical on every JVM
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (digest[i] & 0xFF);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is required of every JVM", e);
+        }
+    }
+}
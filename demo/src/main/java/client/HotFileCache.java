@@ -0,0 +1,316 @@
+package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Small, frequently downloaded files kept off-heap in the web tier, so a hit costs
+ * one stat on the file server instead of a full transfer. Entries are keyed by path
+ * and only valid for the ETag (size and mtime) they were read with.
+ * <p>
+ * Eviction follows W-TinyLFU: new files enter a small LRU window, and a file
+ * leaving the window only displaces files in the main segmented LRU when a
+ * frequency sketch says it is requested more often than all of them. A one-off
+ * download of a large folder therefore cannot flush the files everybody reads.
+ * <pre>
+ * fileserver.hot-cache-bytes     byte budget, 0 disables the cache
+ * fileserver.hot-cache-max-file  largest file cached
+ * </pre>
+ */
+@Component
+public class HotFileCache {
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    /** A cached file; its bytes stay readable after eviction until the last reader is done. */
+    public static final class Entry {
+        private final String path;
+        private final String etag;
+        private final ByteBuffer data;
+        private Segment segment = Segment.WINDOW;
+
+        private Entry(String path, String etag, ByteBuffer data) {
+            this.path = path;
+            this.etag = etag;
+            this.data = data;
+        }
+
+        public long getSize() {
+            return data.capacity();
+        }
+
+        public void writeTo(OutputStream out, long first, long length) throws IOException {
+            ByteBuffer slice = data.duplicate();
+            slice.limit((int) (first + length)).position((int) first);
+            WritableByteChannel channel = Channels.newChannel(out);
+            while (slice.hasRemaining()) {
+                channel.write(slice);
+            }
+        }
+    }
+
+    private final long capacity;
+    private final long maxFileSize;
+    private final long windowBudget;
+    private final long protectedBudget;
+    private final FrequencySketch sketch;
+
+    // Access-ordered by hand: a touched entry is removed and re-put at the tail
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<>();
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter admitted;
+    private final Counter rejected;
+
+    public HotFileCache(@Value("${fileserver.hot-cache-bytes:67108864}") long capacity,
+            @Value("${fileserver.hot-cache-max-file:1048576}") long maxFileSize,
+            MeterRegistry registry) {
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(maxFileSize, capacity);
+        // 1% window as in W-TinyLFU, but always room for one file; 80% of the rest is protected
+        this.windowBudget = Math.min(capacity, Math.max(capacity / 100, this.maxFileSize));
+        this.protectedBudget = (capacity - windowBudget) * 8 / 10;
+        this.sketch = new FrequencySketch(capacity / 16384);
+
+        this.hits = requests(registry, "hit");
+        this.misses = requests(registry, "miss");
+        this.admitted = admissions(registry, "admitted");
+        this.rejected = admissions(registry, "rejected");
+        Gauge.builder("fileserver.client.hotcache.bytes", this, HotFileCache::bytes)
+                .description("Bytes held off-heap by the hot-file cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private static Counter requests(MeterRegistry registry, String result) {
+        return Counter.builder("fileserver.client.hotcache.requests")
+                .description("Downloads looked up in the hot-file cache")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static Counter admissions(MeterRegistry registry, String outcome) {
+        return Counter.builder("fileserver.client.hotcache.admissions")
+                .description("Files leaving the window, by whether they displaced main-cache files")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    // Files larger than this are always streamed
+    public boolean isEligible(long size) {
+        return capacity > 0 && size <= maxFileSize;
+    }
+
+    public synchronized long bytes() {
+        return windowBytes + probationBytes + protectedBytes;
+    }
+
+    /** The cached bytes of path if they were read at etag, counting the request either way. */
+    public synchronized Entry get(String path, String etag) {
+        sketch.increment(path);
+        Entry entry = find(path);
+        if (entry == null || !entry.etag.equals(etag)) {
+            if (entry != null) {
+                remove(entry); // Changed on the server; the new version is about to be put
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        switch (entry.segment) {
+            case WINDOW:
+                window.remove(path);
+                window.put(path, entry);
+                break;
+            case PROBATION:
+                // Second hit in the main cache: promote, demoting protected files over budget
+                probation.remove(path);
+                probationBytes -= entry.getSize();
+                entry.segment = Segment.PROTECTED;
+                protectedEntries.put(path, entry);
+                protectedBytes += entry.getSize();
+                while (protectedBytes > protectedBudget) {
+                    Entry demoted = protectedEntries.values().iterator().next();
+                    protectedEntries.remove(demoted.path);
+                    protectedBytes -= demoted.getSize();
+                    demoted.segment = Segment.PROBATION;
+                    probation.put(demoted.path, demoted);
+                    probationBytes += demoted.getSize();
+                }
+                break;
+            default:
+                protectedEntries.remove(path);
+                protectedEntries.put(path, entry);
+        }
+        return entry;
+    }
+
+    /** Copies data off-heap into the window; returns null when the file is not eligible. */
+    public Entry put(String path, String etag, byte[] data) {
+        if (!isEligible(data.length)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        Entry entry = new Entry(path, etag, buffer.asReadOnlyBuffer());
+        synchronized (this) {
+            Entry existing = find(path);
+            if (existing != null) {
+                remove(existing);
+            }
+            window.put(path, entry);
+            windowBytes += entry.getSize();
+            while (windowBytes > windowBudget) {
+                Entry candidate = window.values().iterator().next();
+                window.remove(candidate.path);
+                windowBytes -= candidate.getSize();
+                admit(candidate);
+            }
+        }
+        return entry;
+    }
+
+    // Wraps bytes that must not be cached (e.g. read while the file changed) to serve them the same way
+    public static Entry uncached(String path, byte[] data) {
+        return new Entry(path, "", ByteBuffer.wrap(data).asReadOnlyBuffer());
+    }
+
+    public synchronized void invalidate(String path) {
+        Entry entry = find(path);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    // A file leaving the window enters probation only if it beats every file it would evict
+    private void admit(Entry candidate) {
+        long mainBudget = capacity - windowBudget;
+        if (candidate.getSize() > mainBudget) {
+            rejected.increment();
+            return;
+        }
+        long needed = probationBytes + protectedBytes + candidate.getSize() - mainBudget;
+        List<Entry> victims = new ArrayList<>();
+        if (needed > 0) {
+            int frequency = sketch.frequency(candidate.path);
+            Iterator<Entry> probationVictims = probation.values().iterator();
+            Iterator<Entry> protectedVictims = protectedEntries.values().iterator();
+            while (needed > 0) {
+                Entry victim = probationVictims.hasNext() ? probationVictims.next() : protectedVictims.next();
+                if (sketch.frequency(victim.path) >= frequency) {
+                    rejected.increment();
+                    return;
+                }
+                victims.add(victim);
+                needed -= victim.getSize();
+            }
+        }
+        for (Entry victim : victims) {
+            remove(victim);
+        }
+        candidate.segment = Segment.PROBATION;
+        probation.put(candidate.path, candidate);
+        probationBytes += candidate.getSize();
+        admitted.increment();
+    }
+
+    private Entry find(String path) {
+        Entry entry = window.get(path);
+        if (entry == null) {
+            entry = probation.get(path);
+        }
+        if (entry == null) {
+            entry = protectedEntries.get(path);
+        }
+        return entry;
+    }
+
+    private void remove(Entry entry) {
+        switch (entry.segment) {
+            case WINDOW:
+                window.remove(entry.path);
+                windowBytes -= entry.getSize();
+                break;
+            case PROBATION:
+                probation.remove(entry.path);
+                probationBytes -= entry.getSize();
+                break;
+            default:
+                protectedEntries.remove(entry.path);
+                protectedBytes -= entry.getSize();
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters (kept in bytes for simplicity) over four
+     * rows. All counters are halved every ten increments per slot, so the
+     * frequencies favour what is popular now.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.max(1024, Math.min(1 << 20, expectedEntries)) * 2 - 1);
+            this.rows = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int row = 0; row < rows.length; row++) {
+                int index = index(hash, row);
+                if (rows[row][index] < 15) {
+                    rows[row][index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (byte[] counters : rows) {
+                    for (int i = 0; i < counters.length; i++) {
+                        counters[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = 15;
+            for (int row = 0; row < rows.length; row++) {
+                frequency = Math.min(frequency, rows[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            return (int) ((hash * SEEDS[row]) >>> 32) & mask;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs the blocking RMI call behind an async endpoint on its own bounded pool, so
+ * servlet threads are handed back while the file server works. When the pool and
+ * its queue are full the request fails fast with 503 instead of piling up.
+ */
+@Component
+public class RmiCallExecutor {
+
+    private final ThreadPoolExecutor workers;
+    private final long timeoutMs;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    public RmiCallExecutor(@Value("${fileserver.rmi-call-threads:64}") int threads,
+            @Value("${fileserver.rmi-call-queue:256}") int queue,
+            @Value("${fileserver.rmi-call-timeout-ms:30000}") long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread thread = new Thread(r, "rmi-call-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    public DeferredResult<ResponseEntity<?>> submit(Supplier<ResponseEntity<?>> call) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(timeoutMs,
+                () -> error(HttpStatus.SERVICE_UNAVAILABLE, "File server did not answer in time"));
+        try {
+            workers.execute(() -> {
+                try {
+                    result.setResult(call.get());
+                } catch (RuntimeException e) {
+                    result.setResult(error(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.setResult(error(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests in progress"));
+        }
+        return result;
+    }
+
+    private static ResponseEntity<?> error(HttpStatus status, String message) {
+        Map<String, String> errorResponse = new HashMap<>();
+        errorResponse.put("error", message);
+        return ResponseEntity.status(status).body(errorResponse);
+    }
+}
@@ -0,0 +1,87 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Address of one file server: its RMI registry and its data channel. Written as
+ * host:rmiPort[:dataPort] in fileserver.nodes; the data port defaults to the one
+ * after the registry, as with 1099 and 1100. Read-only replicas of the server
+ * follow it joined with '+', as in host1:1099+host2:1099.
+ */
+public final class ShardNode {
+    private final String host;
+    private final int rmiPort;
+    private final int dataPort;
+    private final List<ShardNode> replicas;
+
+    public ShardNode(String host, int rmiPort, int dataPort) {
+        this(host, rmiPort, dataPort, List.of());
+    }
+
+    public ShardNode(String host, int rmiPort, int dataPort, List<ShardNode> replicas) {
+        this.host = host;
+        this.rmiPort = rmiPort;
+        this.dataPort = dataPort;
+        this.replicas = List.copyOf(replicas);
+    }
+
+    public static List<ShardNode> parseList(String spec) {
+        List<ShardNode> nodes = new ArrayList<>();
+        if (spec == null) {
+            return nodes;
+        }
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            String[] servers = entry.split("\\+");
+            List<ShardNode> replicas = new ArrayList<>();
+            for (int i = 1; i < servers.length; i++) {
+                replicas.add(parse(servers[i].trim(), List.of()));
+            }
+            nodes.add(parse(servers[0].trim(), replicas));
+        }
+        return nodes;
+    }
+
+    private static ShardNode parse(String server, List<ShardNode> replicas) {
+        String[] parts = server.split(":");
+        try {
+            int rmiPort = parts.length > 1 ? Integer.parseInt(parts[1]) : 1099;
+            int dataPort = parts.length > 2 ? Integer.parseInt(parts[2]) : rmiPort + 1;
+            return new ShardNode(parts[0], rmiPort, dataPort, replicas);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad file server node '" + server
+                    + "', expected host:rmiPort[:dataPort]", e);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getRmiPort() {
+        return rmiPort;
+    }
+
+    public int getDataPort() {
+        return dataPort;
+    }
+
+    // Read-only copies of this server (see server.Replicator)
+    public List<ShardNode> getReplicas() {
+        return replicas;
+    }
+
+    // Identity of the node on the hash ring
+    public String getId() {
+        return host + ":" + rmiPort;
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+}
@@ -0,0 +1,212 @@
+package client;
+
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import shared.BatchResult;
+import shared.FileInterface;
+import shared.FileMetadata;
+import shared.TransferSession;
+
+/**
+ * Moves top-level folders and files to the node the new hash ring assigns them,
+ * while the web app keeps serving. Run it with the same settings as the web app:
+ * <pre>
+ * java -Dfileserver.nodes=host:port,... -Dfileserver.previous-nodes=host:port,... \
+ *      [-Dfileserver.virtual-nodes=128] client.ShardRebalancer [--dry-run]
+ * </pre>
+ * The web app routes with the previous ring as fallback meanwhile (see
+ * ShardRouter), so an entry is readable from either node until it has moved.
+ * Each entry is copied, checked on the new owner and only then deleted from the
+ * old one. Files the new owner already has were written there since the
+ * rebalance began and are kept as they are.
+ */
+public class ShardRebalancer {
+
+    private final List<ShardNode> ring;
+    private final HashRing hashRing;
+    private final Map<String, FileInterface> stubs = new LinkedHashMap<>();
+    private final boolean dryRun;
+    private int moved;
+    private int failed;
+    private long bytes;
+
+    public ShardRebalancer(List<ShardNode> ring, int virtualNodes, boolean dryRun) {
+        this.ring = ring;
+        List<String> ids = new ArrayList<>();
+        for (ShardNode node : ring) {
+            ids.add(node.getId());
+        }
+        this.hashRing = new HashRing(ids, virtualNodes);
+        this.dryRun = dryRun;
+    }
+
+    public static void main(String[] args) {
+        List<ShardNode> ring = ShardNode.parseList(System.getProperty("fileserver.nodes"));
+        List<ShardNode> previousRing = ShardNode.parseList(System.getProperty("fileserver.previous-nodes"));
+        if (ring.isEmpty()) {
+            System.err.println("Usage: java -Dfileserver.nodes=host:port,... [-Dfileserver.previous-nodes=...] "
+                    + "[-Dfileserver.virtual-nodes=128] client.ShardRebalancer [--dry-run]");
+            System.exit(2);
+        }
+        boolean dryRun = List.of(args).contains("--dry-run");
+        ShardRebalancer rebalancer = new ShardRebalancer(ring,
+                Integer.getInteger("fileserver.virtual-nodes", 128), dryRun);
+
+        // Nodes leaving the ring are emptied; nodes staying in it may hold entries that now belong elsewhere
+        Map<String, ShardNode> sources = new LinkedHashMap<>();
+        for (ShardNode node : previousRing) {
+            sources.put(node.getId(), node);
+        }
+        for (ShardNode node : ring) {
+            sources.putIfAbsent(node.getId(), node);
+        }
+        for (ShardNode source : sources.values()) {
+            rebalancer.drain(source);
+        }
+        System.out.println((dryRun ? "Would move " : "Moved ") + rebalancer.moved + " entries ("
+                + rebalancer.bytes + " bytes), " + rebalancer.failed + " failed");
+        System.exit(rebalancer.failed > 0 ? 1 : 0);
+    }
+
+    // Moves every top-level entry of source that the ring assigns to another node
+    private void drain(ShardNode source) {
+        List<FileMetadata> entries;
+        try {
+            entries = stub(source).listFolderContents("");
+        } catch (Exception e) {
+            System.err.println("✗ Cannot list " + source + ": " + e.getMessage());
+            failed++;
+            return;
+        }
+        if (entries == null) {
+            return;
+        }
+        for (FileMetadata entry : entries) {
+            ShardNode owner = ring.get(hashRing.nodeFor(entry.getPath()));
+            if (owner.getId().equals(source.getId())) {
+                continue;
+            }
+            if (dryRun) {
+                System.out.println("  " + entry.getPath() + (entry.isDirectory() ? "/" : "")
+                        + ": " + source + " -> " + owner);
+                moved++;
+                continue;
+            }
+            try {
+                long copied = entry.isDirectory()
+                        ? moveFolder(stub(source), stub(owner), entry.getPath())
+                        : moveFile(stub(source), stub(owner), entry);
+                if (copied >= 0) {
+                    moved++;
+                    bytes += copied;
+                    System.out.println("✓ Moved " + entry.getPath() + " from " + source + " to " + owner
+                            + " (" + copied + " bytes)");
+                } else {
+                    failed++;
+                }
+            } catch (Exception e) {
+                System.err.println("✗ Failed to move " + entry.getPath() + " from " + source + " to " + owner
+                        + ": " + e.getMessage());
+                failed++;
+            }
+        }
+    }
+
+    // Bytes copied, or -1 if the folder was left on the source
+    private long moveFolder(FileInterface source, FileInterface target, String folder) throws Exception {
+        List<FileMetadata> tree = source.listTree(folder);
+        if (tree == null) {
+            return 0; // Deleted meanwhile
+        }
+        target.createFolder(folder);
+        long copied = 0;
+        List<String> files = new ArrayList<>();
+        for (FileMetadata entry : tree) { // Parents come first
+            if (entry.isDirectory()) {
+                target.createFolder(entry.getPath());
+            } else {
+                files.add(entry.getPath());
+                if (!exists(target, entry.getPath())) {
+                    copied += copyFile(source, target, entry);
+                }
+            }
+        }
+        for (String path : files) {
+            if (!exists(target, path)) {
+                System.err.println("✗ " + path + " is missing on the new owner, keeping " + folder + " in place");
+                return -1;
+            }
+        }
+        if (!source.deleteFolder(folder)) {
+            System.err.println("✗ Copied " + folder + " but could not delete it from the old owner");
+            return -1;
+        }
+        return copied;
+    }
+
+    private long moveFile(FileInterface source, FileInterface target, FileMetadata file) throws Exception {
+        long copied = exists(target, file.getPath()) ? 0 : copyFile(source, target, file);
+        if (!source.deleteFile(file.getPath())) {
+            System.err.println("✗ Copied " + file.getPath() + " but could not delete it from the old owner");
+            return -1;
+        }
+        return copied;
+    }
+
+    private static boolean exists(FileInterface node, String path) throws Exception {
+        List<BatchResult> stat = node.statFiles(List.of(path));
+        return stat != null && stat.get(0).isSuccess();
+    }
+
+    // Streams one file across in chunks; the new copy appears atomically on commit
+    private static long copyFile(FileInterface source, FileInterface target, FileMetadata file) throws Exception {
+        TransferSession download = source.openDownload(file.getPath());
+        if (download == null) {
+            return 0; // Deleted meanwhile
+        }
+        String path = file.getPath();
+        int slash = path.lastIndexOf('/');
+        TransferSession upload = target.openUpload(slash < 0 ? "" : path.substring(0, slash),
+                path.substring(slash + 1));
+        if (upload == null) {
+            source.closeDownload(download.getSessionId());
+            throw new IllegalStateException("New owner refused the upload of " + path);
+        }
+        boolean committed = false;
+        try {
+            int chunk = Math.min(download.getMaxChunkSize(), upload.getMaxChunkSize());
+            for (long offset = 0; offset < download.getSize(); ) {
+                byte[] data = source.readChunk(download.getSessionId(), offset,
+                        (int) Math.min(chunk, download.getSize() - offset));
+                if (data == null || data.length == 0 || !target.writeChunk(upload.getSessionId(), offset, data)) {
+                    throw new IllegalStateException("Copy of " + path + " stopped at byte " + offset);
+                }
+                offset += data.length;
+            }
+            committed = target.commitUpload(upload.getSessionId());
+            if (!committed) {
+                throw new IllegalStateException("New owner could not commit " + path);
+            }
+            return download.getSize();
+        } finally {
+            if (!committed) {
+                target.abortUpload(upload.getSessionId());
+            }
+            source.closeDownload(download.getSessionId());
+        }
+    }
+
+    private FileInterface stub(ShardNode node) throws Exception {
+        FileInterface stub = stubs.get(node.getId());
+        if (stub == null) {
+            stub = (FileInterface) LocateRegistry.getRegistry(node.getHost(), node.getRmiPort())
+                    .lookup("FileService");
+            stubs.put(node.getId(), stub);
+        }
+        return stub;
+    }
+}
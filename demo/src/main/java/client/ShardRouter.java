@@ -0,0 +1,696 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import shared.BatchResult;
+import shared.FileInterface;
+import shared.FileMetadata;
+import shared.FileUpload;
+import shared.FolderPage;
+import shared.MultipartUpload;
+import shared.PathNames;
+import shared.StorageStats;
+import shared.TransferSession;
+
+/**
+ * FileInterface over several file servers. Every path belongs to the node the
+ * hash ring picks for its top-level folder (see HashRing); the root itself is
+ * spread over all nodes, so root listings, folder lists, search and storage
+ * totals are gathered from every node in parallel and merged.
+ * <p>
+ * While data is being rebalanced onto a new ring, the previous ring is kept
+ * too: reads that miss on the new owner are retried on the old one, listings
+ * merge both, and deletes go to both, so nothing disappears or comes back while
+ * the rebalancer moves it. Writes always go to the new owner.
+ * <p>
+ * Session, upload and cursor ids are prefixed with the index of the node that
+ * issued them so follow-up calls find it again.
+ */
+public class ShardRouter implements FileInterface {
+
+    private static final String ID_SEPARATOR = "~";
+    private static final String MERGED_CURSOR = "*" + ID_SEPARATOR;
+    private static final int MAX_PAGE_SIZE = 1000; // As the file server caps pages
+
+    @FunctionalInterface
+    private interface NodeCall<T> {
+        T call(FileInterface node) throws RemoteException;
+    }
+
+    @FunctionalInterface
+    private interface IndexedCall<T> {
+        T call(int node) throws RemoteException;
+    }
+
+    @FunctionalInterface
+    private interface BatchCall<T> {
+        List<BatchResult> call(FileInterface node, List<T> items) throws RemoteException;
+    }
+
+    private final List<FileInterface> nodes;
+    private final HashRing ring;
+    private final int[] ringNodes;          // Ring index -> index in nodes
+    private final HashRing previousRing;    // Null unless a rebalance is in progress
+    private final int[] previousRingNodes;
+    private final ExecutorService gatherers;
+
+    public ShardRouter(List<FileInterface> nodes, HashRing ring, int[] ringNodes,
+            HashRing previousRing, int[] previousRingNodes) {
+        this.nodes = nodes;
+        this.ring = ring;
+        this.ringNodes = ringNodes;
+        this.previousRing = previousRing;
+        this.previousRingNodes = previousRingNodes;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.gatherers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "shard-gather-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void shutdown() {
+        gatherers.shutdownNow();
+    }
+
+    /** Nodes holding path: its owner first, then its owner before the rebalance if that differs. */
+    public List<Integer> owners(String path) {
+        List<Integer> owners = new ArrayList<>(2);
+        owners.add(ringNodes[ring.nodeFor(path)]);
+        if (previousRing != null) {
+            int previous = previousRingNodes[previousRing.nodeFor(path)];
+            if (previous != owners.get(0)) {
+                owners.add(previous);
+            }
+        }
+        return owners;
+    }
+
+    // The root is on every node; anything else on its owners
+    private List<Integer> targets(String folder) {
+        if (!HashRing.shardKey(folder).isEmpty()) {
+            return owners(folder);
+        }
+        List<Integer> all = new ArrayList<>(nodes.size());
+        for (int node = 0; node < nodes.size(); node++) {
+            all.add(node);
+        }
+        return all;
+    }
+
+    private FileInterface owner(String path) {
+        return nodes.get(owners(path).get(0));
+    }
+
+    // ---------------------------------------------------------------- files
+
+    @Override
+    public boolean uploadFile(String filename, byte[] data) throws RemoteException {
+        return owner(join("", filename)).uploadFile(filename, data);
+    }
+
+    @Override
+    public boolean uploadFileToFolder(String folderPath, String filename, byte[] data) throws RemoteException {
+        return owner(join(folderPath, filename)).uploadFileToFolder(folderPath, filename, data);
+    }
+
+    @Override
+    public boolean uploadByHash(String folderPath, String filename, String sha256) throws RemoteException {
+        return owner(join(folderPath, filename)).uploadByHash(folderPath, filename, sha256);
+    }
+
+    @Override
+    public byte[] downloadFile(String filepath) throws RemoteException {
+        return firstFound(owners(filepath), node -> node.downloadFile(filepath));
+    }
+
+    @Override
+    public boolean deleteFile(String filepath) throws RemoteException {
+        return anySucceeded(owners(filepath), node -> node.deleteFile(filepath));
+    }
+
+    // ---------------------------------------------------------------- listings
+
+    @Override
+    public List<FileMetadata> listFilesExtended() throws RemoteException {
+        return mergeByPath(gather(targets(""), FileInterface::listFilesExtended));
+    }
+
+    @Override
+    public List<FileMetadata> listFolderContents(String folderPath) throws RemoteException {
+        return mergeByPath(gather(targets(folderPath), node -> node.listFolderContents(folderPath)));
+    }
+
+    @Override
+    public FolderPage listFolderContents(String folderPath, int offset, int limit, String sortKey,
+            String order, String nameFilter) throws RemoteException {
+        List<Integer> targets = targets(folderPath);
+        if (targets.size() == 1) {
+            int node = targets.get(0);
+            return fromNode(node, nodes.get(node).listFolderContents(folderPath, offset, limit, sortKey,
+                    order, nameFilter));
+        }
+        MergedQuery query = new MergedQuery(folderPath, limit, sortKey, order, nameFilter,
+                new int[targets.size()]);
+        return mergedPage(targets, query, Math.max(0, offset));
+    }
+
+    @Override
+    public FolderPage listFolderPage(String cursor) throws RemoteException {
+        if (cursor != null && cursor.startsWith(MERGED_CURSOR)) {
+            MergedQuery query = MergedQuery.decode(cursor.substring(MERGED_CURSOR.length()));
+            List<Integer> targets = query == null ? null : targets(query.folder);
+            if (targets == null || targets.size() != query.positions.length) {
+                System.err.println("Invalid or outdated listing cursor: " + cursor);
+                return null;
+            }
+            return mergedPage(targets, query, 0);
+        }
+        int node = nodeOf(cursor);
+        if (node < 0) {
+            System.err.println("Invalid listing cursor: " + cursor);
+            return null;
+        }
+        return fromNode(node, nodes.get(node).listFolderPage(localId(cursor)));
+    }
+
+    // Prefixes the next-page cursor of a single node's page with that node
+    private static FolderPage fromNode(int node, FolderPage page) {
+        if (page != null && page.getNextCursor() != null) {
+            page.setNextCursor(node + ID_SEPARATOR + page.getNextCursor());
+        }
+        return page;
+    }
+
+    /**
+     * One page of a k-way merge over the nodes' sorted listings. The cursor keeps
+     * how far each node has been consumed, so every page asks each node for at most
+     * one page from there. A plain offset is first skipped through the same way.
+     */
+    private FolderPage mergedPage(List<Integer> targets, MergedQuery query, int skip) throws RemoteException {
+        int limit = query.limit <= 0 ? 100 : Math.min(query.limit, MAX_PAGE_SIZE);
+        Comparator<FileMetadata> order = FileMetadata.listingOrder(
+                query.sortKey == null ? "name" : query.sortKey.toLowerCase(Locale.ROOT),
+                "desc".equalsIgnoreCase(query.order));
+        int[] positions = query.positions.clone();
+        int offset = skip;
+        while (skip > 0) {
+            int chunk = Math.min(skip, MAX_PAGE_SIZE);
+            MergeStep step = mergeStep(targets, query, positions, chunk, order);
+            if (step.items.isEmpty()) {
+                break;
+            }
+            skip -= step.items.size();
+        }
+        MergeStep step = mergeStep(targets, query, positions, limit, order);
+        if (step.total < 0) {
+            return null;
+        }
+        long consumed = 0;
+        for (int position : positions) {
+            consumed += position;
+        }
+        String nextCursor = consumed < step.total
+                ? MERGED_CURSOR + new MergedQuery(query.folder, limit, query.sortKey, query.order,
+                        query.filter, positions).encode()
+                : null;
+        return new FolderPage(step.items, offset, limit, step.total, nextCursor);
+    }
+
+    private static class MergeStep {
+        final List<FileMetadata> items = new ArrayList<>();
+        long total = -1; // -1 when no node has the folder
+    }
+
+    // Takes the first count entries across the nodes' listings after positions, advancing them
+    private MergeStep mergeStep(List<Integer> targets, MergedQuery query, int[] positions, int count,
+            Comparator<FileMetadata> order) throws RemoteException {
+        List<FolderPage> pages = gatherIndexed(targets, node -> nodes.get(node).listFolderContents(
+                query.folder, positions[targets.indexOf(node)], count, query.sortKey, query.order, query.filter));
+
+        MergeStep step = new MergeStep();
+        int[] next = new int[pages.size()];
+        for (FolderPage page : pages) {
+            if (page != null) {
+                step.total = Math.max(step.total, 0) + page.getTotal();
+            }
+        }
+        Set<String> seen = new HashSet<>();
+        while (step.items.size() < count) {
+            int best = -1;
+            for (int slot = 0; slot < pages.size(); slot++) {
+                FolderPage page = pages.get(slot);
+                if (page != null && next[slot] < page.getItems().size() && (best < 0
+                        || order.compare(page.getItems().get(next[slot]),
+                                pages.get(best).getItems().get(next[best])) < 0)) {
+                    best = slot;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            FileMetadata item = pages.get(best).getItems().get(next[best]++);
+            positions[best]++;
+            // A top-level folder being moved shows up on both rings; list it once
+            if (seen.add(item.getPath())) {
+                step.items.add(item);
+            }
+        }
+        return step;
+    }
+
+    @Override
+    public List<FileMetadata> search(String query, String mode, int limit) throws RemoteException {
+        List<FileMetadata> merged = mergeByPath(gather(targets(""), node -> node.search(query, mode, limit)));
+        // Each node answers in index order: by name for prefix searches, by path otherwise
+        Comparator<FileMetadata> order = "prefix".equalsIgnoreCase(mode)
+                ? Comparator.comparing((FileMetadata m) -> m.getName().toLowerCase(Locale.ROOT))
+                        .thenComparing(FileMetadata::getPath)
+                : Comparator.comparing(FileMetadata::getPath);
+        merged.sort(order);
+        return merged.size() > limit && limit > 0 ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    // ---------------------------------------------------------------- folders
+
+    @Override
+    public boolean createFolder(String folderPath) throws RemoteException {
+        return owner(folderPath).createFolder(folderPath);
+    }
+
+    @Override
+    public boolean deleteFolder(String folderPath) throws RemoteException {
+        return anySucceeded(targets(folderPath), node -> node.deleteFolder(folderPath));
+    }
+
+    @Override
+    public List<String> listFolders() throws RemoteException {
+        Set<String> folders = new LinkedHashSet<>();
+        for (List<String> nodeFolders : gather(targets(""), FileInterface::listFolders)) {
+            if (nodeFolders != null) {
+                folders.addAll(nodeFolders);
+            }
+        }
+        return new ArrayList<>(folders);
+    }
+
+    @Override
+    public List<FileMetadata> listTree(String folderPath) throws RemoteException {
+        return mergeByPath(gather(targets(folderPath), node -> node.listTree(folderPath)));
+    }
+
+    @Override
+    public boolean folderExists(String folderPath) throws RemoteException {
+        return anySucceeded(targets(folderPath), node -> node.folderExists(folderPath));
+    }
+
+    @Override
+    public StorageStats getStorageStats(String folderPath) throws RemoteException {
+        if (!HashRing.shardKey(folderPath).isEmpty()) {
+            return firstFound(owners(folderPath), node -> node.getStorageStats(folderPath));
+        }
+        StorageStats total = null;
+        for (StorageStats stats : gather(targets(""), node -> node.getStorageStats(folderPath))) {
+            if (stats == null) {
+                continue;
+            }
+            if (total == null) {
+                total = new StorageStats(stats.getFolder(), 0, 0, 0, 0, 0, 0, 0);
+            }
+            total.setTotalSize(total.getTotalSize() + stats.getTotalSize());
+            total.setFileCount(total.getFileCount() + stats.getFileCount());
+            total.setFolderCount(total.getFolderCount() + stats.getFolderCount());
+            total.setUsedSpace(total.getUsedSpace() + stats.getUsedSpace());
+            total.setTotalSpace(total.getTotalSpace() + stats.getTotalSpace());
+            total.setUsableSpace(total.getUsableSpace() + stats.getUsableSpace());
+            total.setFreeSpace(total.getFreeSpace() + stats.getFreeSpace());
+        }
+        return total;
+    }
+
+    // ---------------------------------------------------------------- batches
+
+    @Override
+    public List<BatchResult> uploadFiles(List<FileUpload> uploads) throws RemoteException {
+        return batch(uploads, upload -> join(upload.getFolderPath(), upload.getFilename()),
+                FileInterface::uploadFiles, false);
+    }
+
+    @Override
+    public List<BatchResult> downloadFiles(List<String> filepaths) throws RemoteException {
+        return batch(filepaths, Function.identity(), FileInterface::downloadFiles, true);
+    }
+
+    @Override
+    public List<BatchResult> deleteFiles(List<String> filepaths) throws RemoteException {
+        List<BatchResult> results = batch(filepaths, Function.identity(), FileInterface::deleteFiles, true);
+        if (results != null && previousRing != null) {
+            // Also delete what is still on the old owner, or it would come back through the fallback
+            List<String> moved = new ArrayList<>();
+            for (String path : filepaths) {
+                if (owners(path).size() > 1) {
+                    moved.add(path);
+                }
+            }
+            if (!moved.isEmpty()) {
+                batchOn(moved, Function.identity(), FileInterface::deleteFiles, 1);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<BatchResult> statFiles(List<String> paths) throws RemoteException {
+        return batch(paths, Function.identity(), FileInterface::statFiles, true);
+    }
+
+    /**
+     * Splits a batch by owner, sends the parts in parallel and puts the results
+     * back in request order. With retryMissing, items that failed on the new owner
+     * are tried again on their owner before the rebalance. Null if any node
+     * rejects its part as too large, as a single server would.
+     */
+    private <T> List<BatchResult> batch(List<T> items, Function<T, String> pathOf, BatchCall<T> call,
+            boolean retryMissing) throws RemoteException {
+        List<BatchResult> results = batchOn(items, pathOf, call, 0);
+        if (results == null || !retryMissing || previousRing == null) {
+            return results;
+        }
+        List<Integer> retry = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (!results.get(i).isSuccess() && owners(pathOf.apply(items.get(i))).size() > 1) {
+                retry.add(i);
+            }
+        }
+        if (!retry.isEmpty()) {
+            List<T> retried = new ArrayList<>();
+            for (int i : retry) {
+                retried.add(items.get(i));
+            }
+            List<BatchResult> second = batchOn(retried, pathOf, call, 1);
+            for (int i = 0; second != null && i < retry.size(); i++) {
+                if (second.get(i).isSuccess()) {
+                    results.set(retry.get(i), second.get(i));
+                }
+            }
+        }
+        return results;
+    }
+
+    // Runs a batch against the owners at the given rank (0: current ring, 1: previous ring)
+    private <T> List<BatchResult> batchOn(List<T> items, Function<T, String> pathOf, BatchCall<T> call,
+            int rank) throws RemoteException {
+        Map<Integer, List<Integer>> positionsByNode = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            List<Integer> owners = owners(pathOf.apply(items.get(i)));
+            int node = owners.get(Math.min(rank, owners.size() - 1));
+            positionsByNode.computeIfAbsent(node, key -> new ArrayList<>()).add(i);
+        }
+        List<Integer> targets = new ArrayList<>(positionsByNode.keySet());
+        List<List<BatchResult>> parts = gatherIndexed(targets, node -> {
+            List<T> part = new ArrayList<>();
+            for (int i : positionsByNode.get(node)) {
+                part.add(items.get(i));
+            }
+            return call.call(nodes.get(node), part);
+        });
+
+        BatchResult[] results = new BatchResult[items.size()];
+        for (int t = 0; t < targets.size(); t++) {
+            List<Integer> positions = positionsByNode.get(targets.get(t));
+            List<BatchResult> part = parts.get(t);
+            if (part == null) {
+                return null;
+            }
+            for (int i = 0; i < positions.size(); i++) {
+                results[positions.get(i)] = part.get(i);
+            }
+        }
+        return new ArrayList<>(List.of(results));
+    }
+
+    // ---------------------------------------------------------------- transfers
+
+    @Override
+    public TransferSession openUpload(String folderPath, String filename) throws RemoteException {
+        List<Integer> owners = owners(join(folderPath, filename));
+        TransferSession session = nodes.get(owners.get(0)).openUpload(folderPath, filename);
+        return withNode(owners.get(0), session);
+    }
+
+    @Override
+    public boolean writeChunk(String sessionId, long offset, byte[] data) throws RemoteException {
+        int node = nodeOf(sessionId);
+        return node >= 0 && nodes.get(node).writeChunk(localId(sessionId), offset, data);
+    }
+
+    @Override
+    public boolean commitUpload(String sessionId) throws RemoteException {
+        int node = nodeOf(sessionId);
+        return node >= 0 && nodes.get(node).commitUpload(localId(sessionId));
+    }
+
+    @Override
+    public void abortUpload(String sessionId) throws RemoteException {
+        int node = nodeOf(sessionId);
+        if (node >= 0) {
+            nodes.get(node).abortUpload(localId(sessionId));
+        }
+    }
+
+    @Override
+    public TransferSession openDownload(String filepath) throws RemoteException {
+        for (int node : owners(filepath)) {
+            TransferSession session = nodes.get(node).openDownload(filepath);
+            if (session != null) {
+                return withNode(node, session);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] readChunk(String sessionId, long offset, int length) throws RemoteException {
+        int node = nodeOf(sessionId);
+        return node < 0 ? null : nodes.get(node).readChunk(localId(sessionId), offset, length);
+    }
+
+    @Override
+    public void closeDownload(String sessionId) throws RemoteException {
+        int node = nodeOf(sessionId);
+        if (node >= 0) {
+            nodes.get(node).closeDownload(localId(sessionId));
+        }
+    }
+
+    @Override
+    public MultipartUpload openMultipartUpload(String folderPath, String filename, long size, int partSize)
+            throws RemoteException {
+        int node = owners(join(folderPath, filename)).get(0);
+        return withNode(node, nodes.get(node).openMultipartUpload(folderPath, filename, size, partSize));
+    }
+
+    @Override
+    public boolean writePart(String uploadId, int part, byte[] data, String crc32c) throws RemoteException {
+        int node = nodeOf(uploadId);
+        return node >= 0 && nodes.get(node).writePart(localId(uploadId), part, data, crc32c);
+    }
+
+    @Override
+    public MultipartUpload getMultipartUpload(String uploadId) throws RemoteException {
+        int node = nodeOf(uploadId);
+        return node < 0 ? null : withNode(node, nodes.get(node).getMultipartUpload(localId(uploadId)));
+    }
+
+    @Override
+    public boolean completeMultipartUpload(String uploadId) throws RemoteException {
+        int node = nodeOf(uploadId);
+        return node >= 0 && nodes.get(node).completeMultipartUpload(localId(uploadId));
+    }
+
+    private static TransferSession withNode(int node, TransferSession session) {
+        if (session != null) {
+            session.setSessionId(node + ID_SEPARATOR + session.getSessionId());
+        }
+        return session;
+    }
+
+    private static MultipartUpload withNode(int node, MultipartUpload upload) {
+        if (upload != null) {
+            upload.setUploadId(node + ID_SEPARATOR + upload.getUploadId());
+        }
+        return upload;
+    }
+
+    // Node that issued a prefixed id, or -1 for an id we did not hand out
+    private int nodeOf(String id) {
+        int separator = id == null ? -1 : id.indexOf(ID_SEPARATOR);
+        if (separator <= 0) {
+            return -1;
+        }
+        try {
+            int node = Integer.parseInt(id.substring(0, separator));
+            return node < nodes.size() ? node : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String localId(String id) {
+        return id.substring(id.indexOf(ID_SEPARATOR) + 1);
+    }
+
+    // ---------------------------------------------------------------- fan-out
+
+    private <T> T firstFound(List<Integer> targets, NodeCall<T> call) throws RemoteException {
+        for (int node : targets) {
+            T result = call.call(nodes.get(node));
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private boolean anySucceeded(List<Integer> targets, NodeCall<Boolean> call) throws RemoteException {
+        boolean succeeded = false;
+        for (Boolean result : gather(targets, call)) {
+            succeeded |= Boolean.TRUE.equals(result);
+        }
+        return succeeded;
+    }
+
+    /**
+     * Calls the target nodes in parallel; results are in target order. A node that
+     * fails contributes null (a partial root listing beats none) unless all fail.
+     */
+    private <T> List<T> gather(List<Integer> targets, NodeCall<T> call) throws RemoteException {
+        return gatherIndexed(targets, node -> call.call(nodes.get(node)));
+    }
+
+    private <T> List<T> gatherIndexed(List<Integer> targets, IndexedCall<T> call) throws RemoteException {
+        List<T> results = new ArrayList<>(targets.size());
+        if (targets.size() == 1) {
+            results.add(call.call(targets.get(0)));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(targets.size());
+        for (int node : targets) {
+            futures.add(gatherers.submit(() -> call.call(node)));
+        }
+        RemoteException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                System.err.println("File server node " + targets.get(i) + " failed, results are partial: "
+                        + cause.getMessage());
+                failure = cause instanceof RemoteException
+                        ? (RemoteException) cause
+                        : new RemoteException(cause.getMessage(), cause);
+                results.add(null);
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while gathering from file servers", e);
+            }
+        }
+        if (failure != null && results.stream().allMatch(result -> result == null)) {
+            throw failure;
+        }
+        return results;
+    }
+
+    // Concatenates listings, keeping the first entry per path; null if every node had null
+    private static List<FileMetadata> mergeByPath(List<List<FileMetadata>> listings) {
+        Map<String, FileMetadata> merged = null;
+        for (List<FileMetadata> listing : listings) {
+            if (listing == null) {
+                continue;
+            }
+            if (merged == null) {
+                merged = new LinkedHashMap<>();
+            }
+            for (FileMetadata metadata : listing) {
+                merged.putIfAbsent(metadata.getPath(), metadata);
+            }
+        }
+        return merged == null ? null : new ArrayList<>(merged.values());
+    }
+
+    // Path the file server stores an upload at, so it is placed by the same key
+    private static String join(String folderPath, String filename) {
+        String folder = PathNames.normalize(folderPath);
+        String name = PathNames.filename(filename);
+        return folder.isEmpty() ? name : folder + "/" + name;
+    }
+
+    // Paged listing merged from several nodes, with how far each node's listing was consumed
+    private static class MergedQuery {
+        final String folder;
+        final int limit;
+        final String sortKey;
+        final String order;
+        final String filter;
+        final int[] positions;
+
+        MergedQuery(String folder, int limit, String sortKey, String order, String filter, int[] positions) {
+            this.folder = folder == null ? "" : folder;
+            this.limit = limit;
+            this.sortKey = sortKey == null ? "name" : sortKey;
+            this.order = order == null ? "asc" : order;
+            this.filter = filter == null ? "" : filter;
+            this.positions = positions;
+        }
+
+        String encode() {
+            StringBuilder positionList = new StringBuilder();
+            for (int position : positions) {
+                positionList.append(positionList.length() > 0 ? "," : "").append(position);
+            }
+            String raw = String.join("\n", folder, String.valueOf(limit), sortKey, order, filter,
+                    positionList);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static MergedQuery decode(String encoded) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8)
+                        .split("\n", -1);
+                if (parts.length != 6) {
+                    return null;
+                }
+                String[] positionList = parts[5].split(",");
+                int[] positions = new int[positionList.length];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = Integer.parseInt(positionList[i]);
+                }
+                return new MergedQuery(parts[0], Integer.parseInt(parts[1]), parts[2], parts[3], parts[4],
+                        positions);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package client;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Caps the uploads and downloads a single user may run at once; further ones get
+ * 429 Too Many Requests. Login is client-side only, so a user is identified by
+ * their address. A streamed response holds its slot until the async request
+ * completes, not just until the handler returns.
+ */
+@Component
+public class TransferLimitFilter extends OncePerRequestFilter {
+
+    private static final List<String> TRANSFER_PATHS = List.of(
+            "/upload", "/download/", "/api/upload-stream", "/api/download-folder", "/api/batch/",
+            "/api/multipart/");
+
+    private final int maxPerUser;
+    // Only users with transfers in flight have an entry
+    private final ConcurrentHashMap<String, Integer> inFlight = new ConcurrentHashMap<>();
+
+    public TransferLimitFilter(@Value("${fileserver.max-transfers-per-user:8}") int maxPerUser) {
+        this.maxPerUser = maxPerUser;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        if (maxPerUser <= 0) {
+            return true;
+        }
+        String path = request.getRequestURI();
+        return TRANSFER_PATHS.stream().noneMatch(path::startsWith);
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+            @NonNull FilterChain chain) throws ServletException, IOException {
+        String user = request.getRemoteAddr();
+        if (inFlight.merge(user, 1, Integer::sum) > maxPerUser) {
+            release(user);
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader("Retry-After", "1");
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"error\":\"Too many transfers in progress, limit is " + maxPerUser + "\"}");
+            return;
+        }
+
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseListener(user));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                release(user);
+            }
+        }
+    }
+
+    private void release(String user) {
+        inFlight.computeIfPresent(user, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private class ReleaseListener implements AsyncListener {
+        private final String user;
+        private boolean released;
+
+        ReleaseListener(String user) {
+            this.user = user;
+        }
+
+        @Override
+        public synchronized void onComplete(AsyncEvent event) {
+            if (!released) {
+                released = true;
+                release(user);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            onComplete(event);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            onComplete(event);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Re-register for the next async cycle, if any
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package client;
 
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32C;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -16,29 +23,72 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
+import shared.BatchResult;
+import shared.ByteRange;
 import shared.FileInterface;
 import shared.FileMetadata;  // ADD THIS IMPORT
+import shared.FileUpload;
+import shared.FolderPage;
+import shared.MultipartUpload;
+import shared.StorageStats;
+import shared.TransferSession;
 
 @Controller
 public class WebFileController {
 
-    private FileInterface getStub() throws Exception {
-        try {
-            System.out.println("Attempting to connect to RMI registry at localhost:1099...");
-            Registry registry = LocateRegistry.getRegistry("localhost", 1099);
-            System.out.println("Registry found, looking up 'FileService'...");
-            FileInterface stub = (FileInterface) registry.lookup("FileService");
-            System.out.println("RMI connection successful!");
-            return stub;
-        } catch (Exception e) {
-            System.err.println("RMI Connection failed: " + e.getMessage());
-            e.printStackTrace();
-            throw e;
+    // Size of each RMI transfer chunk; bounds the heap used per upload/download
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    // Bytes sent per uploadFiles call; files above SMALL_FILE_SIZE are streamed in chunks instead
+    private static final long BATCH_BYTES = 64L * 1024 * 1024;
+    private static final long SMALL_FILE_SIZE = 4L * 1024 * 1024;
+    // Largest multipart upload part; a part travels to the file server in one RMI call
+    private static final int MAX_PART_SIZE = 4 * 1024 * 1024;
+
+    private final FileServiceStubManager stubManager;
+    private final DataChannelClient dataChannel;
+    private final FolderArchiver folderArchiver;
+    private final RmiCallExecutor rmiCalls;
+    private final HotFileCache hotFiles;
+    private final ChangeEventRelay changeEvents;
+    private final boolean hashFirstUpload;
+    private final boolean logRequests;
+
+    public WebFileController(FileServiceStubManager stubManager, DataChannelClient dataChannel,
+            FolderArchiver folderArchiver, RmiCallExecutor rmiCalls, HotFileCache hotFiles,
+            ChangeEventRelay changeEvents,
+            @Value("${fileserver.hash-first-upload:false}") boolean hashFirstUpload,
+            @Value("${fileserver.log-requests:true}") boolean logRequests) {
+        this.stubManager = stubManager;
+        this.dataChannel = dataChannel;
+        this.folderArchiver = folderArchiver;
+        this.rmiCalls = rmiCalls;
+        this.hotFiles = hotFiles;
+        this.changeEvents = changeEvents;
+        this.hashFirstUpload = hashFirstUpload;
+        this.logRequests = logRequests;
+    }
+
+    private FileInterface getStub() {
+        return stubManager.getStub();
+    }
+
+    // Per-request console lines; fileserver.log-requests=false leaves that to the metrics
+    private void logRequest(String message) {
+        if (logRequests) {
+            System.out.println(message);
         }
     }
 
@@ -82,10 +132,27 @@ public class WebFileController {
         return "index";
     }
 
+    // Listings are async: the RMI call runs on RmiCallExecutor and the servlet thread is freed
     @GetMapping("/api/files")
     @ResponseBody
-    public ResponseEntity<?> getFiles(@RequestParam(value = "folder", defaultValue = "") String folder) {
+    public DeferredResult<ResponseEntity<?>> getFiles(@RequestParam(value = "folder", defaultValue = "") String folder,
+            @RequestParam(value = "page", required = false) Integer page,
+            @RequestParam(value = "size", required = false) Integer size,
+            @RequestParam(value = "sort", defaultValue = "name") String sort,
+            @RequestParam(value = "order", defaultValue = "asc") String order,
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return rmiCalls.submit(() -> listFiles(folder, page, size, sort, order, query, cursor));
+    }
+
+    private ResponseEntity<?> listFiles(String folder, Integer page, Integer size, String sort, String order,
+            String query, String cursor) {
         try {
+            // Paginated mode: only the requested slice crosses RMI
+            if (page != null || size != null || query != null || cursor != null) {
+                return getFilesPage(folder, page, size, sort, order, query, cursor);
+            }
+
             List<FileMetadata> files = getStub().listFolderContents(folder);
 
             // Add parent folder entry if we're in a subfolder
@@ -101,7 +168,7 @@ public class WebFileController {
                 files.add(0, parentFolder);
             }
 
-            System.out.println("API: Returning " + files.size() + " files from folder: "
+            logRequest("API: Returning " + files.size() + " files from folder: "
                     + (folder.isEmpty() ? "root" : folder));
 
             return ResponseEntity.ok(files);
@@ -116,13 +183,67 @@ public class WebFileController {
         }
     }
 
+    private ResponseEntity<?> getFilesPage(String folder, Integer page, Integer size, String sort,
+            String order, String query, String cursor) throws Exception {
+        FolderPage result;
+        if (cursor != null) {
+            result = getStub().listFolderPage(cursor);
+        } else {
+            // Capped like the server does, so page numbers count the pages it returns
+            int pageSize = size != null && size > 0 ? Math.min(size, FolderPage.MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+            long offset = page != null && page > 0 ? (long) page * pageSize : 0;
+            if (offset > Integer.MAX_VALUE - FolderPage.MAX_PAGE_SIZE) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Page out of range");
+                return ResponseEntity.badRequest().body(errorResponse);
+            }
+            result = getStub().listFolderContents(folder, (int) offset, pageSize, sort, order, query);
+        }
+
+        if (result == null) {
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Invalid listing request");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("items", result.getItems());
+        response.put("offset", result.getOffset());
+        response.put("size", result.getLimit());
+        response.put("page", result.getLimit() == 0 ? 0 : result.getOffset() / result.getLimit());
+        response.put("total", result.getTotal());
+        response.put("nextCursor", result.getNextCursor());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/api/search")
+    @ResponseBody
+    public DeferredResult<ResponseEntity<?>> search(@RequestParam("q") String query,
+            @RequestParam(value = "mode", defaultValue = "substring") String mode,
+            @RequestParam(value = "limit", defaultValue = "200") int limit) {
+        return rmiCalls.submit(() -> searchFiles(query, mode, limit));
+    }
+
+    private ResponseEntity<?> searchFiles(String query, String mode, int limit) {
+        try {
+            List<FileMetadata> results = getStub().search(query, mode, limit);
+            return ResponseEntity.ok(results);
+        } catch (Exception e) {
+            System.err.println("Search error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Search failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
     @PostMapping("/upload")
     @ResponseBody
     public ResponseEntity<?> upload(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "folder", defaultValue = "") String folder) {
 
-        System.out.println("Upload request: file=" + file.getOriginalFilename()
+        logRequest("Upload request: file=" + file.getOriginalFilename()
                 + ", folder=" + (folder.isEmpty() ? "root" : folder));
 
         try {
@@ -132,7 +253,7 @@ public class WebFileController {
                 return ResponseEntity.badRequest().body(errorResponse);
             }
 
-            boolean success = getStub().uploadFileToFolder(folder, file.getOriginalFilename(), file.getBytes());
+            boolean success = uploadMultipart(getStub(), folder, file);
 
             if (success) {
                 Map<String, String> response = new HashMap<>();
@@ -156,33 +277,260 @@ public class WebFileController {
         }
     }
 
-    @GetMapping("/download/{filename:.+}")
-    public ResponseEntity<byte[]> download(
-            @PathVariable String filename,
+    // Raw request body upload: bytes go to the file server as they arrive, without
+    // multipart parsing or staging. Hash-first linking is left to /upload, which hashes
+    // the bytes itself: a hash claimed by the client cannot be trusted.
+    @PostMapping(value = "/api/upload-stream", consumes = MediaType.ALL_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> uploadStream(HttpServletRequest request,
+            @RequestParam("filename") String filename,
             @RequestParam(value = "folder", defaultValue = "") String folder) {
 
-        System.out.println("Download request: file=" + filename
+        logRequest("Stream upload request: file=" + filename
                 + ", folder=" + (folder.isEmpty() ? "root" : folder));
 
+        // The container would parse a form body as parameters, leaving nothing to store
+        String contentType = request.getContentType();
+        if (contentType != null && (contentType.startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+                || contentType.startsWith(MediaType.MULTIPART_FORM_DATA_VALUE))) {
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Send the file as the raw request body, not as a form (use /upload for forms)");
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).body(errorResponse);
+        }
+
+        try {
+            boolean success = uploadInChunks(getStub(), folder, filename, request.getInputStream(),
+                    request.getContentLengthLong());
+
+            if (success) {
+                Map<String, String> response = new HashMap<>();
+                response.put("message", "File uploaded successfully");
+                response.put("filename", filename);
+                response.put("folder", folder);
+                return ResponseEntity.ok(response);
+            } else {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Failed to upload file");
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+            }
+
+        } catch (Exception e) {
+            System.err.println("Stream upload error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Upload failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    // Multipart upload: start, send parts (any order, in parallel, each retried on its own),
+    // complete. A client that lost its connection asks for the upload's state and only sends
+    // the missing parts.
+    @PostMapping("/api/multipart/start")
+    @ResponseBody
+    public ResponseEntity<?> startMultipart(@RequestParam("filename") String filename,
+            @RequestParam(value = "folder", defaultValue = "") String folder,
+            @RequestParam("size") long size,
+            @RequestParam("partSize") int partSize) {
+
+        logRequest("Multipart upload request: file=" + filename
+                + ", folder=" + (folder.isEmpty() ? "root" : folder) + ", size=" + size);
+
+        if (size < 0 || partSize <= 0 || partSize > MAX_PART_SIZE) {
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "size must be at least 0 and partSize between 1 and " + MAX_PART_SIZE + " bytes");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+
+        try {
+            MultipartUpload upload = getStub().openMultipartUpload(folder, filename, size, partSize);
+            if (upload == null) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Cannot start upload (parts may be at most " + MAX_PART_SIZE + " bytes)");
+                return ResponseEntity.badRequest().body(errorResponse);
+            }
+            return ResponseEntity.ok(multipartResponse(upload));
+        } catch (Exception e) {
+            System.err.println("Multipart start error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Upload failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    @GetMapping("/api/multipart/{uploadId}")
+    @ResponseBody
+    public ResponseEntity<?> getMultipart(@PathVariable String uploadId) {
+        try {
+            MultipartUpload upload = getStub().getMultipartUpload(uploadId);
+            if (upload == null) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Upload not found or expired");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
+            }
+            return ResponseEntity.ok(multipartResponse(upload));
+        } catch (Exception e) {
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Cannot read upload state: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    // The part is the raw request body; X-Part-CRC32C carries its checksum as 8 hex digits
+    @PostMapping(value = "/api/multipart/{uploadId}/part/{part}", consumes = MediaType.ALL_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> uploadPart(@PathVariable String uploadId, @PathVariable int part,
+            @RequestHeader("X-Part-CRC32C") String crc32c, HttpServletRequest request) {
+        try {
+            byte[] data = request.getInputStream().readNBytes(MAX_PART_SIZE + 1);
+            if (data.length > MAX_PART_SIZE || !crc32c.equalsIgnoreCase(crc32c(data))) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", data.length > MAX_PART_SIZE
+                        ? "Part larger than " + MAX_PART_SIZE + " bytes" : "Checksum mismatch, send the part again");
+                return ResponseEntity.badRequest().body(errorResponse);
+            }
+            // The file server checks the checksum again, covering the RMI hop
+            if (!getStub().writePart(uploadId, part, data, crc32c)) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Part " + part + " rejected");
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("part", part);
+            response.put("size", data.length);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.err.println("Part upload error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Part upload failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    @PostMapping("/api/multipart/{uploadId}/complete")
+    @ResponseBody
+    public ResponseEntity<?> completeMultipart(@PathVariable String uploadId) {
+        try {
+            FileInterface stub = getStub();
+            MultipartUpload upload = stub.getMultipartUpload(uploadId);
+            if (upload == null) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Upload not found or expired");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
+            }
+            if (!stub.completeMultipartUpload(uploadId)) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Failed to assemble file");
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+            }
+            logRequest("Multipart upload successful: " + upload.getPath());
+
+            Map<String, String> response = new HashMap<>();
+            response.put("message", "File uploaded successfully");
+            response.put("path", upload.getPath());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            System.err.println("Multipart complete error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Upload failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    @PostMapping("/api/multipart/{uploadId}/abort")
+    @ResponseBody
+    public ResponseEntity<?> abortMultipart(@PathVariable String uploadId) {
+        try {
+            getStub().abortUpload(uploadId);
+            Map<String, String> response = new HashMap<>();
+            response.put("message", "Upload aborted");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Abort failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    @GetMapping("/download/{filename:.+}")
+    public ResponseEntity<StreamingResponseBody> download(
+            @PathVariable String filename,
+            @RequestParam(value = "folder", defaultValue = "") String folder,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            WebRequest webRequest) {
+
+        logRequest("Download request: file=" + filename
+                + ", folder=" + (folder.isEmpty() ? "root" : folder)
+                + (rangeHeader != null ? ", range=" + rangeHeader : ""));
+
         try {
             String filepath = folder.isEmpty() ? filename : folder + "/" + filename;
-            byte[] data = getStub().downloadFile(filepath);
+            ByteRange requested = ByteRange.parse(rangeHeader);
+
+            // Validators come from one stat; if it fails the file is streamed without them
+            FileMetadata metadata = stat(filepath);
+            if (metadata != null && !metadata.isDirectory()) {
+                if (webRequest.checkNotModified(etag(metadata), metadata.getLastModified())) {
+                    logRequest("Download not modified: " + filename);
+                    return null; // 304 with ETag and Last-Modified already set
+                }
+                // If-Range with an old ETag (or a date) means the client's copy is stale: send it all
+                if (requested != null && ifRange != null && !ifRange.equals(etag(metadata))) {
+                    requested = null;
+                }
+                if (hotFiles.isEligible(metadata.getSize())) {
+                    return downloadViaCache(filename, filepath, metadata, requested);
+                }
+            }
 
-            if (data == null) {
-                System.err.println("File not found: " + filepath);
+            if (dataChannel.isEnabled()) {
+                try {
+                    return downloadViaDataChannel(filename, filepath, requested);
+                } catch (IOException e) {
+                    System.err.println("Data channel unavailable, falling back to RMI: " + e.getMessage());
+                }
+            }
+            return downloadViaRmi(filename, filepath, requested);
+
+        } catch (Exception e) {
+            System.err.println("Download error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Streams the folder as a ZIP built on the fly; store=true skips compression altogether
+    @GetMapping("/api/download-folder")
+    public ResponseEntity<StreamingResponseBody> downloadFolder(@RequestParam("path") String folderPath,
+            @RequestParam(value = "store", defaultValue = "false") boolean storeOnly) {
+
+        logRequest("Download folder request: path=" + (folderPath.isEmpty() ? "root" : folderPath)
+                + (storeOnly ? ", store only" : ""));
+
+        try {
+            List<FileMetadata> tree = getStub().listTree(folderPath);
+            if (tree == null) {
+                System.err.println("Folder not found: " + folderPath);
                 return ResponseEntity.notFound().build();
             }
 
+            String folderName = folderPath.isEmpty() ? "files" : folderPath.substring(folderPath.lastIndexOf('/') + 1);
             HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
-            headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE);
-            headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(data.length));
+            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + folderName + ".zip\"");
+            headers.add(HttpHeaders.CONTENT_TYPE, "application/zip");
 
-            System.out.println("Download successful: " + filename + " (" + data.length + " bytes)");
-            return new ResponseEntity<>(data, headers, HttpStatus.OK);
+            StreamingResponseBody body = out -> {
+                folderArchiver.write(folderPath, tree, storeOnly, out);
+                logRequest("Folder download successful: " + folderName + ".zip (" + tree.size() + " entries)");
+            };
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
 
         } catch (Exception e) {
-            System.err.println("Download error: " + e.getMessage());
+            System.err.println("Download folder error: " + e.getMessage());
             e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -194,7 +542,7 @@ public class WebFileController {
             @PathVariable String filename,
             @RequestParam(value = "folder", defaultValue = "") String folder) {
 
-        System.out.println("Delete request: file=" + filename
+        logRequest("Delete request: file=" + filename
                 + ", folder=" + (folder.isEmpty() ? "root" : folder));
 
         try {
@@ -227,7 +575,7 @@ public class WebFileController {
     public ResponseEntity<?> createFolder(@RequestParam("name") String folderName,
             @RequestParam(value = "parent", defaultValue = "") String parentFolder) {
 
-        System.out.println("Create folder: name=" + folderName
+        logRequest("Create folder: name=" + folderName
                 + ", parent=" + (parentFolder.isEmpty() ? "root" : parentFolder));
 
         try {
@@ -265,7 +613,11 @@ public class WebFileController {
 
     @GetMapping("/api/folders")
     @ResponseBody
-    public ResponseEntity<?> listFolders() {
+    public DeferredResult<ResponseEntity<?>> listFolders() {
+        return rmiCalls.submit(this::listFolderNames);
+    }
+
+    private ResponseEntity<?> listFolderNames() {
         try {
             List<String> folders = getStub().listFolders();
             return ResponseEntity.ok(folders);
@@ -278,35 +630,36 @@ public class WebFileController {
         }
     }
 
+    // Server-sent change events for one folder, so pages apply deltas instead of reloading listings
+    @GetMapping(value = "/api/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> events(@RequestParam(value = "folder", defaultValue = "") String folder,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        if (!changeEvents.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(changeEvents.subscribe(folder, lastEventId));
+    }
+
     @GetMapping("/api/storage")
     @ResponseBody
-    public ResponseEntity<?> getStorageInfo(@RequestParam(value = "folder", defaultValue = "") String folder) {
+    public DeferredResult<ResponseEntity<?>> getStorageInfo(
+            @RequestParam(value = "folder", defaultValue = "") String folder) {
+        return rmiCalls.submit(() -> storageInfo(folder));
+    }
+
+    private ResponseEntity<?> storageInfo(String folder) {
         try {
-            List<FileMetadata> files = getStub().listFolderContents(folder);
-            long totalSize = 0;
-            int fileCount = 0;
-            int folderCount = 0;
-
-            for (FileMetadata file : files) {
-                if (file.isDirectory()) {
-                    if (!file.getName().equals("..")) { // Don't count parent folder
-                        folderCount++;
-                    }
-                } else {
-                    totalSize += file.getSize();
-                    fileCount++;
-                }
-            }
+            StorageStats stats = getStub().getStorageStats(folder);
 
             Map<String, Object> storageInfo = new HashMap<>();
-            storageInfo.put("totalSize", totalSize);
-            storageInfo.put("fileCount", fileCount);
-            storageInfo.put("folderCount", folderCount);
-            storageInfo.put("usedSpace", totalSize);
-            storageInfo.put("totalSpace", 10L * 1024 * 1024 * 1024); // 10 GB
-
-            System.out.println("Storage info: " + fileCount + " files, "
-                    + folderCount + " folders, " + totalSize + " bytes");
+            storageInfo.put("totalSize", stats.getTotalSize());
+            storageInfo.put("fileCount", stats.getFileCount());
+            storageInfo.put("folderCount", stats.getFolderCount());
+            storageInfo.put("usedSpace", stats.getUsedSpace());
+            storageInfo.put("totalSpace", stats.getTotalSpace());
+            storageInfo.put("usableSpace", stats.getUsableSpace());
+            storageInfo.put("freeSpace", stats.getFreeSpace());
 
             return ResponseEntity.ok(storageInfo);
 
@@ -323,7 +676,7 @@ public class WebFileController {
     @ResponseBody
     public ResponseEntity<?> deleteFolder(@RequestParam("path") String folderPath) {
 
-        System.out.println("Delete folder request: path=" + folderPath);
+        logRequest("Delete folder request: path=" + folderPath);
 
         try {
             boolean success = getStub().deleteFolder(folderPath);
@@ -349,7 +702,410 @@ public class WebFileController {
         }
     }
 
+    @PostMapping(value = "/api/batch/delete", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> deleteBatch(@RequestBody List<String> paths) {
+        logRequest("Batch delete request: " + paths.size() + " files");
+        try {
+            return batchResponse(getStub().deleteFiles(paths));
+        } catch (Exception e) {
+            System.err.println("Batch delete error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Batch delete failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    @PostMapping(value = "/api/batch/stat", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> statBatch(@RequestBody List<String> paths) {
+        try {
+            return batchResponse(getStub().statFiles(paths));
+        } catch (Exception e) {
+            System.err.println("Batch stat error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Batch stat failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    // Contents come back base64-encoded in each result's "data"; the server caps the total size
+    @PostMapping(value = "/api/batch/download", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> downloadBatch(@RequestBody List<String> paths) {
+        logRequest("Batch download request: " + paths.size() + " files");
+        try {
+            return batchResponse(getStub().downloadFiles(paths));
+        } catch (Exception e) {
+            System.err.println("Batch download error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Batch download failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    // JSON array of {folderPath, filename, data} with base64 data
+    @PostMapping(value = "/api/batch/upload", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> uploadBatch(@RequestBody List<FileUpload> uploads) {
+        logRequest("Batch upload request: " + uploads.size() + " files");
+        long total = 0;
+        for (FileUpload upload : uploads) {
+            total += upload.getData() == null ? 0 : upload.getData().length;
+        }
+        if (total > BATCH_BYTES) {
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Batch too large: " + total + " bytes, limit is " + BATCH_BYTES);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(errorResponse);
+        }
+
+        try {
+            return batchResponse(getStub().uploadFiles(uploads));
+        } catch (Exception e) {
+            System.err.println("Batch upload error: " + e.getMessage());
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Batch upload failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
+    // Browser form variant: small files share uploadFiles calls, large ones are streamed as usual
+    @PostMapping(value = "/api/batch/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> uploadBatch(@RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "folder", defaultValue = "") String folder) {
+        logRequest("Batch upload request: " + files.size() + " files, folder="
+                + (folder.isEmpty() ? "root" : folder));
+        try {
+            FileInterface stub = getStub();
+            BatchResult[] results = new BatchResult[files.size()];
+            List<FileUpload> pending = new ArrayList<>();
+            List<Integer> pendingIndexes = new ArrayList<>();
+            long pendingBytes = 0;
+
+            for (int i = 0; i < files.size(); i++) {
+                MultipartFile file = files.get(i);
+                if (file.getSize() > SMALL_FILE_SIZE) {
+                    String filepath = folder.isEmpty() ? file.getOriginalFilename()
+                            : folder + "/" + file.getOriginalFilename();
+                    results[i] = uploadMultipart(stub, folder, file)
+                            ? BatchResult.ok(filepath)
+                            : BatchResult.failed(filepath, "Upload failed");
+                    continue;
+                }
+                if (pendingBytes + file.getSize() > BATCH_BYTES) {
+                    if (!flushUploads(stub, pending, pendingIndexes, results)) {
+                        return batchResponse(null);
+                    }
+                    pendingBytes = 0;
+                }
+                pending.add(new FileUpload(folder, file.getOriginalFilename(), file.getBytes()));
+                pendingIndexes.add(i);
+                pendingBytes += file.getSize();
+            }
+            if (!flushUploads(stub, pending, pendingIndexes, results)) {
+                return batchResponse(null);
+            }
+            return batchResponse(Arrays.asList(results));
+
+        } catch (Exception e) {
+            System.err.println("Batch upload error: " + e.getMessage());
+            e.printStackTrace();
+
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Batch upload failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+
     // Helper methods
+    private ResponseEntity<?> batchResponse(List<BatchResult> results) {
+        if (results == null) {
+            Map<String, String> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Invalid or oversized batch");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    // Sends the pending uploads in one call and files the results under their original positions
+    private boolean flushUploads(FileInterface stub, List<FileUpload> pending, List<Integer> indexes,
+            BatchResult[] results) throws IOException {
+        if (pending.isEmpty()) {
+            return true;
+        }
+        List<BatchResult> stored = stub.uploadFiles(pending);
+        if (stored == null) {
+            return false;
+        }
+        for (int i = 0; i < stored.size(); i++) {
+            results[indexes.get(i)] = stored.get(i);
+        }
+        pending.clear();
+        indexes.clear();
+        return true;
+    }
+
+    private boolean uploadMultipart(FileInterface stub, String folder, MultipartFile file) throws IOException {
+        // A deduplicating server can link known content without receiving the bytes again
+        if (hashFirstUpload && stub.uploadByHash(folder, file.getOriginalFilename(), sha256(file))) {
+            logRequest("Upload skipped, content already stored: " + file.getOriginalFilename());
+            return true;
+        }
+
+        try (InputStream in = file.getInputStream()) {
+            return uploadInChunks(stub, folder, file.getOriginalFilename(), in, file.getSize());
+        }
+    }
+
+    // expectedSize: bytes the client announced (-1 if unknown); a shorter or longer body is not committed
+    private boolean uploadInChunks(FileInterface stub, String folder, String filename, InputStream in,
+            long expectedSize) throws IOException {
+        TransferSession session = stub.openUpload(folder, filename);
+        if (session == null) {
+            return false;
+        }
+
+        String sessionId = session.getSessionId();
+        int chunkSize = Math.min(CHUNK_SIZE, session.getMaxChunkSize());
+        boolean committed = false;
+        try {
+            byte[] buffer = new byte[chunkSize];
+            long offset = 0;
+            int read;
+            while ((read = in.readNBytes(buffer, 0, chunkSize)) > 0) {
+                byte[] chunk = read == chunkSize ? buffer : Arrays.copyOf(buffer, read);
+                if (!stub.writeChunk(sessionId, offset, chunk)) {
+                    return false;
+                }
+                offset += read;
+            }
+            if (expectedSize >= 0 && offset != expectedSize) {
+                System.err.println("Upload of " + filename + " received " + offset + " of "
+                        + expectedSize + " bytes, discarding it");
+                return false;
+            }
+            committed = stub.commitUpload(sessionId);
+            return committed;
+        } finally {
+            if (!committed) {
+                stub.abortUpload(sessionId);
+            }
+        }
+    }
+
+    private FileMetadata stat(String filepath) {
+        try {
+            List<BatchResult> results = getStub().statFiles(List.of(filepath));
+            if (results != null && results.size() == 1 && results.get(0).isSuccess()) {
+                return results.get(0).getMetadata();
+            }
+        } catch (Exception e) {
+            System.err.println("Stat failed, downloading without validators: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Strong validator from size and mtime, like most web servers derive for static files
+    private static String etag(FileMetadata metadata) {
+        return "\"" + Long.toHexString(metadata.getSize()) + "-" + Long.toHexString(metadata.getLastModified()) + "\"";
+    }
+
+    // Small files are served from (and read whole into) the hot-file cache
+    private ResponseEntity<StreamingResponseBody> downloadViaCache(String filename, String filepath,
+            FileMetadata metadata, ByteRange requested) throws Exception {
+
+        HotFileCache.Entry entry = hotFiles.get(filepath, etag(metadata));
+        if (entry == null) {
+            byte[] data = readWhole(filepath);
+            if (data == null) {
+                System.err.println("File not found: " + filepath);
+                return ResponseEntity.notFound().build();
+            }
+            if (data.length != metadata.getSize()) {
+                // Replaced since the stat: serve what we read, cache nothing
+                entry = HotFileCache.uncached(filepath, data);
+            } else {
+                entry = hotFiles.put(filepath, etag(metadata), data);
+            }
+        }
+
+        ByteRange resolved = (requested != null ? requested : ByteRange.full()).resolve(entry.getSize());
+        if (resolved == null) {
+            return rangeNotSatisfiable(entry.getSize());
+        }
+        ByteRange range = partialRange(requested, resolved);
+        HttpHeaders headers = downloadHeaders(filename, entry.getSize(), range);
+
+        HotFileCache.Entry content = entry;
+        StreamingResponseBody body = out -> {
+            content.writeTo(out, resolved.getFirst(), resolved.getLength());
+            out.flush();
+            logRequest("Download successful: " + filename + " (" + resolved.getLength() + " bytes, cached)");
+        };
+        return new ResponseEntity<>(body, headers, range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
+    }
+
+    private byte[] readWhole(String filepath) throws Exception {
+        if (dataChannel.isEnabled()) {
+            try (DataChannelClient.Download transfer = dataChannel.open(filepath, ByteRange.full())) {
+                if (transfer.getStatus() == DataChannelClient.STATUS_OK) {
+                    return transfer.getStream().readNBytes((int) transfer.getLength());
+                }
+                if (transfer.getStatus() == DataChannelClient.STATUS_NOT_FOUND) {
+                    return null;
+                }
+            } catch (IOException e) {
+                System.err.println("Data channel unavailable, falling back to RMI: " + e.getMessage());
+            }
+        }
+        return getStub().downloadFile(filepath);
+    }
+
+    private ResponseEntity<StreamingResponseBody> downloadViaDataChannel(
+            String filename, String filepath, ByteRange requested) throws IOException {
+
+        DataChannelClient.Download transfer = dataChannel.open(filepath,
+                requested != null ? requested : ByteRange.full());
+
+        if (transfer.getStatus() == DataChannelClient.STATUS_NOT_FOUND) {
+            transfer.close();
+            System.err.println("File not found: " + filepath);
+            return ResponseEntity.notFound().build();
+        }
+        if (transfer.getStatus() == DataChannelClient.STATUS_UNSATISFIABLE) {
+            transfer.close();
+            return rangeNotSatisfiable(transfer.getSize());
+        }
+
+        ByteRange range = partialRange(requested, transfer.getRange());
+        HttpHeaders headers = downloadHeaders(filename, transfer.getSize(), range);
+
+        StreamingResponseBody body = out -> {
+            try (transfer) {
+                long copied = transfer.getStream().transferTo(out);
+                if (copied != transfer.getLength()) {
+                    throw new IOException("Transfer interrupted after " + copied + " of "
+                            + transfer.getLength() + " bytes of " + filepath);
+                }
+                out.flush();
+                logRequest("Download successful: " + filename + " (" + copied + " bytes)");
+            }
+        };
+        return new ResponseEntity<>(body, headers, range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
+    }
+
+    private ResponseEntity<StreamingResponseBody> downloadViaRmi(
+            String filename, String filepath, ByteRange requested) throws Exception {
+
+        FileInterface stub = getStub();
+        TransferSession session = stub.openDownload(filepath);
+
+        if (session == null) {
+            System.err.println("File not found: " + filepath);
+            return ResponseEntity.notFound().build();
+        }
+
+        ByteRange resolved = (requested != null ? requested : ByteRange.full()).resolve(session.getSize());
+        if (resolved == null) {
+            stub.closeDownload(session.getSessionId());
+            return rangeNotSatisfiable(session.getSize());
+        }
+
+        ByteRange range = partialRange(requested, resolved);
+        HttpHeaders headers = downloadHeaders(filename, session.getSize(), range);
+
+        StreamingResponseBody body = out -> {
+            try {
+                streamInChunks(stub, session, resolved, out);
+                logRequest("Download successful: " + filename + " (" + resolved.getLength() + " bytes)");
+            } finally {
+                stub.closeDownload(session.getSessionId());
+            }
+        };
+        return new ResponseEntity<>(body, headers, range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
+    }
+
+    // The range to answer 206 with, or null for a plain 200; an empty file has no bytes to
+    // name in Content-Range, so a range request on one gets the (empty) whole file
+    private static ByteRange partialRange(ByteRange requested, ByteRange resolved) {
+        return requested != null && resolved.getLength() > 0 ? resolved : null;
+    }
+
+    private HttpHeaders downloadHeaders(String filename, long size, ByteRange range) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        headers.add(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Browsers may keep user files but must revalidate them (ETag/Last-Modified) before reuse
+        headers.add(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        if (range != null) {
+            headers.add(HttpHeaders.CONTENT_RANGE, range.toContentRange(size));
+            headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(range.getLength()));
+        } else {
+            headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(size));
+        }
+        return headers;
+    }
+
+    private <T> ResponseEntity<T> rangeNotSatisfiable(long size) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                .build();
+    }
+
+    private static Map<String, Object> multipartResponse(MultipartUpload upload) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("uploadId", upload.getUploadId());
+        response.put("path", upload.getPath());
+        response.put("size", upload.getSize());
+        response.put("partSize", upload.getPartSize());
+        response.put("partCount", upload.getPartCount());
+        response.put("received", upload.getReceivedParts());
+        return response;
+    }
+
+    private static String crc32c(byte[] data) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(data);
+        return String.format("%08x", checksum.getValue());
+    }
+
+    private String sha256(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+
+    private void streamInChunks(FileInterface stub, TransferSession session, ByteRange range, OutputStream out)
+            throws IOException {
+        int chunkSize = Math.min(CHUNK_SIZE, session.getMaxChunkSize());
+        long offset = range.getFirst();
+        long end = range.getFirst() + range.getLength();
+        while (offset < end) {
+            int length = (int) Math.min(chunkSize, end - offset);
+            byte[] chunk = stub.readChunk(session.getSessionId(), offset, length);
+            if (chunk == null || chunk.length == 0) {
+                throw new IOException("Transfer interrupted at offset " + offset + " of " + session.getPath());
+            }
+            out.write(chunk);
+            offset += chunk.length;
+        }
+        out.flush();
+    }
+
     private String getParentPath(String currentPath) {
         if (currentPath == null || currentPath.isEmpty() || !currentPath.contains("/")) {
             return "";
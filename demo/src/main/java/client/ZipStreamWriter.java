@@ -0,0 +1,428 @@
+package client;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a ZIP archive to a stream as entries are added, without seeking or
+ * staging anything on disk. Sizes and CRCs follow each entry in a data
+ * descriptor, and Zip64 records are used once sizes or offsets outgrow 32 bits.
+ * The descriptor holds 64-bit sizes only when the sizes need them: streaming
+ * readers such as ZipInputStream tell its width from the bytes they decoded, not
+ * from the local header, which therefore carries no Zip64 sizes.
+ * <p>
+ * Deflated entries are cut into 128 KB blocks that are compressed in parallel
+ * on the given executor, each primed with the previous block's last 32 KB as
+ * its dictionary and ended with a sync flush, so the concatenated blocks form
+ * one valid deflate stream (the pigz approach). At most {@code maxInFlight}
+ * blocks are buffered at a time, across entries, so memory use stays constant
+ * whatever the archive size.
+ * <p>
+ * Files not worth compressing are deflated at level 0, i.e. copied into stored
+ * deflate blocks: streaming readers such as ZipInputStream only accept a data
+ * descriptor after deflated data, so STORED is left to folders.
+ */
+public class ZipStreamWriter implements Closeable {
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    // Past this the deflated size could reach 4 GB, so readers are told Zip64 may be needed
+    private static final long ZIP64_ENTRY_THRESHOLD = 0xF000_0000L;
+    private static final long MAX_32 = 0xFFFF_FFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private static final int STORED = 0; // Folders only, see the class comment
+    private static final int DEFLATED = 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+
+    private final CountingOutputStream out;
+    private final ExecutorService compressors;
+    private final int maxInFlight;
+    private final Deque<Step> inFlight = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean finished;
+
+    // A step of output, written in submission order once its data is ready
+    private interface Step {
+        void write() throws IOException;
+
+        default void cancel() {
+        }
+    }
+
+    public ZipStreamWriter(OutputStream out, ExecutorService compressors, int maxInFlight) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.compressors = compressors;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    public void addFolder(String name, long lastModified) throws IOException {
+        Entry entry = new Entry(name.endsWith("/") ? name : name + "/", lastModified, STORED, false);
+        entry.directory = true;
+        startEntry(entry);
+        endEntry(entry);
+    }
+
+    // expectedSize only sets the version needed to extract; the stream is read to its end
+    public void addFile(String name, long lastModified, long expectedSize, boolean compress, InputStream in)
+            throws IOException {
+        Entry entry = new Entry(name, lastModified, DEFLATED, expectedSize > ZIP64_ENTRY_THRESHOLD);
+        startEntry(entry);
+
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = in.readNBytes(block, 0, BLOCK_SIZE);
+        byte[] previous = null;
+        int previousLength = 0;
+        while (true) {
+            // Read one block ahead so the last block can finish the deflate stream
+            byte[] next = null;
+            int nextLength = 0;
+            if (length == BLOCK_SIZE) {
+                next = new byte[BLOCK_SIZE];
+                nextLength = in.readNBytes(next, 0, BLOCK_SIZE);
+            }
+            boolean last = nextLength == 0;
+            crc.update(block, 0, length);
+            entry.size += length;
+
+            if (compress) {
+                submit(entry, block, length, previous, previousLength, last);
+            } else {
+                // Just a copy with a few header bytes, not worth a trip to the executor
+                enqueue(new BlockStep(entry, CompletableFuture.completedFuture(
+                        deflate(block, length, null, 0, last, Deflater.NO_COMPRESSION))));
+            }
+            if (last) {
+                break;
+            }
+            previous = block;
+            previousLength = length;
+            block = next;
+            length = nextLength;
+        }
+        entry.crc = crc.getValue();
+        endEntry(entry);
+    }
+
+    // Writes the central directory; the underlying stream is flushed but left open
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        drain(0);
+        long directoryOffset = out.count;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long directorySize = out.count - directoryOffset;
+        writeEnd(directoryOffset, directorySize);
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Unfinished archives are abandoned: drop whatever is still compressing
+        for (Step step : inFlight) {
+            step.cancel();
+        }
+        inFlight.clear();
+    }
+
+    private void startEntry(Entry entry) throws IOException {
+        entries.add(entry);
+        enqueue(() -> writeLocalHeader(entry));
+    }
+
+    private void endEntry(Entry entry) throws IOException {
+        if (!entry.directory) {
+            enqueue(() -> writeDataDescriptor(entry));
+        }
+    }
+
+    private void submit(Entry entry, byte[] block, int length, byte[] previous, int previousLength, boolean last)
+            throws IOException {
+        if (compressors == null) {
+            enqueue(new BlockStep(entry, CompletableFuture.completedFuture(
+                    deflate(block, length, previous, previousLength, last, Deflater.DEFAULT_COMPRESSION))));
+            return;
+        }
+        enqueue(new BlockStep(entry, compressors.submit(
+                () -> deflate(block, length, previous, previousLength, last, Deflater.DEFAULT_COMPRESSION))));
+    }
+
+    private void enqueue(Step step) throws IOException {
+        inFlight.add(step);
+        drain(maxInFlight);
+    }
+
+    private void drain(int keep) throws IOException {
+        while (inFlight.size() > keep) {
+            inFlight.poll().write();
+        }
+    }
+
+    private static byte[] deflate(byte[] block, int length, byte[] previous, int previousLength, boolean last,
+            int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null) {
+                int dictionaryLength = Math.min(DICTIONARY_SIZE, previousLength);
+                deflater.setDictionary(previous, previousLength - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(block, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[32 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // A full buffer means the flush may not be complete yet
+                int written;
+                do {
+                    written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, written);
+                } while (written == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        entry.offset = out.count;
+        writeInt(0x04034b50);
+        writeShort(entry.versionNeeded());
+        writeShort(entry.flags());
+        writeShort(entry.method);
+        writeShort(entry.dosTime);
+        writeShort(entry.dosDate);
+        writeInt(0); // CRC and sizes follow in the data descriptor
+        writeInt(0);
+        writeInt(0);
+        writeShort(entry.name.length);
+        writeShort(0);
+        out.write(entry.name);
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        writeInt(0x08074b50);
+        writeInt(entry.crc);
+        if (entry.size > MAX_32 || entry.compressedSize > MAX_32) {
+            writeLong(entry.compressedSize);
+            writeLong(entry.size);
+        } else {
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        // Zip64 extra holds, in this order, only the fields that do not fit
+        List<Long> large = new ArrayList<>();
+        boolean sizesOverflow = entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+        if (sizesOverflow) {
+            large.add(entry.size);
+            large.add(entry.compressedSize);
+        }
+        boolean offsetOverflows = entry.offset >= MAX_32;
+        if (offsetOverflows) {
+            large.add(entry.offset);
+        }
+        byte[] extra = large.isEmpty() ? new byte[0]
+                : zip64Extra(large.stream().mapToLong(Long::longValue).toArray());
+        int versionNeeded = large.isEmpty() ? entry.versionNeeded() : 45;
+
+        writeInt(0x02014b50);
+        writeShort(versionNeeded); // version made by: MS-DOS attributes
+        writeShort(versionNeeded);
+        writeShort(entry.flags());
+        writeShort(entry.method);
+        writeShort(entry.dosTime);
+        writeShort(entry.dosDate);
+        writeInt(entry.crc);
+        writeInt(sizesOverflow ? MAX_32 : entry.compressedSize);
+        writeInt(sizesOverflow ? MAX_32 : entry.size);
+        writeShort(entry.name.length);
+        writeShort(extra.length);
+        writeShort(0); // comment
+        writeShort(0); // disk
+        writeShort(0); // internal attributes
+        writeInt(entry.directory ? 0x10 : 0);
+        writeInt(offsetOverflows ? MAX_32 : entry.offset);
+        out.write(entry.name);
+        out.write(extra);
+    }
+
+    private void writeEnd(long directoryOffset, long directorySize) throws IOException {
+        boolean zip64 = entries.size() >= MAX_16 || directoryOffset >= MAX_32 || directorySize >= MAX_32;
+        if (zip64) {
+            long zip64EndOffset = out.count;
+            writeInt(0x06064b50);
+            writeLong(44); // size of the rest of this record
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries.size());
+            writeLong(entries.size());
+            writeLong(directorySize);
+            writeLong(directoryOffset);
+
+            writeInt(0x07064b50);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+        writeInt(0x06054b50);
+        writeShort(0);
+        writeShort(0);
+        writeShort(zip64 ? MAX_16 : entries.size());
+        writeShort(zip64 ? MAX_16 : entries.size());
+        writeInt(zip64 ? MAX_32 : directorySize);
+        writeInt(zip64 ? MAX_32 : directoryOffset);
+        writeShort(0);
+    }
+
+    private static byte[] zip64Extra(long... values) {
+        byte[] extra = new byte[4 + 8 * values.length];
+        putShort(extra, 0, 0x0001);
+        putShort(extra, 2, 8 * values.length);
+        for (int i = 0; i < values.length; i++) {
+            for (int b = 0; b < 8; b++) {
+                extra[4 + 8 * i + b] = (byte) (values[i] >>> (8 * b));
+            }
+        }
+        return extra;
+    }
+
+    private static void putShort(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & MAX_32);
+        writeInt(value >>> 32);
+    }
+
+    private class BlockStep implements Step {
+        private final Entry entry;
+        private final Future<byte[]> data;
+
+        BlockStep(Entry entry, Future<byte[]> data) {
+            this.entry = entry;
+            this.data = data;
+        }
+
+        @Override
+        public void write() throws IOException {
+            byte[] bytes;
+            try {
+                bytes = data.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing " + entry.displayName(), e);
+            } catch (ExecutionException e) {
+                throw new IOException("Compression failed for " + entry.displayName(), e.getCause());
+            }
+            out.write(bytes);
+            entry.compressedSize += bytes.length;
+        }
+
+        @Override
+        public void cancel() {
+            data.cancel(false);
+        }
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final int method;
+        final boolean zip64;
+        final int dosTime;
+        final int dosDate;
+        boolean directory;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+
+        Entry(String name, long lastModified, int method, boolean zip64) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.zip64 = zip64;
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.systemDefault());
+            if (time.getYear() < 1980) {
+                time = LocalDateTime.of(1980, 1, 1, 0, 0);
+            }
+            dosTime = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() / 2);
+            dosDate = ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+        }
+
+        int versionNeeded() {
+            return zip64 ? 45 : 20;
+        }
+
+        int flags() {
+            return FLAG_UTF8 | (directory ? 0 : FLAG_DATA_DESCRIPTOR);
+        }
+
+        String displayName() {
+            return new String(name, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
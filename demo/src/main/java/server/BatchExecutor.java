@@ -0,0 +1,71 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import shared.BatchResult;
+
+/**
+ * Runs the items of batch calls in parallel on a fixed pool shared by all
+ * batches, so a large batch cannot take more than -Dfileserver.batchThreads
+ * threads. Results keep the order of the items. In virtual-thread mode each
+ * item gets its own virtual thread and the same limit is kept by a semaphore.
+ */
+public class BatchExecutor {
+    private final ExecutorService workers;
+    private final Semaphore permits;
+
+    public BatchExecutor(int threads) {
+        workers = IoThreads.isVirtual() ? IoThreads.newPerTaskExecutor("batch")
+                : Executors.newFixedThreadPool(threads, IoThreads.platformFactory("batch"));
+        permits = new Semaphore(threads);
+    }
+
+    public <T> List<BatchResult> run(List<T> items, Function<T, BatchResult> operation) {
+        List<BatchResult> results = new ArrayList<>(items.size());
+        // A single item is not worth the hand-off
+        if (items.size() == 1) {
+            try {
+                results.add(operation.apply(items.get(0)));
+            } catch (RuntimeException e) {
+                results.add(BatchResult.failed(String.valueOf(items.get(0)), e.toString()));
+            }
+            return results;
+        }
+
+        List<Callable<BatchResult>> tasks = new ArrayList<>(items.size());
+        for (T item : items) {
+            tasks.add(() -> {
+                permits.acquire();
+                try {
+                    return operation.apply(item);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+        try {
+            List<Future<BatchResult>> futures = workers.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(BatchResult.failed(String.valueOf(items.get(i)), e.getCause().toString()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            while (results.size() < items.size()) {
+                results.add(BatchResult.failed(String.valueOf(items.get(results.size())), "Interrupted"));
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,170 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content-addressed storage for deduplicated uploads. Each distinct content is
+ * stored once under server_blobs/ab/cd/&lt;sha256&gt;, and folder entries in
+ * server_storage are hard links to it, so every existing read path keeps working.
+ * The file system's link count is the reference count: a blob whose only
+ * remaining link is its own entry in the blob store is garbage and gets swept.
+ */
+public class BlobStore {
+    private static final long SWEEP_DELAY_SECONDS = 5;
+    private static final long SWEEP_INTERVAL_MINUTES = 30;
+
+    private final Path root;
+    private final ScheduledExecutorService sweeper;
+    // Guards "blob exists -> link it" against the sweeper's "unreferenced -> delete it"
+    private final Object blobLock = new Object();
+    private ScheduledFuture<?> pendingSweep;
+
+    public BlobStore(Path root) throws IOException {
+        this.root = root;
+        Files.createDirectories(root);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "blob-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MINUTES, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    // Hard links and link counts are needed; e.g. FAT volumes or non-POSIX views lack them
+    public static boolean isSupported(Path directory) {
+        try {
+            Files.getAttribute(directory, "unix:nlink");
+            return true;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Turns a fully written temp file into a reference to its content blob at target.
+     * If the content is already stored the temp file is dropped instead of kept.
+     * hash is that of the content readers see, which differs from the bytes in temp
+     * when they are stored compressed.
+     */
+    public void commit(Path temp, Path target, String hash) throws IOException {
+        Path blob = blobPath(hash);
+        Path staged;
+        synchronized (blobLock) {
+            Files.createDirectories(blob.getParent());
+            if (Files.exists(blob)) {
+                Files.delete(temp);
+            } else {
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            staged = stageLink(blob, target);
+        }
+        publish(staged, target);
+    }
+
+    // Links target to already stored content; false if we have never seen the hash
+    public boolean linkExisting(String hash, Path target) throws IOException {
+        if (hash == null || !hash.matches("[0-9a-fA-F]{64}")) {
+            return false;
+        }
+        Path blob = blobPath(hash.toLowerCase());
+        Path staged;
+        synchronized (blobLock) {
+            if (!Files.exists(blob)) {
+                return false;
+            }
+            staged = stageLink(blob, target);
+        }
+        publish(staged, target);
+        return true;
+    }
+
+    // Called after a reference was removed; sweeps shortly after a burst of deletes
+    public synchronized void referenceRemoved() {
+        if (pendingSweep == null || pendingSweep.isDone()) {
+            pendingSweep = sweeper.schedule(this::sweep, SWEEP_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public static String hash(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private Path blobPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    // Link next to the target first, then rename over it so replacement is atomic
+    private Path stageLink(Path blob, Path target) throws IOException {
+        Path staged = target.resolveSibling(TransferManager.TEMP_PREFIX + UUID.randomUUID() + ".link");
+        Files.createLink(staged, blob);
+        return staged;
+    }
+
+    private void publish(Path staged, Path target) throws IOException {
+        boolean replacing = Files.exists(target);
+        try {
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+        if (replacing) {
+            // The replaced file may have been the last reference to some other blob
+            referenceRemoved();
+        }
+    }
+
+    private void sweep() {
+        int removed = 0;
+        try (DirectoryStream<Path> level1 = Files.newDirectoryStream(root)) {
+            for (Path dir1 : level1) {
+                try (DirectoryStream<Path> level2 = Files.newDirectoryStream(dir1)) {
+                    for (Path dir2 : level2) {
+                        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(dir2)) {
+                            for (Path blob : blobs) {
+                                synchronized (blobLock) {
+                                    if ((Integer) Files.getAttribute(blob, "unix:nlink") <= 1) {
+                                        Files.deleteIfExists(blob);
+                                        removed++;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Blob sweep failed: " + e.getMessage());
+        }
+        if (removed > 0) {
+            System.out.println("✓ Blob sweep removed " + removed + " unreferenced blobs");
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import shared.ChangeBatch;
+import shared.ChangeEvent;
+import shared.FileMetadata;
+
+/**
+ * Numbered log of storage changes, kept in a ring of the most recent events, that
+ * the web tier long-polls over RMI. FileImpl publishes its own mutations; a
+ * WatchService over the whole local storage tree adds changes made behind our
+ * back. Changes that repeat what was already published (such as the watcher's echo
+ * of our own writes) are dropped, and so is anything below a deleted folder.
+ */
+public class ChangeFeed {
+    private static final long MAX_POLL_MS = 60_000;
+    private static final int MAX_BATCH = 1000;
+    // Paths whose last published state is remembered for deduplication
+    private static final int RECENT_PATHS = 10_000;
+    // Watcher events are published once a folder has been quiet this long (coalesces write storms)
+    private static final long QUIET_MS = 200;
+    // More pending watcher changes than this are published as one reset
+    private static final int MAX_PENDING = 10_000;
+
+    private final long epoch = System.currentTimeMillis();
+    private final ChangeEvent[] ring;
+    private long seq;
+    private final LinkedHashMap<String, ChangeEvent> recent = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChangeEvent> eldest) {
+            return size() > RECENT_PATHS;
+        }
+    };
+
+    private final Map<WatchKey, String> watchedFolders = new HashMap<>();
+    private StorageBackend storage;
+    private Path root;
+    private WatchService watcher;
+    private volatile boolean watchLimitReached;
+
+    public ChangeFeed(int capacity) {
+        this.ring = new ChangeEvent[Math.max(capacity, 16)];
+    }
+
+    public void updated(String path, FileMetadata metadata) {
+        publish(ChangeEvent.Type.UPDATED, path, metadata);
+    }
+
+    public void deleted(String path) {
+        publish(ChangeEvent.Type.DELETED, path, null);
+    }
+
+    /**
+     * Events after afterSeq, waiting up to timeoutMs for the first one. A caller
+     * with the wrong epoch (0 on its first poll) or a position that has already left
+     * the ring gets a reset batch with the current position instead.
+     */
+    public synchronized ChangeBatch poll(long epoch, long afterSeq, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Math.min(Math.max(timeoutMs, 0), MAX_POLL_MS);
+        if (epoch != this.epoch || afterSeq > seq) {
+            return new ChangeBatch(this.epoch, seq, true, new ArrayList<>());
+        }
+        while (seq == afterSeq) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        if (afterSeq < seq - ring.length) {
+            return new ChangeBatch(this.epoch, seq, true, new ArrayList<>());
+        }
+        long last = Math.min(seq, afterSeq + MAX_BATCH);
+        List<ChangeEvent> events = new ArrayList<>((int) (last - afterSeq));
+        for (long next = afterSeq + 1; next <= last; next++) {
+            events.add(ring[(int) (next % ring.length)]);
+        }
+        return new ChangeBatch(this.epoch, last, false, events);
+    }
+
+    private synchronized void publish(ChangeEvent.Type type, String path, FileMetadata metadata) {
+        if (type != ChangeEvent.Type.RESET) {
+            ChangeEvent last = recent.get(path);
+            if (last != null && last.getType() == type && (type == ChangeEvent.Type.DELETED
+                    || sameState(last.getMetadata(), metadata))) {
+                return;
+            }
+            // An entry below a folder we reported deleted is gone with it
+            if (type == ChangeEvent.Type.DELETED && belowDeleted(path)) {
+                return;
+            }
+        }
+        seq++;
+        ChangeEvent event = new ChangeEvent(seq, type, path, metadata);
+        ring[(int) (seq % ring.length)] = event;
+        if (type != ChangeEvent.Type.RESET) {
+            recent.put(path, event);
+        }
+        notifyAll();
+    }
+
+    private boolean belowDeleted(String path) {
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            ChangeEvent ancestor = recent.get(path.substring(0, slash));
+            if (ancestor != null) {
+                return ancestor.getType() == ChangeEvent.Type.DELETED;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameState(FileMetadata a, FileMetadata b) {
+        return a.getSize() == b.getSize() && a.getLastModified() == b.getLastModified()
+                && a.isDirectory() == b.isDirectory();
+    }
+
+    /** Starts watching every folder below root; folders that appear later are added as they do. */
+    public void watch(StorageBackend storage, Path root) {
+        try {
+            this.watcher = root.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("✗ WatchService unavailable, only changes made through the server are reported: "
+                    + e.getMessage());
+            return;
+        }
+        this.storage = storage;
+        this.root = root;
+        Thread thread = new Thread(() -> {
+            registerTree("");
+            watchLoop();
+        }, "change-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void registerTree(String folder) {
+        register(folder);
+        try {
+            ParallelWalker.walk(storage, folder, entry -> {
+                if (entry.isDirectory() && !entry.getName().startsWith(TransferManager.TEMP_PREFIX)) {
+                    register(entry.getPath());
+                }
+            });
+        } catch (IOException e) {
+            // Gone again already; its deletion is reported on its own
+        }
+    }
+
+    private void register(String folder) {
+        if (watchLimitReached) {
+            return;
+        }
+        try {
+            WatchKey key = root.resolve(folder).register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            synchronized (watchedFolders) {
+                watchedFolders.put(key, folder);
+            }
+        } catch (IOException e) {
+            if (root.resolve(folder).toFile().isDirectory()) {
+                // Typically the OS limit on watches (fs.inotify.max_user_watches on Linux)
+                watchLimitReached = true;
+                System.err.println("✗ Cannot watch more folders, external changes below " + folder
+                        + " and others are not reported: " + e.getMessage());
+            }
+        }
+    }
+
+    private void watchLoop() {
+        Set<String> pending = new LinkedHashSet<>();
+        while (true) {
+            WatchKey key;
+            try {
+                key = pending.isEmpty() ? watcher.take() : watcher.poll(QUIET_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (key == null) {
+                for (String path : pending) {
+                    publishExternal(path);
+                }
+                pending.clear();
+                continue;
+            }
+
+            String folder;
+            synchronized (watchedFolders) {
+                folder = watchedFolders.get(key);
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    pending.clear();
+                    publish(ChangeEvent.Type.RESET, "", null);
+                    continue;
+                }
+                String name = event.context().toString();
+                if (folder == null || name.startsWith(TransferManager.TEMP_PREFIX)
+                        || name.equals(CompressedStorageBackend.MARKER)) {
+                    continue; // In-flight uploads and tombstones only count once committed or purged
+                }
+                String path = folder.isEmpty() ? name : folder + "/" + name;
+                pending.add(path);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && root.resolve(path).toFile().isDirectory()) {
+                    registerTree(path); // Also covers a folder moved in with content
+                }
+            }
+            if (!key.reset()) {
+                synchronized (watchedFolders) {
+                    watchedFolders.remove(key);
+                }
+            }
+            if (pending.size() > MAX_PENDING) {
+                pending.clear();
+                publish(ChangeEvent.Type.RESET, "", null);
+            }
+        }
+    }
+
+    // Publishes the current state of a path something outside the server changed
+    private void publishExternal(String path) {
+        FileMetadata current;
+        try {
+            current = storage.stat(path);
+        } catch (IOException e) {
+            current = null;
+        }
+        if (current != null) {
+            publish(ChangeEvent.Type.UPDATED, path, current);
+        } else {
+            publish(ChangeEvent.Type.DELETED, path, null);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import io.airlift.compress.Compressor;
+import io.airlift.compress.Decompressor;
+import shared.FileMetadata;
+
+/**
+ * Wraps another backend and stores selected files compressed, in independently
+ * compressed 64 KB blocks with an index at the end, so reads at any offset only
+ * decode the blocks they touch. Readers see the original bytes and size; stat and
+ * list report the stored size as FileMetadata's physical size.
+ * <p>
+ * A compressed file is recognised by its header, but only looked for in folders
+ * holding a hidden marker entry, so folders without compressed files cost nothing
+ * extra to list. Files are compressed after they are fully written, just before
+ * they are committed; see {@link #compress(String, String)}.
+ */
+public class CompressedStorageBackend implements StorageBackend {
+    public static final String MARKER = ".compressed";
+
+    private static final int MAGIC = 0x524D5A31; // "RMZ1"
+    private static final int HEADER_SIZE = 32;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // Below this the header and index eat most of the gain
+    private static final long MIN_SIZE = 4096;
+    // Stored compressed only when it saves at least 10%
+    private static final double MAX_RATIO = 0.9;
+    private static final int MAX_CACHED_FOLDERS = 100_000;
+
+    private final StorageBackend inner;
+    private final CompressionPolicy policy;
+    // Folder -> holds a marker; filled on first use, kept current by this backend's own writes
+    private final ConcurrentSkipListMap<String, Boolean> markedFolders = new ConcurrentSkipListMap<>();
+
+    public CompressedStorageBackend(StorageBackend inner, CompressionPolicy policy) {
+        this.inner = inner;
+        this.policy = policy;
+    }
+
+    @Override
+    public SeekableByteChannel openRead(String path) throws IOException {
+        SeekableByteChannel channel = inner.openRead(path);
+        if (!isMarked(parentOf(path))) {
+            return channel;
+        }
+        try {
+            Header header = readHeader(channel);
+            if (header == null) {
+                channel.position(0);
+                return channel;
+            }
+            return new DecompressingChannel(channel, header);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public SeekableByteChannel create(String path) throws IOException {
+        return inner.create(path);
+    }
+
+    @Override
+    public void move(String source, String target) throws IOException {
+        inner.move(source, target);
+        forget(source);
+    }
+
+    @Override
+    public FileMetadata stat(String path) throws IOException {
+        if (nameOf(path).equals(MARKER)) {
+            return null;
+        }
+        FileMetadata metadata = inner.stat(path);
+        if (metadata != null && !metadata.isDirectory() && isMarked(parentOf(path))) {
+            applyHeader(metadata);
+        }
+        return metadata;
+    }
+
+    @Override
+    public void list(String folder, Predicate<String> names, Consumer<FileMetadata> visitor) throws IOException {
+        boolean marked = isMarked(folder);
+        inner.list(folder, name -> !name.equals(MARKER) && names.test(name), entry -> {
+            if (marked && !entry.isDirectory()) {
+                applyHeader(entry);
+            }
+            visitor.accept(entry);
+        });
+    }
+
+    @Override
+    public boolean mkdirs(String path) throws IOException {
+        return inner.mkdirs(path);
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        boolean deleted = inner.delete(path);
+        if (deleted) {
+            forget(path);
+        }
+        return deleted;
+    }
+
+    @Override
+    public void deleteTree(String path) throws IOException {
+        try {
+            inner.deleteTree(path);
+        } finally {
+            forget(path);
+        }
+    }
+
+    @Override
+    public void sync(String path) throws IOException {
+        inner.sync(path);
+    }
+
+    @Override
+    public void setLastModified(String path, long lastModified) throws IOException {
+        inner.setLastModified(path, lastModified);
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException {
+        return inner.getTotalSpace();
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        return inner.getUsableSpace();
+    }
+
+    @Override
+    public long getFreeSpace() throws IOException {
+        return inner.getFreeSpace();
+    }
+
+    @Override
+    public Path localPath(String path) {
+        return inner.localPath(path);
+    }
+
+    /**
+     * Re-encodes a fully written temp file bound for target when the policy picks
+     * a codec for it and a sample compresses well. Returns the entry to commit in
+     * place of temp: a new compressed temp file (temp itself is then deleted), or
+     * temp unchanged.
+     */
+    public String compress(String temp, String target) throws IOException {
+        CompressionPolicy.Codec codec = policy.codecFor(target);
+        if (codec == null) {
+            return temp;
+        }
+        FileMetadata raw = inner.stat(temp);
+        if (raw == null || raw.getSize() < MIN_SIZE || !worthCompressing(temp, raw.getSize(), codec)) {
+            return temp;
+        }
+
+        String compressed = StorageBackend.tempSibling(target, ".rmz");
+        long physical;
+        try {
+            physical = writeCompressed(temp, compressed, raw.getSize(), codec);
+        } catch (IOException | RuntimeException e) {
+            inner.delete(compressed);
+            throw e;
+        }
+        if (physical > raw.getSize() * MAX_RATIO) {
+            // The sample was not representative; keep the file as it is
+            inner.delete(compressed);
+            return temp;
+        }
+        // Readers must know to look for the header before the file appears
+        markFolder(parentOf(target));
+        inner.delete(temp);
+        return compressed;
+    }
+
+    // Makes reads in a folder check for compressed files, e.g. before linking a blob that may be one
+    public void markFolder(String folder) throws IOException {
+        if (Boolean.TRUE.equals(markedFolders.get(folder))) {
+            return;
+        }
+        String marker = folder.isEmpty() ? MARKER : folder + "/" + MARKER;
+        try {
+            inner.create(marker).close();
+        } catch (FileAlreadyExistsException e) {
+            // Marked already
+        }
+        markedFolders.put(folder, true);
+    }
+
+    // Compresses the first block, and one from the middle of larger files
+    private boolean worthCompressing(String temp, long size, CompressionPolicy.Codec codec) throws IOException {
+        Compressor compressor = codec.compressor();
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] output = new byte[compressor.maxCompressedLength(BLOCK_SIZE)];
+        long rawBytes = 0;
+        long compressedBytes = 0;
+        try (SeekableByteChannel channel = inner.openRead(temp)) {
+            long[] samples = size > 2L * BLOCK_SIZE ? new long[] {0, size / 2 / BLOCK_SIZE * BLOCK_SIZE} : new long[] {0};
+            for (long offset : samples) {
+                int length = (int) Math.min(BLOCK_SIZE, size - offset);
+                channel.position(offset);
+                readFully(channel, ByteBuffer.wrap(block, 0, length));
+                rawBytes += length;
+                compressedBytes += compressor.compress(block, 0, length, output, 0, output.length);
+            }
+        }
+        return compressedBytes <= rawBytes * MAX_RATIO;
+    }
+
+    // Header, then the blocks, then one start offset per block plus the end of the last
+    private long writeCompressed(String source, String target, long size, CompressionPolicy.Codec codec)
+            throws IOException {
+        int blockCount = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        long[] offsets = new long[blockCount + 1];
+        Compressor compressor = codec.compressor();
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] output = new byte[compressor.maxCompressedLength(BLOCK_SIZE)];
+
+        try (SeekableByteChannel in = inner.openRead(source); SeekableByteChannel out = inner.create(target)) {
+            out.position(HEADER_SIZE);
+            long position = HEADER_SIZE;
+            for (int i = 0; i < blockCount; i++) {
+                int length = (int) Math.min(BLOCK_SIZE, size - (long) i * BLOCK_SIZE);
+                readFully(in, ByteBuffer.wrap(block, 0, length));
+                int compressedLength = compressor.compress(block, 0, length, output, 0, output.length);
+                // A block that does not shrink is kept raw; its stored length gives that away
+                ByteBuffer stored = compressedLength < length
+                        ? ByteBuffer.wrap(output, 0, compressedLength) : ByteBuffer.wrap(block, 0, length);
+                offsets[i] = position;
+                position += stored.remaining();
+                writeFully(out, stored);
+            }
+            offsets[blockCount] = position;
+
+            ByteBuffer index = ByteBuffer.allocate(offsets.length * Long.BYTES);
+            for (long offset : offsets) {
+                index.putLong(offset);
+            }
+            writeFully(out, index.flip());
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) codec.id).put(new byte[3]).putInt(BLOCK_SIZE).putInt(blockCount)
+                    .putLong(size).putLong(position);
+            out.position(0);
+            writeFully(out, header.flip());
+            return position + index.capacity();
+        }
+    }
+
+    // Turns a stored file's attributes into the logical ones when it is compressed
+    private void applyHeader(FileMetadata metadata) {
+        if (metadata.getSize() < HEADER_SIZE) {
+            return;
+        }
+        try (SeekableByteChannel channel = inner.openRead(metadata.getPath())) {
+            Header header = readHeader(channel);
+            if (header != null) {
+                metadata.setPhysicalSize(metadata.getSize());
+                metadata.setSize(header.size);
+            }
+        } catch (IOException e) {
+            // Vanished or unreadable; report what the directory says
+        }
+    }
+
+    // The header of a compressed file, or null if the content is stored as is
+    private static Header readHeader(SeekableByteChannel channel) throws IOException {
+        long physical = channel.size();
+        if (physical < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        channel.position(0);
+        readFully(channel, buffer);
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        CompressionPolicy.Codec codec = CompressionPolicy.Codec.byId(buffer.get());
+        buffer.position(buffer.position() + 3);
+        int blockSize = buffer.getInt();
+        int blockCount = buffer.getInt();
+        long size = buffer.getLong();
+        long indexOffset = buffer.getLong();
+        // Anything inconsistent is an ordinary file that happens to start with the magic
+        if (codec == null || blockSize <= 0 || size < 0 || blockCount != (size + blockSize - 1) / blockSize
+                || indexOffset < HEADER_SIZE || indexOffset + (blockCount + 1L) * Long.BYTES != physical) {
+            return null;
+        }
+        return new Header(codec, blockSize, blockCount, size, indexOffset);
+    }
+
+    private boolean isMarked(String folder) throws IOException {
+        Boolean marked = markedFolders.get(folder);
+        if (marked == null) {
+            marked = inner.stat(folder.isEmpty() ? MARKER : folder + "/" + MARKER) != null;
+            // Lookups of folders that do not exist must not grow this without bound
+            if (markedFolders.size() < MAX_CACHED_FOLDERS) {
+                markedFolders.putIfAbsent(folder, marked);
+            }
+        }
+        return marked;
+    }
+
+    // Drops what is known about a removed or renamed folder and everything below it
+    private void forget(String path) {
+        markedFolders.remove(path);
+        markedFolders.subMap(path + "/", path + "/" + Character.MAX_VALUE).clear();
+    }
+
+    private static void readFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of stored file");
+            }
+        }
+    }
+
+    private static void writeFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash == -1 ? "" : path.substring(0, lastSlash);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static class Header {
+        final CompressionPolicy.Codec codec;
+        final int blockSize;
+        final int blockCount;
+        final long size;
+        final long indexOffset;
+
+        Header(CompressionPolicy.Codec codec, int blockSize, int blockCount, long size, long indexOffset) {
+            this.codec = codec;
+            this.blockSize = blockSize;
+            this.blockCount = blockCount;
+            this.size = size;
+            this.indexOffset = indexOffset;
+        }
+    }
+
+    // Read-only view of a compressed file's original bytes; keeps the last decoded block
+    private static class DecompressingChannel implements SeekableByteChannel {
+        private final SeekableByteChannel stored;
+        private final Header header;
+        private final long[] offsets;
+        private final Decompressor decompressor;
+        private final byte[] block;
+        private byte[] compressed = new byte[0];
+        private int currentBlock = -1;
+        private int currentLength;
+        private long position;
+        private boolean open = true;
+
+        DecompressingChannel(SeekableByteChannel stored, Header header) throws IOException {
+            this.stored = stored;
+            this.header = header;
+            this.decompressor = header.codec.decompressor();
+            this.block = new byte[header.blockSize];
+            ByteBuffer index = ByteBuffer.allocate((header.blockCount + 1) * Long.BYTES);
+            stored.position(header.indexOffset);
+            readFully(stored, index);
+            index.flip();
+            offsets = new long[header.blockCount + 1];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = index.getLong();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= header.size) {
+                return -1;
+            }
+            int total = 0;
+            while (dst.hasRemaining() && position < header.size) {
+                int index = (int) (position / header.blockSize);
+                load(index);
+                int within = (int) (position - (long) index * header.blockSize);
+                int count = Math.min(dst.remaining(), currentLength - within);
+                dst.put(block, within, count);
+                position += count;
+                total += count;
+            }
+            return total;
+        }
+
+        private void load(int index) throws IOException {
+            if (index == currentBlock) {
+                return;
+            }
+            int length = (int) Math.min(header.blockSize, header.size - (long) index * header.blockSize);
+            int storedLength = (int) (offsets[index + 1] - offsets[index]);
+            stored.position(offsets[index]);
+            if (storedLength == length) {
+                readFully(stored, ByteBuffer.wrap(block, 0, length));
+            } else {
+                if (compressed.length < storedLength) {
+                    compressed = new byte[storedLength];
+                }
+                readFully(stored, ByteBuffer.wrap(compressed, 0, storedLength));
+                int decoded;
+                try {
+                    decoded = decompressor.decompress(compressed, 0, storedLength, block, 0, length);
+                } catch (RuntimeException e) {
+                    throw new IOException("Corrupt compressed block " + index, e);
+                }
+                if (decoded != length) {
+                    throw new IOException("Corrupt compressed block " + index);
+                }
+            }
+            currentBlock = index;
+            currentLength = length;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return header.size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            stored.close();
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
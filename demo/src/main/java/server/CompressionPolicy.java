@@ -0,0 +1,102 @@
+package server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import io.airlift.compress.Compressor;
+import io.airlift.compress.Decompressor;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+
+/**
+ * Decides which uploads are compressed at rest and with which codec. Files are
+ * candidates by extension or by living below one of the configured folders;
+ * whether a candidate is actually stored compressed is decided by sampling it.
+ * <pre>
+ * -Dfileserver.compression=lz4|zstd|none (default none)
+ * -Dfileserver.compressExtensions=txt,log,csv,...
+ * -Dfileserver.compressFolders=logs,exports
+ * </pre>
+ */
+public class CompressionPolicy {
+    public enum Codec {
+        LZ4(1), ZSTD(2);
+
+        final int id;
+
+        Codec(int id) {
+            this.id = id;
+        }
+
+        // Codec instances keep per-call state, so each stream gets its own
+        Compressor compressor() {
+            return this == LZ4 ? new Lz4Compressor() : new ZstdCompressor();
+        }
+
+        Decompressor decompressor() {
+            return this == LZ4 ? new Lz4Decompressor() : new ZstdDecompressor();
+        }
+
+        static Codec byId(int id) {
+            for (Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final String DEFAULT_EXTENSIONS =
+            "txt,log,csv,tsv,json,ndjson,xml,html,htm,md,sql,yaml,yml,ini,conf,svg,js,css";
+
+    private final Codec codec; // null when nothing is compressed
+    private final Set<String> extensions;
+    private final List<String> folders;
+
+    public CompressionPolicy(Codec codec, Set<String> extensions, List<String> folders) {
+        this.codec = codec;
+        this.extensions = extensions;
+        this.folders = folders;
+    }
+
+    public static CompressionPolicy fromSystemProperties() {
+        String name = System.getProperty("fileserver.compression", "none").toUpperCase(Locale.ROOT);
+        Codec codec = "NONE".equals(name) ? null : Codec.valueOf(name);
+        Set<String> extensions = split(System.getProperty("fileserver.compressExtensions", DEFAULT_EXTENSIONS))
+                .stream().map(extension -> extension.toLowerCase(Locale.ROOT)).collect(Collectors.toCollection(TreeSet::new));
+        List<String> folders = split(System.getProperty("fileserver.compressFolders", ""))
+                .stream().map(FileImpl::sanitizePath).filter(folder -> !folder.isEmpty()).collect(Collectors.toList());
+        if (codec != null) {
+            System.out.println("✓ Compression at rest: " + name.toLowerCase(Locale.ROOT) + " for ."
+                    + String.join(", .", extensions) + (folders.isEmpty() ? "" : " and everything in " + folders));
+        }
+        return new CompressionPolicy(codec, extensions, folders);
+    }
+
+    // The codec to try for a file about to be stored at path, or null to store it as is
+    public Codec codecFor(String path) {
+        if (codec == null) {
+            return null;
+        }
+        for (String folder : folders) {
+            if (path.startsWith(folder + "/")) {
+                return codec;
+            }
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot != -1 && extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)) ? codec : null;
+    }
+
+    private static List<String> split(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).filter(item -> !item.isEmpty())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,169 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import shared.ByteRange;
+
+/**
+ * Raw TCP side channel for downloads. Bytes are sent straight from storage to the
+ * socket, with FileChannel.transferTo for local files and a direct buffer for
+ * in-memory ones, so they never pass through the heap.
+ *
+ * Request:  UTF path, long first, long last  (HTTP range semantics, -1 = open bound)
+ * Response: byte status, long totalSize, long start, long length, then the bytes
+ */
+public class DataChannelServer {
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_NOT_FOUND = 1;
+    public static final byte STATUS_UNSATISFIABLE = 2;
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private final FileImpl fileService;
+    private final int port;
+    private final MeterRegistry registry;
+    private final Counter bytesSent;
+    private final AtomicInteger active = new AtomicInteger();
+    // A thread per transfer: virtual threads with -Dfileserver.virtualThreads=true (Java 21+)
+    private final ExecutorService workers = IoThreads.newPerTaskExecutor("data-channel");
+
+    public DataChannelServer(FileImpl fileService, int port, MeterRegistry registry) {
+        this.fileService = fileService;
+        this.port = port;
+        this.registry = registry;
+        this.bytesSent = Counter.builder("fileserver.datachannel.bytes")
+                .description("File bytes sent over the data channel")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("fileserver.datachannel.active", active, AtomicInteger::get)
+                .description("Data channel transfers in flight")
+                .register(registry);
+    }
+
+    public void start() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(() -> {
+            while (serverChannel.isOpen()) {
+                try {
+                    SocketChannel client = serverChannel.accept();
+                    workers.execute(() -> serve(client));
+                } catch (IOException e) {
+                    System.err.println("✗ Data channel accept failed: " + e.getMessage());
+                }
+            }
+        }, "data-channel-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void serve(SocketChannel client) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        active.incrementAndGet();
+        try (client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            String filepath = in.readUTF();
+            ByteRange requested = new ByteRange(in.readLong(), in.readLong());
+
+            SeekableByteChannel file;
+            try {
+                file = fileService.openRead(filepath);
+            } catch (NoSuchFileException e) {
+                outcome = "not_found";
+                writeHeader(client, STATUS_NOT_FOUND, 0, 0, 0);
+                return;
+            }
+
+            try (file) {
+                long size = file.size();
+                ByteRange range = requested.resolve(size);
+                if (range == null) {
+                    outcome = "unsatisfiable";
+                    writeHeader(client, STATUS_UNSATISFIABLE, size, 0, 0);
+                    return;
+                }
+
+                writeHeader(client, STATUS_OK, size, range.getFirst(), range.getLength());
+                long sent = file instanceof FileChannel
+                        ? transfer((FileChannel) file, range, client)
+                        : copy(file, range, client);
+                bytesSent.increment(sent);
+                outcome = "ok";
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Data channel transfer failed: " + e.getMessage());
+        } finally {
+            active.decrementAndGet();
+            Timer.builder("fileserver.datachannel.transfers")
+                    .description("Data channel request latency, header to last byte")
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(100_000))
+                    .maximumExpectedValue(Duration.ofMinutes(30))
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Both return the number of bytes sent
+    private long transfer(FileChannel file, ByteRange range, SocketChannel client) throws IOException {
+        long position = range.getFirst();
+        long remaining = range.getLength();
+        while (remaining > 0) {
+            long sent = file.transferTo(position, remaining, client);
+            if (sent <= 0) {
+                break; // File was truncated underneath us
+            }
+            position += sent;
+            remaining -= sent;
+        }
+        return range.getLength() - remaining;
+    }
+
+    private long copy(SeekableByteChannel file, ByteRange range, SocketChannel client) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(COPY_BUFFER_SIZE, Math.max(range.getLength(), 1)));
+        file.position(range.getFirst());
+        long remaining = range.getLength();
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            if (file.read(buffer) < 0) {
+                break; // File was truncated underneath us
+            }
+            buffer.flip();
+            remaining -= buffer.remaining();
+            while (buffer.hasRemaining()) {
+                client.write(buffer);
+            }
+        }
+        return range.getLength() - remaining;
+    }
+
+    private void writeHeader(SocketChannel client, byte status, long size, long start, long length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(1 + 3 * Long.BYTES);
+        header.put(status).putLong(size).putLong(start).putLong(length).flip();
+        while (header.hasRemaining()) {
+            client.write(header);
+        }
+    }
+}
@@ -1,28 +1,85 @@
 package server;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
-import shared.FileInterface;
+import shared.BatchResult;
+import shared.ChangeBatch;
 import shared.FileMetadata;
+import shared.FileNodeInterface;
+import shared.FileUpload;
+import shared.FolderPage;
+import shared.MultipartUpload;
+import shared.PathNames;
+import shared.StorageStats;
+import shared.TransferSession;
 
-public class FileImpl extends UnicastRemoteObject implements FileInterface {
-    private final String STORAGE_PATH = "server_storage/";
+// Not a remote object itself: FileServer exports the (metered, possibly read-only) wrapper around it
+public class FileImpl implements FileNodeInterface {
+    public static final String STORAGE_PATH = "server_storage/";
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final long MAX_BATCH_DOWNLOAD_BYTES = 64L * 1024 * 1024;
+    // -Dfileserver.logRequests=false silences the per-request lines; metrics cover them
+    private static final boolean LOG_REQUESTS = !"false".equalsIgnoreCase(System.getProperty("fileserver.logRequests"));
+    private final StorageBackend storage;
+    private final CompressedStorageBackend compressed;
+    private final TransferManager transfers;
+    private final MetadataCache metadataCache =
+            new MetadataCache(Integer.getInteger("fileserver.cacheEntries", 100_000));
+    private final SearchIndex searchIndex;
+    private final FolderStats folderStats = new FolderStats();
+    private final BlobStore blobStore; // null unless deduplication is enabled
+    // -Dfileserver.changeFeedSize: changes a web app may fall behind by before it has to reload
+    private final ChangeFeed changes = new ChangeFeed(Integer.getInteger("fileserver.changeFeedSize", 4096));
+    private final OperationLog oplog; // What replicas replay; null if it could not be opened
+    private volatile Replicator replicator; // Set when this server is a replica
+    // -Dfileserver.asyncDeleteEntries: folders this large are renamed away and purged in the background (0 = never)
+    private final long asyncDeleteEntries = Long.getLong("fileserver.asyncDeleteEntries", 10_000);
+    private final ExecutorService purger = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "folder-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // -Dfileserver.lockStripes trades memory for fewer false conflicts between unrelated paths
+    private final PathLocks locks = new PathLocks(Integer.getInteger("fileserver.lockStripes", 1024));
+    // -Dfileserver.batchThreads bounds the parallelism of all batch calls together
+    private final BatchExecutor batches = new BatchExecutor(
+            Integer.getInteger("fileserver.batchThreads", Math.max(4, Runtime.getRuntime().availableProcessors())));
 
     public FileImpl() throws RemoteException {
-        super();
-        File directory = new File(STORAGE_PATH);
-        if (!directory.exists()) {
-            directory.mkdir();
+        this(openLocalStorage());
+    }
+
+    public FileImpl(StorageBackend storage) throws RemoteException {
+        // Always wrapped, so files compressed earlier stay readable with compression switched off
+        this.compressed = new CompressedStorageBackend(storage, CompressionPolicy.fromSystemProperties());
+        this.storage = compressed;
+        this.transfers = new TransferManager(this.storage, WriteSync.fromSystemProperties(this.storage));
+        transfers.setCompressor(compressed::compress);
+        // Only disk-backed storage outlives the process, so only its index is worth saving
+        Path root = this.storage.localPath("");
+        searchIndex = new SearchIndex(this.storage, root != null ? root.resolveSibling(root.getFileName() + ".idx") : null);
+        searchIndex.addListener(folderStats);
+        searchIndex.start();
+        // -Dfileserver.watchStorage=false reports only changes made through the server
+        if (root != null && !"false".equalsIgnoreCase(System.getProperty("fileserver.watchStorage"))) {
+            changes.watch(this.storage, root);
         }
+        blobStore = Boolean.getBoolean("fileserver.dedup") ? openBlobStore() : null;
+        oplog = openOperationLog(root);
     }
 
     @Override
@@ -33,45 +90,52 @@ public class FileImpl extends UnicastRemoteObject implements FileInterface {
     @Override
     public boolean uploadFileToFolder(String folderPath, String filename, byte[] data) throws RemoteException {
         try {
-            // Sanitize inputs
+            String relativePath = store(folderPath, filename, data);
+            String parent = getParent(relativePath);
+            logRequest("✓ Uploaded: " + relativePath.substring(relativePath.lastIndexOf('/') + 1) + " to " + 
+                             (parent.isEmpty() ? "root" : parent));
+            return true;
+        } catch (IOException e) {
+            System.err.println("✗ Upload failed: " + filename + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean uploadByHash(String folderPath, String filename, String sha256) throws RemoteException {
+        if (blobStore == null) {
+            return false;
+        }
+        try {
             String safeFolderPath = sanitizePath(folderPath);
             String safeFilename = sanitizeFilename(filename);
+            String relativePath = safeFolderPath.isEmpty() ? safeFilename : safeFolderPath + "/" + safeFilename;
             
-            // Create full path
-            String fullPath = STORAGE_PATH;
-            if (!safeFolderPath.isEmpty()) {
-                fullPath += safeFolderPath + "/";
-                // Create folder if it doesn't exist
-                File folder = new File(STORAGE_PATH + safeFolderPath);
-                if (!folder.exists()) {
-                    folder.mkdirs();
+            try (PathLocks.Hold lock = locks.write(relativePath)) {
+                storage.mkdirs(safeFolderPath);
+                // The blob may have been stored compressed
+                compressed.markFolder(safeFolderPath);
+                if (!blobStore.linkExisting(sha256, storage.localPath(relativePath))) {
+                    return false;
                 }
+                afterWrite(relativePath);
             }
-            fullPath += safeFilename;
-            
-            // Write file
-            Files.write(Paths.get(fullPath), data);
-            System.out.println("✓ Uploaded: " + safeFilename + " to " + 
-                             (safeFolderPath.isEmpty() ? "root" : safeFolderPath));
+            logRequest("✓ Uploaded by hash: " + relativePath);
             return true;
         } catch (IOException e) {
-            System.err.println("✗ Upload failed: " + filename + " - " + e.getMessage());
+            System.err.println("✗ Upload by hash failed: " + filename + " - " + e.getMessage());
             return false;
         }
     }
 
     @Override
     public byte[] downloadFile(String filepath) throws RemoteException {
-        try {
-            String safePath = sanitizePath(filepath);
-            Path path = Paths.get(STORAGE_PATH + safePath);
-            
-            if (!Files.exists(path)) {
-                System.err.println("✗ File not found: " + safePath);
-                return null;
-            }
-            
-            return Files.readAllBytes(path);
+        String safePath = sanitizePath(filepath);
+        try (PathLocks.Hold lock = locks.read(safePath)) {
+            return storage.get(safePath);
+        } catch (NoSuchFileException e) {
+            System.err.println("✗ File not found: " + filepath);
+            return null;
         } catch (IOException e) {
             System.err.println("✗ Download failed: " + filepath + " - " + e.getMessage());
             return null;
@@ -85,96 +149,214 @@ public class FileImpl extends UnicastRemoteObject implements FileInterface {
 
     @Override
     public List<FileMetadata> listFolderContents(String folderPath) throws RemoteException {
-        List<FileMetadata> fileList = new ArrayList<>();
         String safePath = sanitizePath(folderPath);
-        File folder = new File(STORAGE_PATH + safePath);
-        
-        // If folder doesn't exist, return empty list
-        if (!folder.exists() || !folder.isDirectory()) {
-            System.err.println("✗ Folder doesn't exist: " + safePath);
-            return fileList;
+        List<FileMetadata> cached = metadataCache.get(safePath);
+        if (cached != null) {
+            return cached;
         }
         
-        File[] files = folder.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                try {
-                    Path filePath = file.toPath();
-                    BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
-                    long lastModified = attrs.lastModifiedTime().toMillis();
-                    
-                    // Create relative path from storage root
-                    String relativePath = file.getAbsolutePath()
-                        .substring(new File(STORAGE_PATH).getAbsolutePath().length())
-                        .replace("\\", "/");
-                    if (relativePath.startsWith("/")) {
-                        relativePath = relativePath.substring(1);
-                    }
-                    
-                    FileMetadata metadata = new FileMetadata(
-                        file.getName(),
-                        relativePath,
-                        file.length(),
-                        lastModified,
-                        file.isDirectory()
-                    );
-                    
-                    fileList.add(metadata);
-                    
-                } catch (IOException e) {
-                    System.err.println("✗ Error reading file: " + file.getName() + " - " + e.getMessage());
-                    // Fallback to basic file info
-                    FileMetadata metadata = new FileMetadata(
-                        file.getName(),
-                        file.getAbsolutePath().substring(STORAGE_PATH.length()),
-                        file.length(),
-                        file.lastModified(),
-                        file.isDirectory()
-                    );
-                    fileList.add(metadata);
-                }
+        List<FileMetadata> fileList = new ArrayList<>();
+        
+        try (PathLocks.Hold lock = locks.browse(safePath)) {
+            // If folder doesn't exist, return empty list
+            if (!isFolder(safePath)) {
+                System.err.println("✗ Folder doesn't exist: " + safePath);
+                return fileList;
             }
+            
+            long stamp = metadataCache.beginLoad(safePath, storage.localPath(safePath));
+            try {
+                // Skip in-flight uploads
+                storage.list(safePath, name -> !name.startsWith(TransferManager.TEMP_PREFIX), fileList::add);
+            } catch (IOException e) {
+                System.err.println("✗ Error listing folder: " + safePath + " - " + e.getMessage());
+                return fileList;
+            }
+            
+            metadataCache.put(safePath, fileList, stamp);
         }
-        
-        System.out.println("✓ Listed " + fileList.size() + " items from: " + 
+        logRequest("✓ Listed " + fileList.size() + " items from: " + 
                          (safePath.isEmpty() ? "root" : safePath));
         return fileList;
     }
 
+    @Override
+    public FolderPage listFolderContents(String folderPath, int offset, int limit, String sortKey,
+            String order, String nameFilter) throws RemoteException {
+        return listFolderPage(new FolderPager.Query(sanitizePath(folderPath), offset, limit, sortKey, order, nameFilter));
+    }
+
+    @Override
+    public FolderPage listFolderPage(String cursor) throws RemoteException {
+        FolderPager.Query query = FolderPager.decodeCursor(cursor);
+        if (query == null) {
+            System.err.println("✗ Invalid listing cursor: " + cursor);
+            return null;
+        }
+        return listFolderPage(query);
+    }
+
+    private FolderPage listFolderPage(FolderPager.Query query) {
+        String safePath = sanitizePath(query.folder);
+        
+        try (PathLocks.Hold lock = locks.browse(safePath)) {
+            if (!isFolder(safePath)) {
+                System.err.println("✗ Folder doesn't exist: " + safePath);
+                return new FolderPage(new ArrayList<>(), query.offset, query.limit, 0, null);
+            }
+            
+            FolderPage page = FolderPager.page(query.withFolder(safePath), storage, metadataCache.get(safePath));
+            logRequest("✓ Listed " + page.getItems().size() + " of " + page.getTotal() + " items from: " + 
+                             (safePath.isEmpty() ? "root" : safePath) + " (offset " + query.offset + ")");
+            return page;
+        } catch (IOException e) {
+            System.err.println("✗ Error listing folder: " + safePath + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public List<FileMetadata> search(String query, String mode, int limit) throws RemoteException {
+        List<FileMetadata> results = searchIndex.search(query, mode, Math.min(Math.max(limit, 1), 1000));
+        logRequest("✓ Search '" + query + "' matched " + results.size() + " items");
+        return results;
+    }
+
     @Override
     public boolean deleteFile(String filepath) throws RemoteException {
         String safePath = sanitizePath(filepath);
-        File file = new File(STORAGE_PATH + safePath);
         
-        if (file.exists()) {
-            boolean deleted = file.delete();
-            if (deleted) {
-                System.out.println("✓ Deleted: " + safePath);
-            } else {
-                System.err.println("✗ Failed to delete: " + safePath);
+        try (PathLocks.Hold lock = locks.write(safePath)) {
+            if (storage.delete(safePath)) {
+                afterDelete(safePath);
+                logRequest("✓ Deleted: " + safePath);
+                return true;
             }
-            return deleted;
+        } catch (IOException e) {
+            System.err.println("✗ Failed to delete: " + safePath + " - " + e.getMessage());
+            return false;
         }
         
         System.err.println("✗ File not found for deletion: " + safePath);
         return false;
     }
 
+    @Override
+    public List<BatchResult> uploadFiles(List<FileUpload> uploads) throws RemoteException {
+        if (!acceptBatch("upload", uploads)) {
+            return null;
+        }
+        List<BatchResult> results = batches.run(uploads, upload -> {
+            try {
+                String relativePath = store(upload.getFolderPath(), upload.getFilename(), upload.getData());
+                BatchResult result = BatchResult.ok(relativePath);
+                result.setMetadata(storage.stat(relativePath));
+                return result;
+            } catch (IOException | RuntimeException e) {
+                return BatchResult.failed(upload.getFilename(), e.getMessage());
+            }
+        });
+        logBatch("Uploaded", results);
+        return results;
+    }
+
+    @Override
+    public List<BatchResult> downloadFiles(List<String> filepaths) throws RemoteException {
+        if (!acceptBatch("download", filepaths)) {
+            return null;
+        }
+        // Everything comes back in one reply, so the total size is capped too
+        AtomicLong budget = new AtomicLong(MAX_BATCH_DOWNLOAD_BYTES);
+        List<BatchResult> results = batches.run(filepaths, filepath -> {
+            String safePath = sanitizePath(filepath);
+            try (PathLocks.Hold lock = locks.read(safePath)) {
+                FileMetadata metadata = storage.stat(safePath);
+                if (metadata == null || metadata.isDirectory()) {
+                    return BatchResult.failed(filepath, "Not found");
+                }
+                if (budget.addAndGet(-metadata.getSize()) < 0) {
+                    return BatchResult.failed(filepath, "Batch download limit reached");
+                }
+                BatchResult result = BatchResult.ok(safePath);
+                result.setData(storage.get(safePath));
+                result.setMetadata(metadata);
+                return result;
+            } catch (NoSuchFileException e) {
+                return BatchResult.failed(filepath, "Not found");
+            } catch (IOException | RuntimeException e) {
+                return BatchResult.failed(filepath, e.getMessage());
+            }
+        });
+        logBatch("Downloaded", results);
+        return results;
+    }
+
+    @Override
+    public List<BatchResult> deleteFiles(List<String> filepaths) throws RemoteException {
+        if (!acceptBatch("delete", filepaths)) {
+            return null;
+        }
+        List<BatchResult> results = batches.run(filepaths, filepath -> {
+            String safePath = sanitizePath(filepath);
+            try (PathLocks.Hold lock = locks.write(safePath)) {
+                FileMetadata metadata = storage.stat(safePath);
+                if (metadata == null) {
+                    return BatchResult.failed(filepath, "Not found");
+                }
+                // Folders go through deleteFolder, so a stray path cannot remove a tree
+                if (metadata.isDirectory()) {
+                    return BatchResult.failed(filepath, "Is a folder");
+                }
+                if (!storage.delete(safePath)) {
+                    return BatchResult.failed(filepath, "Not found");
+                }
+                afterDelete(safePath);
+                return BatchResult.ok(safePath);
+            } catch (IOException | RuntimeException e) {
+                return BatchResult.failed(filepath, e.getMessage());
+            }
+        });
+        logBatch("Deleted", results);
+        return results;
+    }
+
+    @Override
+    public List<BatchResult> statFiles(List<String> paths) throws RemoteException {
+        if (!acceptBatch("stat", paths)) {
+            return null;
+        }
+        return batches.run(paths, path -> {
+            String safePath = sanitizePath(path);
+            try {
+                FileMetadata metadata = storage.stat(safePath);
+                if (metadata == null) {
+                    return BatchResult.failed(path, "Not found");
+                }
+                BatchResult result = BatchResult.ok(safePath);
+                result.setMetadata(metadata);
+                return result;
+            } catch (IOException | RuntimeException e) {
+                return BatchResult.failed(path, e.getMessage());
+            }
+        });
+    }
+
     @Override
     public boolean createFolder(String folderPath) throws RemoteException {
-        try {
-            String safePath = sanitizePath(folderPath);
-            File folder = new File(STORAGE_PATH + safePath);
+        String safePath = sanitizePath(folderPath);
+        try (PathLocks.Hold lock = locks.write(safePath)) {
+            FileMetadata existing = storage.stat(safePath);
             
-            if (folder.exists()) {
+            if (existing != null) {
                 // If it exists and is a directory, return true
                 // If it exists but is a file, return false
-                return folder.isDirectory();
+                return existing.isDirectory();
             }
             
-            boolean created = folder.mkdirs();
+            boolean created = storage.mkdirs(safePath);
             if (created) {
-                System.out.println("✓ Created folder: " + safePath);
+                afterWrite(safePath);
+                logRequest("✓ Created folder: " + safePath);
             } else {
                 System.err.println("✗ Failed to create folder: " + safePath);
             }
@@ -188,20 +370,34 @@ public class FileImpl extends UnicastRemoteObject implements FileInterface {
     @Override
     public boolean deleteFolder(String folderPath) throws RemoteException {
         String safePath = sanitizePath(folderPath);
-        File folder = new File(STORAGE_PATH + safePath);
-        
-        if (!folder.exists() || !folder.isDirectory()) {
+        if (safePath.isEmpty()) {
             System.err.println("✗ Folder doesn't exist: " + safePath);
             return false;
         }
         
-        try {
-            deleteFolderRecursive(folder);
-            System.out.println("✓ Deleted folder: " + safePath);
-            return true;
-        } catch (IOException e) {
-            System.err.println("✗ Failed to delete folder: " + safePath + " - " + e.getMessage());
-            return false;
+        // Waits for every operation below the folder and keeps new ones out until it is gone
+        try (PathLocks.Hold lock = locks.write(safePath)) {
+            if (!isFolder(safePath)) {
+                System.err.println("✗ Folder doesn't exist: " + safePath);
+                return false;
+            }
+            
+            try {
+                if (purgeInBackground(safePath)) {
+                    afterDelete(safePath);
+                    logRequest("✓ Deleted folder: " + safePath + " (purging in background)");
+                    return true;
+                }
+                storage.deleteTree(safePath);
+                afterDelete(safePath);
+                logRequest("✓ Deleted folder: " + safePath);
+                return true;
+            } catch (IOException e) {
+                // Partly deleted: listings are read again, but the folder is not reported gone
+                metadataCache.invalidateTree(safePath);
+                System.err.println("✗ Failed to delete folder: " + safePath + " - " + e.getMessage());
+                return false;
+            }
         }
     }
 
@@ -209,17 +405,12 @@ public class FileImpl extends UnicastRemoteObject implements FileInterface {
     public List<String> listFolders() throws RemoteException {
         List<String> folders = new ArrayList<>();
         try {
-            Files.walk(Paths.get(STORAGE_PATH), 1)
-                .filter(Files::isDirectory)
-                .skip(1) // Skip the root directory itself
-                .forEach(path -> {
-                    String relativePath = path.toString()
-                        .substring(STORAGE_PATH.length())
-                        .replace("\\", "/");
-                    if (!relativePath.isEmpty()) {
-                        folders.add(relativePath);
-                    }
-                });
+            // Skip folders being purged after a delete
+            storage.list("", name -> !name.startsWith(TransferManager.TEMP_PREFIX), entry -> {
+                if (entry.isDirectory()) {
+                    folders.add(entry.getPath());
+                }
+            });
         } catch (IOException e) {
             System.err.println("✗ Error listing folders: " + e.getMessage());
         }
@@ -227,66 +418,451 @@ public class FileImpl extends UnicastRemoteObject implements FileInterface {
     }
 
     @Override
-    public boolean folderExists(String folderPath) throws RemoteException {
+    public List<FileMetadata> listTree(String folderPath) throws RemoteException {
         String safePath = sanitizePath(folderPath);
-        File folder = new File(STORAGE_PATH + safePath);
-        return folder.exists() && folder.isDirectory();
+        
+        List<FileMetadata> tree = Collections.synchronizedList(new ArrayList<>());
+        try (PathLocks.Hold lock = locks.browse(safePath)) {
+            if (!isFolder(safePath)) {
+                System.err.println("✗ Folder doesn't exist: " + safePath);
+                return null;
+            }
+            storage.walk(safePath, entry -> {
+                // Skip in-flight uploads
+                if (!entry.getName().startsWith(TransferManager.TEMP_PREFIX)) {
+                    tree.add(entry);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("✗ Error walking folder: " + safePath + " - " + e.getMessage());
+            return null;
+        }
+        // The walk runs in parallel; sorting by path keeps archives stable and parents first
+        tree.sort(Comparator.comparing(FileMetadata::getPath));
+        logRequest("✓ Listed tree of " + tree.size() + " items from: " + (safePath.isEmpty() ? "root" : safePath));
+        return tree;
     }
 
-    // Helper methods
-    
-    private String sanitizePath(String path) {
-        if (path == null || path.trim().isEmpty()) {
-            return "";
+    @Override
+    public boolean folderExists(String folderPath) throws RemoteException {
+        return isFolder(sanitizePath(folderPath));
+    }
+
+    @Override
+    public StorageStats getStorageStats(String folderPath) throws RemoteException {
+        String safePath = sanitizePath(folderPath);
+        FolderStats.Totals folder = folderStats.get(safePath);
+        FolderStats.Totals root = folderStats.get("");
+        if (folder == null) {
+            folder = new FolderStats.Totals();
         }
         
-        // Replace backslashes with forward slashes
-        path = path.replace("\\", "/");
-        
-        // Remove leading/trailing slashes
-        path = path.replaceAll("^/+|/+$", "");
-        
-        // Remove any directory traversal attempts
-        path = path.replace("..", "");
+        try {
+            return new StorageStats(safePath, folder.getBytes(), folder.getFiles(), folder.getFolders(),
+                    root.getBytes(), storage.getTotalSpace(), storage.getUsableSpace(), storage.getFreeSpace());
+        } catch (IOException e) {
+            System.err.println("✗ Error reading file store: " + e.getMessage());
+            return new StorageStats(safePath, folder.getBytes(), folder.getFiles(), folder.getFolders(),
+                    root.getBytes(), 0, 0, 0);
+        }
+    }
+
+    @Override
+    public TransferSession openUpload(String folderPath, String filename) throws RemoteException {
+        try {
+            String safeFolderPath = sanitizePath(folderPath);
+            String safeFilename = sanitizeFilename(filename);
+            
+            String relativePath = safeFolderPath.isEmpty() ? safeFilename : safeFolderPath + "/" + safeFilename;
+            TransferSession session;
+            try (PathLocks.Hold lock = locks.write(relativePath)) {
+                storage.mkdirs(safeFolderPath);
+                session = transfers.openUpload(relativePath);
+            }
+            logRequest("✓ Upload session opened: " + relativePath);
+            return session;
+        } catch (IOException e) {
+            System.err.println("✗ Failed to open upload: " + filename + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean writeChunk(String sessionId, long offset, byte[] data) throws RemoteException {
+        try {
+            return transfers.writeChunk(sessionId, offset, data);
+        } catch (IOException e) {
+            System.err.println("✗ Chunk write failed: " + sessionId + " - " + e.getMessage());
+            transfers.abortUpload(sessionId);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean commitUpload(String sessionId) throws RemoteException {
+        String target = transfers.uploadPath(sessionId);
+        if (target == null) {
+            return false;
+        }
+        try (PathLocks.Hold lock = locks.write(target)) {
+            String committedPath = transfers.commitUpload(sessionId);
+            if (committedPath == null) {
+                return false;
+            }
+            afterWrite(committedPath);
+            logRequest("✓ Upload committed: " + committedPath);
+            return true;
+        } catch (IOException e) {
+            System.err.println("✗ Upload commit failed: " + sessionId + " - " + e.getMessage());
+            transfers.abortUpload(sessionId);
+            return false;
+        }
+    }
+
+    @Override
+    public void abortUpload(String sessionId) throws RemoteException {
+        transfers.abortUpload(sessionId);
+    }
+
+    @Override
+    public MultipartUpload openMultipartUpload(String folderPath, String filename, long size, int partSize)
+            throws RemoteException {
+        try {
+            String safeFolderPath = sanitizePath(folderPath);
+            String safeFilename = sanitizeFilename(filename);
+
+            String relativePath = safeFolderPath.isEmpty() ? safeFilename : safeFolderPath + "/" + safeFilename;
+            MultipartUpload upload;
+            try (PathLocks.Hold lock = locks.write(relativePath)) {
+                storage.mkdirs(safeFolderPath);
+                upload = transfers.openMultipart(relativePath, size, partSize);
+            }
+            if (upload == null) {
+                System.err.println("✗ Invalid multipart upload: " + filename + " (" + size + " bytes in parts of "
+                        + partSize + ")");
+                return null;
+            }
+            logRequest("✓ Multipart upload opened: " + relativePath + " (" + upload.getPartCount() + " parts)");
+            return upload;
+        } catch (IOException e) {
+            System.err.println("✗ Failed to open multipart upload: " + filename + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean writePart(String uploadId, int part, byte[] data, String crc32c) throws RemoteException {
+        try {
+            if (!transfers.writePart(uploadId, part, data, crc32c)) {
+                System.err.println("✗ Part " + part + " rejected: " + uploadId);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            // Unlike a chunk, a part can simply be sent again, so the upload stays open
+            System.err.println("✗ Part " + part + " write failed: " + uploadId + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public MultipartUpload getMultipartUpload(String uploadId) throws RemoteException {
+        return transfers.getMultipart(uploadId);
+    }
+
+    @Override
+    public boolean completeMultipartUpload(String uploadId) throws RemoteException {
+        String target = transfers.uploadPath(uploadId);
+        if (target == null) {
+            return false;
+        }
+        try (PathLocks.Hold lock = locks.write(target)) {
+            String committedPath = transfers.completeMultipart(uploadId);
+            if (committedPath == null) {
+                System.err.println("✗ Multipart upload incomplete: " + transfers.getMultipart(uploadId));
+                return false;
+            }
+            afterWrite(committedPath);
+            logRequest("✓ Multipart upload committed: " + committedPath);
+            return true;
+        } catch (IOException e) {
+            System.err.println("✗ Multipart upload commit failed: " + uploadId + " - " + e.getMessage());
+            transfers.abortUpload(uploadId);
+            return false;
+        }
+    }
+
+    @Override
+    public TransferSession openDownload(String filepath) throws RemoteException {
+        String safePath = sanitizePath(filepath);
         
-        return path;
+        // Only while opening: an open download keeps reading the file it started with
+        try (PathLocks.Hold lock = locks.read(safePath)) {
+            requireFile(safePath);
+            return transfers.openDownload(safePath);
+        } catch (NoSuchFileException e) {
+            System.err.println("✗ File not found: " + safePath);
+            return null;
+        } catch (IOException e) {
+            System.err.println("✗ Failed to open download: " + filepath + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] readChunk(String sessionId, long offset, int length) throws RemoteException {
+        try {
+            return transfers.readChunk(sessionId, offset, length);
+        } catch (IOException e) {
+            System.err.println("✗ Chunk read failed: " + sessionId + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void closeDownload(String sessionId) throws RemoteException {
+        transfers.closeDownload(sessionId);
+    }
+
+    @Override
+    public ChangeBatch pollChanges(long epoch, long afterSeq, long timeoutMs) throws RemoteException {
+        try {
+            return changes.poll(epoch, afterSeq, timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public ChangeBatch readOperations(long logId, long afterSeq, long timeoutMs) throws RemoteException {
+        if (oplog == null) {
+            return null;
+        }
+        try {
+            return oplog.read(logId, afterSeq, timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public long getReplicationLag() throws RemoteException {
+        Replicator current = replicator;
+        return current == null ? -1 : current.getLag();
+    }
+
+    void setReplicator(Replicator replicator) {
+        this.replicator = replicator;
+    }
+
+    // Commits a file copied from the primary, keeping the primary's modification time
+    boolean commitReplica(String sessionId, long lastModified) {
+        String target = transfers.uploadPath(sessionId);
+        if (target == null) {
+            return false;
+        }
+        try (PathLocks.Hold lock = locks.write(target)) {
+            String committedPath = transfers.commitReplica(sessionId, lastModified);
+            if (committedPath == null) {
+                return false;
+            }
+            afterWrite(committedPath);
+            logRequest("✓ Replicated: " + committedPath);
+            return true;
+        } catch (IOException e) {
+            System.err.println("✗ Replica commit failed: " + target + " - " + e.getMessage());
+            transfers.abortUpload(sessionId);
+            return false;
+        }
     }
+
+    // Helper methods
     
-    private String sanitizeFilename(String filename) {
-        if (filename == null || filename.trim().isEmpty()) {
-            return "unnamed_" + System.currentTimeMillis();
+    private static void logRequest(String message) {
+        if (LOG_REQUESTS) {
+            System.out.println(message);
         }
+    }
+    
+    // Writes one file and returns its path relative to the storage root
+    private String store(String folderPath, String filename, byte[] data) throws IOException {
+        // Sanitize inputs
+        String safeFolderPath = sanitizePath(folderPath);
+        String safeFilename = sanitizeFilename(filename);
         
-        // Extract just the filename from path
-        filename = filename.replace("\\", "/");
-        int lastSlash = filename.lastIndexOf("/");
-        if (lastSlash != -1) {
-            filename = filename.substring(lastSlash + 1);
+        String relativePath = safeFolderPath.isEmpty() ? safeFilename : safeFolderPath + "/" + safeFilename;
+        try (PathLocks.Hold lock = locks.write(relativePath)) {
+            // Create folder if it doesn't exist
+            storage.mkdirs(safeFolderPath);
+            
+            // Write file through a temp entry, then move it into place
+            transfers.write(relativePath, data);
+            afterWrite(relativePath);
         }
-        
-        // Remove problematic characters
-        filename = filename.replaceAll("[\\\\/:*?\"<>|]", "_");
-        
-        // Ensure filename is not empty
-        if (filename.isEmpty()) {
-            return "unnamed_" + System.currentTimeMillis();
+        return relativePath;
+    }
+    
+    /**
+     * Moves a large folder onto a hidden tombstone next to it and deletes that in
+     * the background, so the caller does not wait for every entry to be removed.
+     * Tombstones carry the temp prefix: listings, walks and the search index skip
+     * them, and one left by a crash is purged at the next startup.
+     */
+    private boolean purgeInBackground(String folder) throws IOException {
+        FolderStats.Totals totals = folderStats.get(folder);
+        if (asyncDeleteEntries <= 0 || totals == null || storage.localPath(folder) == null
+                || totals.getFiles() + totals.getFolders() < asyncDeleteEntries) {
+            return false;
         }
-        
-        return filename;
+        String tombstone = StorageBackend.tempSibling(folder, ".deleted");
+        storage.move(folder, tombstone);
+        purger.execute(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                storage.deleteTree(tombstone);
+                logRequest("✓ Purged " + folder + " (" + (totals.getFiles() + totals.getFolders()) + " entries) in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                System.err.println("✗ Failed to purge deleted folder: " + folder + " - " + e.getMessage());
+            }
+        });
+        return true;
     }
     
-    private void deleteFolderRecursive(File folder) throws IOException {
-        if (folder.isDirectory()) {
-            File[] files = folder.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    deleteFolderRecursive(file);
-                }
+    private boolean acceptBatch(String operation, List<?> items) {
+        if (items == null || items.size() > MAX_BATCH_SIZE) {
+            System.err.println("✗ Rejected batch " + operation + ": "
+                    + (items == null ? "no items" : items.size() + " items, limit is " + MAX_BATCH_SIZE));
+            return false;
+        }
+        return true;
+    }
+    
+    // One line per batch rather than one per item
+    private static void logBatch(String action, List<BatchResult> results) {
+        long failed = results.stream().filter(result -> !result.isSuccess()).count();
+        logRequest("✓ " + action + " " + (results.size() - failed) + " of " + results.size() + " items"
+                + (failed > 0 ? " (" + failed + " failed)" : ""));
+    }
+    
+    // Bookkeeping after a file or folder was created or replaced
+    private void afterWrite(String relativePath) {
+        metadataCache.invalidate(getParent(relativePath));
+        searchIndex.update(relativePath);
+        try {
+            FileMetadata metadata = storage.stat(relativePath);
+            if (metadata != null) {
+                changes.updated(relativePath, metadata);
+            }
+            if (oplog != null) {
+                oplog.updated(relativePath);
             }
+        } catch (IOException e) {
+            // Gone again already; its deletion is reported on its own
         }
-        
-        if (!folder.delete()) {
-            throw new IOException("Failed to delete: " + folder.getAbsolutePath());
+    }
+    
+    // Bookkeeping after a file or folder (and everything below it) was deleted
+    private void afterDelete(String relativePath) {
+        metadataCache.invalidateTree(relativePath);
+        searchIndex.removeTree(relativePath);
+        changes.deleted(relativePath);
+        if (oplog != null) {
+            oplog.deleted(relativePath);
+        }
+        if (blobStore != null) {
+            blobStore.referenceRemoved();
         }
     }
+    
+    private static StorageBackend openLocalStorage() throws RemoteException {
+        try {
+            return new LocalStorageBackend(Paths.get(STORAGE_PATH));
+        } catch (IOException e) {
+            throw new RemoteException("Cannot open " + STORAGE_PATH, e);
+        }
+    }
+    
+    private static OperationLog openOperationLog(Path root) {
+        try {
+            return OperationLog.open(root);
+        } catch (IOException e) {
+            System.err.println("✗ Cannot open operation log, replicas cannot follow this server: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private BlobStore openBlobStore() {
+        Path root = storage.localPath("");
+        if (root == null) {
+            System.err.println("✗ Deduplication needs local storage, storing files verbatim");
+            return null;
+        }
+        if (!BlobStore.isSupported(root)) {
+            System.err.println("✗ Deduplication needs hard link support, storing files verbatim");
+            return null;
+        }
+        try {
+            BlobStore store = new BlobStore(Paths.get("server_blobs"));
+            transfers.setCommitter((temp, target) -> {
+                int slash = target.lastIndexOf('/');
+                // The blob may turn out to be a copy an earlier upload stored compressed
+                compressed.markFolder(slash < 0 ? "" : target.substring(0, slash));
+                store.commit(storage.localPath(temp), storage.localPath(target), contentHash(temp));
+            });
+            System.out.println("✓ Deduplicating storage enabled (blobs in server_blobs/)");
+            return store;
+        } catch (IOException e) {
+            System.err.println("✗ Cannot open blob store, storing files verbatim: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // SHA-256 of what readers get from entry, decoded if it was stored compressed; the web
+    // tier hashes uploads the same way, so hash-first uploads match compressed content too
+    private String contentHash(String entry) throws IOException {
+        try (InputStream in = Channels.newInputStream(storage.openRead(entry))) {
+            return BlobStore.hash(in);
+        }
+    }
+
+    // Used by the data channel to read a file straight from storage
+    SeekableByteChannel openRead(String filepath) throws IOException {
+        String safePath = sanitizePath(filepath);
+        try (PathLocks.Hold lock = locks.read(safePath)) {
+            requireFile(safePath);
+            return storage.openRead(safePath);
+        }
+    }
+    
+    private void requireFile(String path) throws IOException {
+        FileMetadata metadata = storage.stat(path);
+        if (metadata == null || metadata.isDirectory()) {
+            throw new NoSuchFileException(path);
+        }
+    }
+    
+    private boolean isFolder(String path) {
+        try {
+            FileMetadata metadata = storage.stat(path);
+            return metadata != null && metadata.isDirectory();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private String getParent(String path) {
+        int lastSlash = path.lastIndexOf("/");
+        return lastSlash == -1 ? "" : path.substring(0, lastSlash);
+    }
+    
+    static String sanitizePath(String path) {
+        return PathNames.normalize(path);
+    }
+    
+    static String sanitizeFilename(String filename) {
+        return PathNames.filename(filename);
+    }
 }
@@ -1,26 +1,116 @@
 package server;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 
-import shared.FileInterface;
+import io.micrometer.core.instrument.binder.jvm.ClassLoaderMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.binder.system.UptimeMetrics;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import shared.FileNodeInterface;
+import shared.FileOperationMetrics;
+import shared.TunedSocketFactory;
 
 public class FileServer {
     public static void main(String[] args) {
         try {
-            FileInterface fileService = new FileImpl();
+            // Storage backend: -Dfileserver.backend=local (default) or memory
+            StorageBackend storage = openStorage();
+            FileImpl fileService = new FileImpl(storage);
+            PrometheusMeterRegistry metrics = openMetrics();
             
-            // Create registry on port 1099
-            Registry registry = LocateRegistry.createRegistry(1099);
+            // -Dfileserver.primary=host:port makes this a read-only replica that follows that server
+            String primary = System.getProperty("fileserver.primary", "");
+            Replicator replicator = null;
+            FileNodeInterface served = fileService;
+            if (!primary.isBlank()) {
+                Path root = storage.localPath("");
+                replicator = new Replicator(fileService, primary.trim(),
+                        root != null ? root.resolveSibling(root.getFileName() + ".replica") : null);
+                served = Replicator.readOnly(fileService, replicator.getPrimary());
+            }
+            
+            // Clients talk to a metered proxy; it is exported itself so each call is measured
+            FileNodeInterface metered = FileOperationMetrics.wrap(served,
+                    new FileOperationMetrics(metrics, "fileserver.rmi"));
+            // -Dfileserver.rmiSockets=tuned|compressed swaps in our own sockets; the factory
+            // travels inside the stub, so clients pick it up without configuration
+            TunedSocketFactory sockets = TunedSocketFactory.fromSystemProperties();
+            if (sockets != null) {
+                UnicastRemoteObject.exportObject(metered, 0, sockets, sockets);
+            } else {
+                UnicastRemoteObject.exportObject(metered, 0);
+            }
+            
+            // Create registry on port 1099 (-Dfileserver.rmiPort to run several servers on one host)
+            int rmiPort = Integer.getInteger("fileserver.rmiPort", 1099);
+            Registry registry = LocateRegistry.createRegistry(rmiPort);
             
             // Bind the remote object's stub in the registry
-            registry.rebind("FileService", fileService);
+            registry.rebind("FileService", metered);
+            
+            // Zero-copy download channel (set -Dfileserver.dataPort=0 to disable)
+            int dataPort = Integer.getInteger("fileserver.dataPort", 1100);
+            if (dataPort > 0) {
+                new DataChannelServer(fileService, dataPort, metrics).start();
+                System.out.println(">>> Data channel listening on port " + dataPort + ".");
+            }
             
-            System.out.println(">>> File Server is ready on port 1099.");
-            System.out.println(">>> Storage directory: server_storage/");
+            // Prometheus scrape endpoint (set -Dfileserver.metricsPort=0 to disable)
+            int metricsPort = Integer.getInteger("fileserver.metricsPort", 1101);
+            if (metricsPort > 0) {
+                new MetricsServer(metrics, metricsPort).start();
+                System.out.println(">>> Metrics on http://localhost:" + metricsPort + "/metrics");
+            }
+            
+            if (replicator != null) {
+                replicator.start();
+                System.out.println(">>> Read-only replica of " + replicator.getPrimary() + ".");
+            }
+            System.out.println(">>> File Server is ready on port " + rmiPort + ".");
+            System.out.println(">>> I/O threads: " + IoThreads.describe());
+            System.out.println(">>> RMI sockets: " + (sockets != null ? sockets : "RMI default"));
+            if (storage.localPath("") != null) {
+                System.out.println(">>> Storage directory: " + FileImpl.STORAGE_PATH);
+            } else {
+                System.out.println(">>> Storage: in memory, " + (storage.getTotalSpace() >> 20) + " MB off-heap");
+            }
         } catch (Exception e) {
             System.err.println("Server exception: " + e.toString());
             e.printStackTrace();
         }
     }
+
+    private static PrometheusMeterRegistry openMetrics() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        registry.config().commonTags("application", "file-server");
+        new ClassLoaderMetrics().bindTo(registry);
+        new JvmMemoryMetrics().bindTo(registry);
+        new JvmGcMetrics().bindTo(registry);
+        new JvmThreadMetrics().bindTo(registry);
+        new ProcessorMetrics().bindTo(registry);
+        new UptimeMetrics().bindTo(registry);
+        return registry;
+    }
+
+    private static StorageBackend openStorage() throws Exception {
+        String backend = System.getProperty("fileserver.backend", "local");
+        switch (backend) {
+            case "local":
+                return new LocalStorageBackend(Paths.get(FileImpl.STORAGE_PATH));
+            case "memory":
+                // Keep below -XX:MaxDirectMemorySize, which defaults to the heap size
+                long capacityMb = Long.getLong("fileserver.memoryCapacityMB", 512);
+                return new MemoryStorageBackend(capacityMb << 20);
+            default:
+                throw new IllegalArgumentException("Unknown fileserver.backend: " + backend);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import shared.FileMetadata;
+import shared.FolderPage;
+
+/**
+ * Builds sorted, filtered pages of a folder listing. Entries are streamed from the
+ * storage backend (or a cached listing) through a bounded heap, so memory grows
+ * with offset + limit rather than with the size of the folder.
+ */
+public class FolderPager {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = FolderPage.MAX_PAGE_SIZE;
+
+    public static class Query {
+        final String folder;
+        final int offset;
+        final int limit;
+        final String sortKey;
+        final boolean descending;
+        final String filter;
+
+        public Query(String folder, int offset, int limit, String sortKey, String order, String filter) {
+            this.folder = folder == null ? "" : folder;
+            // Keeps offset + limit within an int
+            this.offset = Math.min(Math.max(0, offset), Integer.MAX_VALUE - MAX_PAGE_SIZE);
+            this.limit = limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+            this.sortKey = sortKey == null ? "name" : sortKey.toLowerCase(Locale.ROOT);
+            this.descending = "desc".equalsIgnoreCase(order);
+            this.filter = filter == null || filter.isBlank() ? "" : filter.toLowerCase(Locale.ROOT);
+        }
+
+        Query next() {
+            return new Query(folder, offset + limit, limit, sortKey, descending ? "desc" : "asc", filter);
+        }
+
+        Query withFolder(String folder) {
+            return new Query(folder, offset, limit, sortKey, descending ? "desc" : "asc", filter);
+        }
+    }
+
+    public static String encodeCursor(Query query) {
+        String raw = String.join("\n", query.folder, String.valueOf(query.offset), String.valueOf(query.limit),
+                query.sortKey, query.descending ? "desc" : "asc", query.filter);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns null for a cursor we did not issue
+    public static Query decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\n", -1);
+            if (parts.length != 6) {
+                return null;
+            }
+            return new Query(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    parts[3], parts[4], parts[5]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Pages through the cached listing when we have one, otherwise streams the folder
+    public static FolderPage page(Query query, StorageBackend storage, List<FileMetadata> cached) throws IOException {
+        TopK topK = new TopK(query);
+        if (cached != null) {
+            for (FileMetadata metadata : cached) {
+                topK.offer(metadata);
+            }
+        } else {
+            // Filtering on the name first spares a stat for every entry that cannot match
+            storage.list(query.folder,
+                    name -> !name.startsWith(TransferManager.TEMP_PREFIX) && topK.matches(name),
+                    topK::offer);
+        }
+        return topK.toPage();
+    }
+
+    private static class TopK {
+        private final Query query;
+        private final Comparator<FileMetadata> order;
+        private final PriorityQueue<FileMetadata> heap;
+        private final int capacity;
+        private long matches;
+
+        TopK(Query query) {
+            this.query = query;
+            this.order = FileMetadata.listingOrder(query.sortKey, query.descending);
+            this.capacity = query.offset + query.limit;
+            // Head of the heap is the entry that sorts last, so it is the one to drop
+            this.heap = new PriorityQueue<>(Math.min(capacity, 1024) + 1, order.reversed());
+        }
+
+        boolean matches(String name) {
+            return query.filter.isEmpty() || name.toLowerCase(Locale.ROOT).contains(query.filter);
+        }
+
+        void offer(FileMetadata metadata) {
+            if (!matches(metadata.getName())) {
+                return;
+            }
+            matches++;
+            heap.offer(metadata);
+            if (heap.size() > capacity) {
+                heap.poll();
+            }
+        }
+
+        FolderPage toPage() {
+            List<FileMetadata> sorted = new ArrayList<>(heap);
+            sorted.sort(order);
+            List<FileMetadata> items = query.offset >= sorted.size()
+                    ? new ArrayList<>()
+                    : new ArrayList<>(sorted.subList(query.offset, sorted.size()));
+            String nextCursor = query.offset + query.limit < matches ? encodeCursor(query.next()) : null;
+            return new FolderPage(items, query.offset, query.limit, matches, nextCursor);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import shared.FileMetadata;
+
+/**
+ * Recursive per-folder totals (bytes, files, folders) for the whole storage tree.
+ * Fed by SearchIndex change events, so it is built while the index loads at startup
+ * and each later change only walks the ancestors of the changed path: O(depth).
+ */
+public class FolderStats implements SearchIndex.Listener {
+
+    public static class Totals {
+        long bytes;
+        long files;
+        long folders;
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getFolders() {
+            return folders;
+        }
+    }
+
+    private final Map<String, Totals> totals = new HashMap<>();
+
+    public FolderStats() {
+        totals.put("", new Totals());
+    }
+
+    // Returns a snapshot of the recursive totals for a folder ("" is the root), or null if unknown
+    public synchronized Totals get(String folder) {
+        Totals current = totals.get(folder);
+        if (current == null) {
+            return null;
+        }
+        Totals snapshot = new Totals();
+        snapshot.bytes = current.bytes;
+        snapshot.files = current.files;
+        snapshot.folders = current.folders;
+        return snapshot;
+    }
+
+    @Override
+    public synchronized void onChange(FileMetadata previous, FileMetadata current) {
+        if (previous != null) {
+            apply(previous, -1);
+            if (previous.isDirectory() && current == null) {
+                totals.remove(previous.getPath());
+            }
+        }
+        if (current != null) {
+            if (current.isDirectory()) {
+                totals.computeIfAbsent(current.getPath(), k -> new Totals());
+            }
+            apply(current, 1);
+        }
+    }
+
+    // Adds (sign 1) or removes (sign -1) an entry from the totals of every ancestor folder
+    private void apply(FileMetadata entry, int sign) {
+        String path = entry.getPath();
+        while (true) {
+            int lastSlash = path.lastIndexOf('/');
+            path = lastSlash == -1 ? "" : path.substring(0, lastSlash);
+
+            Totals ancestor = totals.computeIfAbsent(path, k -> new Totals());
+            if (entry.isDirectory()) {
+                ancestor.folders += sign;
+            } else {
+                ancestor.files += sign;
+                ancestor.bytes += sign * entry.getSize();
+            }
+            if (path.isEmpty()) {
+                return;
+            }
+        }
+    }
+}
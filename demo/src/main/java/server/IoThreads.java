@@ -0,0 +1,71 @@
+package server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for the server's blocking I/O work (data channel transfers, batch items).
+ * With -Dfileserver.virtualThreads=true they are virtual threads, so a slow
+ * client parks a cheap virtual thread instead of holding a platform one.
+ * Virtual threads need Java 21; the project targets 17, so they are reached
+ * through reflection and older runtimes keep daemon platform threads.
+ * RMI's own connection threads are created by the JDK and are not affected.
+ */
+final class IoThreads {
+    private static final ThreadFactory VIRTUAL = Boolean.getBoolean("fileserver.virtualThreads")
+            ? virtualFactory() : null;
+
+    private IoThreads() {
+    }
+
+    static boolean isVirtual() {
+        return VIRTUAL != null;
+    }
+
+    static String describe() {
+        return isVirtual() ? "virtual" : "platform";
+    }
+
+    // One new thread per task: virtual if enabled, otherwise a cached platform pool
+    static ExecutorService newPerTaskExecutor(String name) {
+        if (VIRTUAL != null) {
+            try {
+                Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) method.invoke(null, VIRTUAL);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual thread executor unavailable", e);
+            }
+        }
+        return Executors.newCachedThreadPool(platformFactory(name));
+    }
+
+    static ThreadFactory platformFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Thread.ofVirtual().name("io-", 0).factory(), or null before Java 21
+    private static ThreadFactory virtualFactory() {
+        if (Runtime.version().feature() < 21) {
+            System.err.println("✗ Virtual threads need Java 21, running on " + Runtime.version()
+                    + "; using platform threads");
+            return null;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "io-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("✗ Virtual threads unavailable, using platform threads: " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import shared.FileMetadata;
+
+/**
+ * Stores files in a directory on the local file system through NIO. Channels
+ * handed out are FileChannels, so callers can use zero-copy transferTo.
+ */
+public class LocalStorageBackend implements StorageBackend {
+    private final Path root;
+
+    public LocalStorageBackend(Path root) throws IOException {
+        this.root = root;
+        Files.createDirectories(root);
+    }
+
+    @Override
+    public SeekableByteChannel openRead(String path) throws IOException {
+        return FileChannel.open(resolve(path), StandardOpenOption.READ);
+    }
+
+    @Override
+    public SeekableByteChannel create(String path) throws IOException {
+        return FileChannel.open(resolve(path), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void move(String source, String target) throws IOException {
+        Files.move(resolve(source), resolve(target), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public FileMetadata stat(String path) throws IOException {
+        try {
+            return toMetadata(path, Files.readAttributes(resolve(path), BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void list(String folder, Predicate<String> names, Consumer<FileMetadata> visitor) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(resolve(folder))) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!names.test(name)) {
+                    continue;
+                }
+                try {
+                    // One stat per entry covers size, mtime and type
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    visitor.accept(toMetadata(folder.isEmpty() ? name : folder + "/" + name, attrs));
+                } catch (IOException e) {
+                    // Entry vanished between the directory read and the stat
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean mkdirs(String path) throws IOException {
+        Path directory = resolve(path);
+        if (Files.isDirectory(directory)) {
+            return false;
+        }
+        Files.createDirectories(directory);
+        return true;
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        return Files.deleteIfExists(resolve(path));
+    }
+
+    @Override
+    public void deleteTree(String path) throws IOException {
+        Path folder = resolve(path);
+        if (!Files.isDirectory(folder, LinkOption.NOFOLLOW_LINKS)) {
+            throw new NoSuchFileException(path);
+        }
+        ParallelWalker.deleteTree(folder);
+    }
+
+    @Override
+    public void sync(String path) throws IOException {
+        Path target = resolve(path);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened on every platform (e.g. Windows); there it is not needed
+            if (!Files.isDirectory(target)) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException {
+        return fileStore().getTotalSpace();
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        return fileStore().getUsableSpace();
+    }
+
+    @Override
+    public long getFreeSpace() throws IOException {
+        return fileStore().getUnallocatedSpace();
+    }
+
+    @Override
+    public Path localPath(String path) {
+        return resolve(path);
+    }
+
+    private Path resolve(String path) {
+        return path.isEmpty() ? root : root.resolve(path);
+    }
+
+    private FileStore fileStore() throws IOException {
+        return Files.getFileStore(root);
+    }
+
+    private static FileMetadata toMetadata(String path, BasicFileAttributes attrs) {
+        return new FileMetadata(path.substring(path.lastIndexOf('/') + 1), path, attrs.size(),
+                attrs.lastModifiedTime().toMillis(), attrs.isDirectory());
+    }
+}
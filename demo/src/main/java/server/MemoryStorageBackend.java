@@ -0,0 +1,432 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import shared.FileMetadata;
+
+/**
+ * Keeps the whole storage tree in memory, with file contents in direct (off-heap)
+ * buffers so large stores neither grow the Java heap nor lengthen GC pauses.
+ * Useful for tests and as a hot tier; everything is lost when the server stops.
+ * Structural changes are serialized on the backend, reads and listings are not.
+ * The capacity should stay below -XX:MaxDirectMemorySize.
+ */
+public class MemoryStorageBackend implements StorageBackend {
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MIN_BLOCK_SIZE = 4 * 1024;
+
+    private final long capacity;
+    private final AtomicLong allocated = new AtomicLong();
+    private final Node root = new Node(true);
+
+    public MemoryStorageBackend(long capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public SeekableByteChannel openRead(String path) throws IOException {
+        Node node = lookup(path);
+        if (node == null) {
+            throw new NoSuchFileException(path);
+        }
+        if (node.directory) {
+            throw new IOException("Is a directory: " + path);
+        }
+        return new NodeChannel(node, false);
+    }
+
+    @Override
+    public synchronized SeekableByteChannel create(String path) throws IOException {
+        Node parent = parentOf(path);
+        String name = nameOf(path);
+        if (parent.children.containsKey(name)) {
+            throw new FileAlreadyExistsException(path);
+        }
+        Node file = new Node(false);
+        parent.children.put(name, file);
+        parent.touch();
+        return new NodeChannel(file, true);
+    }
+
+    @Override
+    public synchronized void move(String source, String target) throws IOException {
+        Node sourceParent = parentOf(source);
+        Node node = sourceParent.children.get(nameOf(source));
+        if (node == null) {
+            throw new NoSuchFileException(source);
+        }
+        Node targetParent = parentOf(target);
+        Node replaced = targetParent.children.get(nameOf(target));
+        if (replaced != null && replaced.directory) {
+            throw new FileAlreadyExistsException(target);
+        }
+        targetParent.children.put(nameOf(target), node);
+        sourceParent.children.remove(nameOf(source));
+        sourceParent.touch();
+        targetParent.touch();
+        if (replaced != null && replaced != node) {
+            release(replaced);
+        }
+    }
+
+    @Override
+    public FileMetadata stat(String path) {
+        Node node = lookup(path);
+        return node == null ? null : toMetadata(path, node);
+    }
+
+    @Override
+    public void setLastModified(String path, long lastModified) throws IOException {
+        Node node = lookup(path);
+        if (node == null) {
+            throw new NoSuchFileException(path);
+        }
+        node.lastModified = lastModified;
+    }
+
+    @Override
+    public void list(String folder, Predicate<String> names, Consumer<FileMetadata> visitor) throws IOException {
+        Node directory = lookup(folder);
+        if (directory == null) {
+            throw new NoSuchFileException(folder);
+        }
+        if (!directory.directory) {
+            throw new NotDirectoryException(folder);
+        }
+        for (Map.Entry<String, Node> entry : directory.children.entrySet()) {
+            String name = entry.getKey();
+            if (names.test(name)) {
+                visitor.accept(toMetadata(folder.isEmpty() ? name : folder + "/" + name, entry.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean mkdirs(String path) throws IOException {
+        Node node = root;
+        boolean created = false;
+        for (String segment : segments(path)) {
+            Node child = node.children.get(segment);
+            if (child == null) {
+                child = new Node(true);
+                node.children.put(segment, child);
+                node.touch();
+                created = true;
+            } else if (!child.directory) {
+                throw new FileAlreadyExistsException(path);
+            }
+            node = child;
+        }
+        return created;
+    }
+
+    @Override
+    public synchronized boolean delete(String path) throws IOException {
+        if (path.isEmpty()) {
+            throw new IOException("Cannot delete the storage root");
+        }
+        Node parent = lookup(parentPath(path));
+        Node node = parent == null || !parent.directory ? null : parent.children.get(nameOf(path));
+        if (node == null) {
+            return false;
+        }
+        if (node.directory && !node.children.isEmpty()) {
+            throw new DirectoryNotEmptyException(path);
+        }
+        parent.children.remove(nameOf(path));
+        parent.touch();
+        release(node);
+        return true;
+    }
+
+    @Override
+    public synchronized void deleteTree(String path) throws IOException {
+        if (path.isEmpty()) {
+            throw new IOException("Cannot delete the storage root");
+        }
+        Node parent = lookup(parentPath(path));
+        Node node = parent == null || !parent.directory ? null : parent.children.remove(nameOf(path));
+        if (node == null) {
+            throw new NoSuchFileException(path);
+        }
+        parent.touch();
+        release(node);
+    }
+
+    @Override
+    public long getTotalSpace() {
+        return capacity;
+    }
+
+    @Override
+    public long getUsableSpace() {
+        return Math.max(0, capacity - allocated.get());
+    }
+
+    @Override
+    public long getFreeSpace() {
+        return getUsableSpace();
+    }
+
+    // Returns the node's memory to the pool; buffers themselves go when the last reader lets go
+    // Iterative, so a very deep tree cannot overflow the stack
+    private void release(Node node) {
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            Node next = pending.pop();
+            if (next.directory) {
+                next.children.values().forEach(pending::push);
+                continue;
+            }
+            synchronized (next) {
+                allocated.addAndGet(-next.capacity);
+                next.capacity = 0;
+                next.released = true;
+            }
+        }
+    }
+
+    private Node lookup(String path) {
+        Node node = root;
+        for (String segment : segments(path)) {
+            if (!node.directory) {
+                return null;
+            }
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private Node parentOf(String path) throws IOException {
+        if (path.isEmpty()) {
+            throw new IOException("Not a file path: the storage root");
+        }
+        Node parent = lookup(parentPath(path));
+        if (parent == null) {
+            throw new NoSuchFileException(parentPath(path));
+        }
+        if (!parent.directory) {
+            throw new NotDirectoryException(parentPath(path));
+        }
+        return parent;
+    }
+
+    private static String[] segments(String path) {
+        return path.isEmpty() ? new String[0] : path.split("/");
+    }
+
+    private static String parentPath(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash == -1 ? "" : path.substring(0, lastSlash);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static FileMetadata toMetadata(String path, Node node) {
+        return new FileMetadata(nameOf(path), path, node.directory ? 0 : node.size(), node.lastModified,
+                node.directory);
+    }
+
+    private class Node {
+        final boolean directory;
+        final ConcurrentSkipListMap<String, Node> children;
+        // File contents: full BLOCK_SIZE blocks, except a small file's only block
+        final List<ByteBuffer> blocks = new ArrayList<>();
+        long size;
+        long capacity;
+        boolean released;
+        volatile long lastModified = System.currentTimeMillis();
+
+        Node(boolean directory) {
+            this.directory = directory;
+            this.children = directory ? new ConcurrentSkipListMap<>() : null;
+        }
+
+        synchronized long size() {
+            return size;
+        }
+
+        void touch() {
+            lastModified = System.currentTimeMillis();
+        }
+
+        // Caller holds the node's lock
+        void ensureCapacity(long needed) throws IOException {
+            if (released) {
+                throw new IOException("File was deleted while being written");
+            }
+            while (capacity < needed) {
+                ByteBuffer last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+                int blockSize;
+                if (last != null && last.capacity() < BLOCK_SIZE) {
+                    // Grow the small first block rather than chaining a second one
+                    blockSize = (int) Math.min(BLOCK_SIZE, Math.max(2L * last.capacity(), needed));
+                    ByteBuffer grown = allocate(blockSize);
+                    grown.put(last.duplicate().clear());
+                    blocks.set(blocks.size() - 1, grown);
+                    allocated.addAndGet(-last.capacity());
+                    capacity += blockSize - last.capacity();
+                } else {
+                    long missing = needed - capacity;
+                    blockSize = blocks.isEmpty()
+                            ? (int) Math.min(BLOCK_SIZE, Math.max(MIN_BLOCK_SIZE, roundUp(missing)))
+                            : BLOCK_SIZE;
+                    blocks.add(allocate(blockSize));
+                    capacity += blockSize;
+                }
+            }
+        }
+
+        private ByteBuffer allocate(int blockSize) throws IOException {
+            if (allocated.addAndGet(blockSize) > MemoryStorageBackend.this.capacity) {
+                allocated.addAndGet(-blockSize);
+                throw new IOException("In-memory storage is full");
+            }
+            try {
+                return ByteBuffer.allocateDirect(blockSize);
+            } catch (OutOfMemoryError e) {
+                allocated.addAndGet(-blockSize);
+                throw new IOException("Out of direct memory for in-memory storage", e);
+            }
+        }
+
+        private long roundUp(long bytes) {
+            return (bytes + MIN_BLOCK_SIZE - 1) / MIN_BLOCK_SIZE * MIN_BLOCK_SIZE;
+        }
+    }
+
+    // Position is per channel, content is shared; all access goes through the node's lock
+    private static class NodeChannel implements SeekableByteChannel {
+        private final Node node;
+        private final boolean writable;
+        private long position;
+        private boolean open = true;
+
+        NodeChannel(Node node, boolean writable) {
+            this.node = node;
+            this.writable = writable;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            synchronized (node) {
+                if (position >= node.size) {
+                    return -1;
+                }
+                int total = 0;
+                while (dst.hasRemaining() && position < node.size) {
+                    ByteBuffer block = node.blocks.get((int) (position / BLOCK_SIZE)).duplicate();
+                    int offset = (int) (position % BLOCK_SIZE);
+                    int length = (int) Math.min(Math.min(dst.remaining(), node.size - position),
+                            block.capacity() - offset);
+                    block.limit(offset + length).position(offset);
+                    dst.put(block);
+                    position += length;
+                    total += length;
+                }
+                return total;
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ensureOpen();
+            if (!writable) {
+                throw new NonWritableChannelException();
+            }
+            synchronized (node) {
+                int total = src.remaining();
+                node.ensureCapacity(position + total);
+                while (src.hasRemaining()) {
+                    ByteBuffer block = node.blocks.get((int) (position / BLOCK_SIZE)).duplicate();
+                    int offset = (int) (position % BLOCK_SIZE);
+                    int length = Math.min(src.remaining(), block.capacity() - offset);
+                    ByteBuffer slice = src.slice();
+                    slice.limit(length);
+                    block.position(offset);
+                    block.put(slice);
+                    src.position(src.position() + length);
+                    position += length;
+                }
+                node.size = Math.max(node.size, position);
+                node.touch();
+                return total;
+            }
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return node.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            ensureOpen();
+            if (!writable) {
+                throw new NonWritableChannelException();
+            }
+            synchronized (node) {
+                node.size = Math.min(node.size, size);
+                position = Math.min(position, size);
+            }
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import shared.FileMetadata;
+
+/**
+ * LRU cache of directory listings keyed by sanitized folder path ("" is the root).
+ * The total number of cached entries is bounded. Listings are invalidated by the
+ * mutating FileImpl methods and by a WatchService for changes made behind our back.
+ * A change in a folder drops its listing and its parent's (whose entry for the
+ * folder changed); a deleted folder also drops everything cached below it.
+ * <p>
+ * A scan is only cached if its own folder was not invalidated while it ran, so
+ * writes elsewhere do not keep large folders out of the cache.
+ */
+public class MetadataCache {
+    // Recent invalidations remembered per folder; older ones only as a bound
+    private static final int MAX_STAMPS = 10_000;
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, List<FileMetadata>> listings = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, WatchKey> watchKeys = new HashMap<>();
+    private final Map<WatchKey, String> watchedFolders = new HashMap<>();
+    private final WatchService watcher;
+    private long cachedEntries;
+    private long clock; // Advanced by every invalidation
+    private long forgottenUpTo; // Newest stamp dropped from invalidatedAt
+    private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() <= MAX_STAMPS) {
+                return false;
+            }
+            forgottenUpTo = Math.max(forgottenUpTo, eldest.getValue());
+            return true;
+        }
+    };
+
+    public MetadataCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.watcher = openWatcher();
+        if (watcher != null) {
+            Thread thread = new Thread(this::watchLoop, "metadata-watch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized List<FileMetadata> get(String folder) {
+        List<FileMetadata> listing = listings.get(folder);
+        return listing == null ? null : new ArrayList<>(listing);
+    }
+
+    // Call before scanning a folder; the returned stamp is handed back to put().
+    // Folders without a local directory are not watched and rely on invalidate().
+    public synchronized long beginLoad(String folder, Path directory) {
+        if (watcher != null && directory != null && !watchKeys.containsKey(folder)) {
+            try {
+                WatchKey key = directory.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchKeys.put(folder, key);
+                watchedFolders.put(key, folder);
+            } catch (IOException e) {
+                System.err.println("✗ Cannot watch folder: " + folder + " - " + e.getMessage());
+            }
+        }
+        return clock;
+    }
+
+    // Skips the put if the folder was invalidated while it was being scanned
+    public synchronized void put(String folder, List<FileMetadata> listing, long stamp) {
+        Long invalidated = invalidatedAt.get(folder);
+        if ((invalidated != null ? invalidated : forgottenUpTo) > stamp || listing.size() > maxEntries) {
+            return;
+        }
+        List<FileMetadata> previous = listings.put(folder, Collections.unmodifiableList(new ArrayList<>(listing)));
+        if (previous != null) {
+            cachedEntries -= previous.size();
+        }
+        cachedEntries += listing.size();
+        evict();
+    }
+
+    // The contents of folder changed
+    public synchronized void invalidate(String folder) {
+        clock++;
+        drop(folder);
+        if (!folder.isEmpty()) {
+            drop(parentOf(folder));
+        }
+    }
+
+    // path was deleted or replaced, with everything below it
+    public synchronized void invalidateTree(String path) {
+        invalidate(path);
+        if (path.isEmpty()) {
+            invalidateAll();
+            return;
+        }
+        String prefix = path + "/";
+        List<String> below = new ArrayList<>();
+        for (String key : listings.keySet()) {
+            if (key.startsWith(prefix)) {
+                below.add(key);
+            }
+        }
+        for (String key : below) {
+            drop(key);
+        }
+    }
+
+    private void drop(String folder) {
+        invalidatedAt.put(folder, clock);
+        List<FileMetadata> listing = listings.remove(folder);
+        if (listing != null) {
+            cachedEntries -= listing.size();
+            unwatch(folder);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        clock++;
+        forgottenUpTo = clock;
+        invalidatedAt.clear();
+        listings.clear();
+        cachedEntries = 0;
+        for (String folder : new ArrayList<>(watchKeys.keySet())) {
+            unwatch(folder);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, List<FileMetadata>>> it = listings.entrySet().iterator();
+        while (cachedEntries > maxEntries && it.hasNext()) {
+            Map.Entry<String, List<FileMetadata>> eldest = it.next();
+            cachedEntries -= eldest.getValue().size();
+            it.remove();
+            unwatch(eldest.getKey());
+        }
+    }
+
+    private void unwatch(String folder) {
+        WatchKey key = watchKeys.remove(folder);
+        if (key != null) {
+            watchedFolders.remove(key);
+            key.cancel();
+        }
+    }
+
+    private static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash == -1 ? "" : path.substring(0, lastSlash);
+    }
+
+    private WatchService openWatcher() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("✗ WatchService unavailable, relying on explicit invalidation: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            boolean changed = false;
+            List<String> removed = new ArrayList<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidateAll();
+                    changed = false;
+                    break;
+                }
+                Path name = (Path) event.context();
+                if (!name.toString().startsWith(TransferManager.TEMP_PREFIX)) {
+                    changed = true; // In-flight uploads only become visible on commit
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        removed.add(name.toString());
+                    }
+                }
+            }
+
+            if (changed) {
+                String folder;
+                synchronized (this) {
+                    folder = watchedFolders.get(key);
+                }
+                if (folder != null) {
+                    invalidate(folder);
+                    // A removed subfolder takes what was cached below it along
+                    for (String name : removed) {
+                        invalidateTree(folder.isEmpty() ? name : folder + "/" + name);
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import shared.ChangeBatch;
+import shared.ChangeEvent;
+
+/**
+ * Append-only log of the writes and deletes made through this server, which
+ * replicas tail to stay in sync (see Replicator). A record only names the path
+ * and what happened to it; the replica fetches the content from the primary when
+ * it applies the record, so applying one late or twice is harmless.
+ * <p>
+ * Records are kept in segment files next to the storage folder, of which the
+ * newest few are retained, and the most recent ones also in memory. A replica
+ * whose position has left the log, or that followed another log (its primary's
+ * storage was replaced), gets a reset and compares whole trees instead. Storage
+ * held only in memory gets a log held only in memory, new on every start.
+ */
+public class OperationLog {
+    private static final long MAX_POLL_MS = 60_000;
+    private static final int MAX_BATCH = 1000;
+    private static final int MEMORY_RECORDS = 16_384;
+    private static final String SEGMENT_SUFFIX = ".log";
+    // seq, type, path length
+    private static final int RECORD_HEADER = 8 + 1 + 4;
+
+    private final Path directory; // null: memory only
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final long logId;
+    private final ChangeEvent[] recent = new ChangeEvent[MEMORY_RECORDS];
+    private final TreeMap<Long, Path> segments = new TreeMap<>(); // First seq -> file
+    private long seq;
+    private final long startSeq; // Records up to here are only on disk
+    private DataOutputStream out;
+    private long segmentSize;
+
+    public OperationLog(Path directory, long segmentBytes, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.max(segmentBytes, 4096);
+        this.maxSegments = Math.max(maxSegments, 1);
+        if (directory == null) {
+            this.logId = System.currentTimeMillis();
+            this.startSeq = 0;
+            return;
+        }
+        Files.createDirectories(directory);
+        Path idFile = directory.resolve("log.id");
+        long id;
+        try {
+            id = Long.parseLong(Files.readString(idFile).trim());
+        } catch (NoSuchFileException | NumberFormatException e) {
+            id = System.currentTimeMillis();
+            Files.writeString(idFile, Long.toString(id));
+        }
+        this.logId = id;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                    } catch (NumberFormatException e) {
+                        // Not one of ours
+                    }
+                }
+            });
+        }
+        if (segments.isEmpty()) {
+            seq = 0;
+            openSegment(1);
+        } else {
+            Map.Entry<Long, Path> last = segments.lastEntry();
+            seq = recover(last.getKey(), last.getValue());
+            segmentSize = Files.size(last.getValue());
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(last.getValue(), StandardOpenOption.APPEND)));
+        }
+        this.startSeq = seq;
+    }
+
+    /** Log next to the storage folder (disk-backed storage), or in memory, as configured by system properties. */
+    public static OperationLog open(Path storageRoot) throws IOException {
+        return new OperationLog(storageRoot != null ? storageRoot.resolveSibling(storageRoot.getFileName() + ".oplog") : null,
+                Long.getLong("fileserver.oplogSegmentMB", 16) * 1024 * 1024,
+                Integer.getInteger("fileserver.oplogSegments", 8));
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    public void updated(String path) {
+        append(ChangeEvent.Type.UPDATED, path);
+    }
+
+    public void deleted(String path) {
+        append(ChangeEvent.Type.DELETED, path);
+    }
+
+    private synchronized void append(ChangeEvent.Type type, String path) {
+        seq++;
+        recent[(int) (seq % recent.length)] = new ChangeEvent(seq, type, path, null);
+        if (out != null) {
+            try {
+                byte[] name = path.getBytes(StandardCharsets.UTF_8);
+                out.writeLong(seq);
+                out.writeByte(type.ordinal());
+                out.writeInt(name.length);
+                out.write(name);
+                out.flush();
+                segmentSize += RECORD_HEADER + name.length;
+                if (segmentSize >= segmentBytes) {
+                    out.close();
+                    openSegment(seq + 1);
+                }
+            } catch (IOException e) {
+                // Still served from memory; a replica that needs it from disk later resynchronizes
+                System.err.println("✗ Operation log write failed: " + path + " - " + e.getMessage());
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Records after afterSeq, waiting up to timeoutMs for the first one. A caller
+     * with another log id (0 on its first read) or a position the log no longer
+     * holds gets a reset batch with the current position instead.
+     */
+    public ChangeBatch read(long logId, long afterSeq, long timeoutMs) throws InterruptedException {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + Math.min(Math.max(timeoutMs, 0), MAX_POLL_MS);
+            if (logId != this.logId || afterSeq > seq || afterSeq < firstSeq() - 1) {
+                return reset();
+            }
+            while (seq == afterSeq) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            if (afterSeq >= Math.max(startSeq, seq - recent.length)) {
+                long last = Math.min(seq, afterSeq + MAX_BATCH);
+                List<ChangeEvent> events = new ArrayList<>((int) (last - afterSeq));
+                for (long next = afterSeq + 1; next <= last; next++) {
+                    events.add(recent[(int) (next % recent.length)]);
+                }
+                return new ChangeBatch(this.logId, last, false, events);
+            }
+            if (afterSeq < firstSeq() - 1) {
+                return reset();
+            }
+        }
+        // Older than what memory holds: the catch-up of a replica that was away
+        return readSegments(afterSeq);
+    }
+
+    private synchronized ChangeBatch reset() {
+        return new ChangeBatch(logId, seq, true, new ArrayList<>());
+    }
+
+    // Oldest record still held (memory-only logs hold the ring)
+    private long firstSeq() {
+        return directory == null ? Math.max(0, seq - recent.length) + 1 : segments.firstKey();
+    }
+
+    private ChangeBatch readSegments(long afterSeq) {
+        List<Path> files;
+        synchronized (this) {
+            Long first = segments.floorKey(afterSeq + 1);
+            files = new ArrayList<>(segments.tailMap(first != null ? first : segments.firstKey()).values());
+        }
+        List<ChangeEvent> events = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    ChangeEvent event;
+                    while (events.size() < MAX_BATCH && (event = readRecord(in)) != null) {
+                        if (event.getSeq() > afterSeq) {
+                            events.add(event);
+                        }
+                    }
+                }
+                if (events.size() >= MAX_BATCH) {
+                    break;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return reset(); // Rolled away while we read
+        } catch (IOException e) {
+            System.err.println("✗ Operation log read failed: " + e.getMessage());
+            return reset();
+        }
+        long last = events.isEmpty() ? afterSeq : events.get(events.size() - 1).getSeq();
+        return new ChangeBatch(logId, last, false, events);
+    }
+
+    // Next record, or null at the end of the segment or at a record cut short by a crash
+    private static ChangeEvent readRecord(DataInputStream in) throws IOException {
+        try {
+            long seq = in.readLong();
+            int type = in.readUnsignedByte();
+            int length = in.readInt();
+            if (type >= ChangeEvent.Type.values().length || length < 0 || length > 65_536) {
+                return null;
+            }
+            byte[] name = in.readNBytes(length);
+            if (name.length < length) {
+                return null;
+            }
+            return new ChangeEvent(seq, ChangeEvent.Type.values()[type], new String(name, StandardCharsets.UTF_8), null);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // Last complete record of the newest segment; a torn tail left by a crash is cut off
+    private static long recover(long firstSeq, Path file) throws IOException {
+        long lastSeq = firstSeq - 1;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            ChangeEvent event;
+            while ((event = readRecord(in)) != null) {
+                lastSeq = event.getSeq();
+                valid += RECORD_HEADER + event.getPath().getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        if (valid < Files.size(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return lastSeq;
+    }
+
+    private void openSegment(long firstSeq) throws IOException {
+        Path file = directory.resolve(String.format("%020d", firstSeq) + SEGMENT_SUFFIX);
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)));
+        segments.put(firstSeq, file);
+        segmentSize = 0;
+        while (segments.size() > maxSegments) {
+            Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import shared.FileMetadata;
+
+/**
+ * Walks and deletes folder trees on a shared fork/join pool, one task per folder
+ * and, for very large folders, per slice of entries. Tasks are counted completers
+ * that never wait for their children, so the depth of a tree costs no stack and
+ * a folder is finished off (e.g. removed) by whichever thread completes its last
+ * child. -Dfileserver.walkThreads sizes the pool.
+ */
+public final class ParallelWalker {
+    // Files deleted by one task before the rest of a folder is split off to other threads
+    private static final int DELETE_SLICE = 512;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Integer.getInteger("fileserver.walkThreads", Math.max(4, Runtime.getRuntime().availableProcessors())),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("tree-walker-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+
+    private ParallelWalker() {
+    }
+
+    /**
+     * Visits everything below a folder, each folder before its entries. The visitor
+     * is called from several threads at once. Temp-prefixed folders (folders being
+     * purged) are visited but not entered.
+     */
+    public static void walk(StorageBackend storage, String folder, Consumer<FileMetadata> visitor) throws IOException {
+        FileMetadata start = storage.stat(folder);
+        if (start == null || !start.isDirectory()) {
+            throw new NoSuchFileException(folder);
+        }
+        POOL.invoke(new WalkTask(null, storage, folder, visitor));
+    }
+
+    // Deletes a local folder and everything below it; entries that vanish meanwhile are fine
+    public static void deleteTree(Path folder) throws IOException {
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        POOL.invoke(new DeleteTask(null, folder, failure));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private static class WalkTask extends CountedCompleter<Void> {
+        private final StorageBackend storage;
+        private final String folder;
+        private final Consumer<FileMetadata> visitor;
+
+        WalkTask(CountedCompleter<?> parent, StorageBackend storage, String folder, Consumer<FileMetadata> visitor) {
+            super(parent);
+            this.storage = storage;
+            this.folder = folder;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void compute() {
+            try {
+                storage.list(folder, name -> true, entry -> {
+                    visitor.accept(entry);
+                    if (entry.isDirectory() && !entry.getName().startsWith(TransferManager.TEMP_PREFIX)) {
+                        addToPendingCount(1);
+                        new WalkTask(this, storage, entry.getPath(), visitor).fork();
+                    }
+                });
+            } catch (IOException e) {
+                // Folder vanished or became unreadable mid-walk; keep going
+            }
+            tryComplete();
+        }
+    }
+
+    // Empties a folder, then removes it once its last child task has completed
+    private static class DeleteTask extends CountedCompleter<Void> {
+        private final Path folder;
+        private final AtomicReference<IOException> failure;
+
+        DeleteTask(CountedCompleter<?> parent, Path folder, AtomicReference<IOException> failure) {
+            super(parent);
+            this.folder = folder;
+            this.failure = failure;
+        }
+
+        @Override
+        public void compute() {
+            List<Path> slice = new ArrayList<>(DELETE_SLICE);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+                for (Path entry : entries) {
+                    slice.add(entry);
+                    if (slice.size() == DELETE_SLICE) {
+                        addToPendingCount(1);
+                        new SliceTask(this, slice, failure).fork();
+                        slice = new ArrayList<>(DELETE_SLICE);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // Removed by someone else already
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+            deleteEntries(this, slice, failure);
+            tryComplete();
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            try {
+                Files.deleteIfExists(folder);
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private static class SliceTask extends CountedCompleter<Void> {
+        private final List<Path> entries;
+        private final AtomicReference<IOException> failure;
+
+        SliceTask(CountedCompleter<?> parent, List<Path> entries, AtomicReference<IOException> failure) {
+            super(parent);
+            this.entries = entries;
+            this.failure = failure;
+        }
+
+        @Override
+        public void compute() {
+            deleteEntries(this, entries, failure);
+            tryComplete();
+        }
+    }
+
+    // Deleting first and only treating "not empty" as a folder saves a stat per file
+    private static void deleteEntries(CountedCompleter<?> owner, List<Path> entries,
+            AtomicReference<IOException> failure) {
+        for (Path entry : entries) {
+            try {
+                Files.deleteIfExists(entry);
+            } catch (DirectoryNotEmptyException e) {
+                owner.addToPendingCount(1);
+                new DeleteTask(owner, entry, failure).fork();
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+}
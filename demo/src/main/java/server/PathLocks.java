@@ -0,0 +1,186 @@
+package server;
+
+/**
+ * Hierarchical read/write locks keyed by storage-relative path. A path is locked
+ * in the requested mode and each of its ancestors in the matching intent mode, so
+ * an exclusive lock on a folder waits for everything going on below it, while
+ * reads and writes of unrelated files never block each other. Locks live in a
+ * fixed array of stripes chosen by path hash; stripes are always taken in index
+ * order, which keeps two holders from deadlocking however their paths collide.
+ * The root is never locked exclusively, so it is left out entirely.
+ */
+public class PathLocks {
+    public enum Mode { INTENT_SHARED, INTENT_EXCLUSIVE, SHARED, EXCLUSIVE }
+
+    // Releases everything taken for one path; meant for try-with-resources
+    public interface Hold extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Hold NOTHING = () -> { };
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public PathLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Stripe[stripeCount <= 1 ? 1 : size];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = stripes.length - 1;
+    }
+
+    // Reading a file, or anything that needs a path to stay as it is
+    public Hold read(String path) {
+        return acquire(path, Mode.SHARED);
+    }
+
+    // Creating, replacing or deleting a file, or a folder with everything in it
+    public Hold write(String path) {
+        return acquire(path, Mode.EXCLUSIVE);
+    }
+
+    // Listing a folder: it must not be deleted meanwhile, but files in it may change
+    public Hold browse(String folder) {
+        return acquire(folder, Mode.INTENT_SHARED);
+    }
+
+    public Hold acquire(String path, Mode mode) {
+        if (path.isEmpty()) {
+            return NOTHING;
+        }
+        Mode intent = mode == Mode.SHARED || mode == Mode.INTENT_SHARED ? Mode.INTENT_SHARED : Mode.INTENT_EXCLUSIVE;
+        int depth = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+
+        // One stripe per ancestor and one for the path, hashed as String.hashCode would without substrings
+        int[] taken = new int[depth];
+        Mode[] modes = new Mode[depth];
+        int count = 0;
+        int hash = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/') {
+                count = insert(taken, modes, count, stripeOf(hash), intent);
+            }
+            hash = 31 * hash + c;
+        }
+        count = insert(taken, modes, count, stripeOf(hash), mode);
+
+        for (int i = 0; i < count; i++) {
+            stripes[taken[i]].lock(modes[i]);
+        }
+        int held = count;
+        return () -> {
+            for (int i = held - 1; i >= 0; i--) {
+                stripes[taken[i]].unlock(modes[i]);
+            }
+        };
+    }
+
+    // Keeps the stripes sorted and distinct, so every caller locks them in the same order
+    private static int insert(int[] taken, Mode[] modes, int count, int stripe, Mode mode) {
+        int at = 0;
+        while (at < count && taken[at] < stripe) {
+            at++;
+        }
+        if (at < count && taken[at] == stripe) {
+            modes[at] = combine(modes[at], mode);
+            return count;
+        }
+        System.arraycopy(taken, at, taken, at + 1, count - at);
+        System.arraycopy(modes, at, modes, at + 1, count - at);
+        taken[at] = stripe;
+        modes[at] = mode;
+        return count + 1;
+    }
+
+    private int stripeOf(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    // Two paths sharing a stripe need a mode that covers both
+    private static Mode combine(Mode a, Mode b) {
+        if (a == b) {
+            return a;
+        }
+        if (a == Mode.EXCLUSIVE || b == Mode.EXCLUSIVE) {
+            return Mode.EXCLUSIVE;
+        }
+        if (a == Mode.INTENT_SHARED) {
+            return b;
+        }
+        if (b == Mode.INTENT_SHARED) {
+            return a;
+        }
+        // Shared plus intent-exclusive has no weaker cover
+        return Mode.EXCLUSIVE;
+    }
+
+    private static class Stripe {
+        private int intentShared;
+        private int intentExclusive;
+        private int shared;
+        private boolean exclusive;
+        private int exclusiveWaiting;
+
+        synchronized void lock(Mode mode) {
+            boolean interrupted = false;
+            if (mode == Mode.EXCLUSIVE) {
+                exclusiveWaiting++;
+            }
+            try {
+                while (!grantable(mode)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Callers cannot back out halfway through a path, so finish and re-flag
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (mode == Mode.EXCLUSIVE) {
+                    exclusiveWaiting--;
+                }
+            }
+            switch (mode) {
+                case INTENT_SHARED: intentShared++; break;
+                case INTENT_EXCLUSIVE: intentExclusive++; break;
+                case SHARED: shared++; break;
+                case EXCLUSIVE: exclusive = true; break;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void unlock(Mode mode) {
+            switch (mode) {
+                case INTENT_SHARED: intentShared--; break;
+                case INTENT_EXCLUSIVE: intentExclusive--; break;
+                case SHARED: shared--; break;
+                case EXCLUSIVE: exclusive = false; break;
+            }
+            notifyAll();
+        }
+
+        // Waiting exclusive requests go first, so a folder delete is not starved by steady traffic
+        private boolean grantable(Mode mode) {
+            if (exclusive) {
+                return false;
+            }
+            switch (mode) {
+                case INTENT_SHARED: return exclusiveWaiting == 0;
+                case INTENT_EXCLUSIVE: return exclusiveWaiting == 0 && shared == 0;
+                case SHARED: return exclusiveWaiting == 0 && intentExclusive == 0;
+                default: return intentShared == 0 && intentExclusive == 0 && shared == 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package server;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import shared.BatchResult;
+import shared.ChangeBatch;
+import shared.ChangeEvent;
+import shared.FileInterface;
+import shared.FileMetadata;
+import shared.FileNodeInterface;
+import shared.TransferSession;
+
+/**
+ * Keeps this server a read-only copy of a primary (-Dfileserver.primary=host:port)
+ * by tailing the primary's operation log (see OperationLog). Each record is
+ * applied by asking the primary for the entry as it is now, so a file written
+ * twice is copied once it settles and replays are harmless.
+ * <p>
+ * The position in the log is saved next to the storage folder, so a replica that
+ * was down catches up from where it stopped. When the primary no longer holds
+ * that position (or never did: a new replica), the whole tree is compared instead
+ * and only what differs in size or modification time is copied.
+ */
+public class Replicator {
+    private static final long POLL_MS = 25_000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    // Calls that change storage; a replica only changes through its primary
+    private static final Set<String> WRITES = Set.of("uploadFile", "uploadFileToFolder", "uploadByHash",
+            "deleteFile", "createFolder", "deleteFolder", "uploadFiles", "deleteFiles", "openUpload",
+            "writeChunk", "commitUpload", "openMultipartUpload", "writePart", "completeMultipartUpload");
+
+    private final FileImpl local;
+    private final String primaryHost;
+    private final int primaryPort;
+    private final Path positionFile; // null: start over on every start
+    private FileNodeInterface primary;
+    private long logId;
+    private long seq;
+    // Since when reads here may miss a change the primary made; 0 while caught up
+    private volatile long behindSince = System.currentTimeMillis();
+
+    public Replicator(FileImpl local, String primaryAddress, Path positionFile) {
+        int colon = primaryAddress.lastIndexOf(':');
+        this.local = local;
+        this.primaryHost = colon < 0 ? primaryAddress : primaryAddress.substring(0, colon);
+        this.primaryPort = colon < 0 ? 1099 : Integer.parseInt(primaryAddress.substring(colon + 1));
+        this.positionFile = positionFile;
+        loadPosition();
+    }
+
+    public void start() {
+        local.setReplicator(this);
+        Thread thread = new Thread(this::run, "replicator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getPrimary() {
+        return primaryHost + ":" + primaryPort;
+    }
+
+    // Milliseconds reads here may trail the primary
+    long getLag() {
+        long since = behindSince;
+        return since == 0 ? 0 : System.currentTimeMillis() - since;
+    }
+
+    /** Stub for clients of a replica: reads are served, writes are refused. */
+    public static FileNodeInterface readOnly(FileNodeInterface target, String primary) {
+        return (FileNodeInterface) Proxy.newProxyInstance(FileNodeInterface.class.getClassLoader(),
+                new Class<?>[] { FileNodeInterface.class }, (proxy, method, args) -> {
+                    if (WRITES.contains(method.getName())) {
+                        throw new RemoteException("Read-only replica of " + primary + ", write there instead");
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void run() {
+        long backoff = 1000;
+        while (true) {
+            try {
+                if (primary == null) {
+                    primary = (FileNodeInterface) LocateRegistry.getRegistry(primaryHost, primaryPort).lookup("FileService");
+                    System.out.println("✓ Following primary " + getPrimary() + " from operation " + seq);
+                }
+                // Right after applying something, check at once whether more is waiting
+                ChangeBatch batch = primary.readOperations(logId, seq, behindSince == 0 ? POLL_MS : 0);
+                if (batch == null) {
+                    throw new IOException("primary keeps no operation log");
+                }
+                if (batch.isReset()) {
+                    markBehind();
+                    resync();
+                } else if (batch.getEvents().isEmpty()) {
+                    behindSince = 0;
+                } else {
+                    markBehind();
+                    for (ChangeEvent event : batch.getEvents()) {
+                        apply(event);
+                    }
+                }
+                logId = batch.getEpoch();
+                seq = batch.getLastSeq();
+                savePosition();
+                backoff = 1000;
+            } catch (Exception e) {
+                markBehind();
+                System.err.println("✗ Replication from " + getPrimary() + " failed, retrying in "
+                        + backoff / 1000 + "s: " + e.getMessage());
+                primary = null;
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    private void markBehind() {
+        if (behindSince == 0) {
+            behindSince = System.currentTimeMillis();
+        }
+    }
+
+    private void apply(ChangeEvent event) throws Exception {
+        String path = event.getPath();
+        if (event.getType() == ChangeEvent.Type.DELETED) {
+            delete(path, stat(local, path));
+            return;
+        }
+        FileMetadata remote = stat(primary, path);
+        if (remote != null) { // Otherwise deleted again, which a later record says
+            copyIfDifferent(remote, stat(local, path));
+        }
+    }
+
+    // Brings the whole tree in line with the primary's, e.g. after being away too long
+    private void resync() throws Exception {
+        long start = System.currentTimeMillis();
+        List<FileMetadata> remoteTree = primary.listTree("");
+        List<FileMetadata> localTree = local.listTree("");
+        if (remoteTree == null || localTree == null) {
+            throw new IOException("cannot list the storage root");
+        }
+        Map<String, FileMetadata> remote = new HashMap<>();
+        for (FileMetadata entry : remoteTree) {
+            remote.put(entry.getPath(), entry);
+        }
+        Map<String, FileMetadata> existing = new HashMap<>();
+        Set<String> deletedFolders = new HashSet<>();
+        int deleted = 0;
+        // Deletes first, so a file can take the place of a folder and the other way round
+        for (FileMetadata entry : localTree) {
+            FileMetadata match = remote.get(entry.getPath());
+            if (match != null && match.isDirectory() == entry.isDirectory()) {
+                existing.put(entry.getPath(), entry);
+            } else if (!belowAny(entry.getPath(), deletedFolders)) {
+                delete(entry.getPath(), entry);
+                if (entry.isDirectory()) {
+                    deletedFolders.add(entry.getPath());
+                }
+                deleted++;
+            }
+        }
+        int copied = 0;
+        for (FileMetadata entry : remoteTree) { // Parents come first
+            if (copyIfDifferent(entry, existing.get(entry.getPath()))) {
+                copied++;
+            }
+        }
+        System.out.println("✓ Resynchronized with " + getPrimary() + ": " + copied + " copied, " + deleted
+                + " deleted, " + (remoteTree.size() - copied) + " already current ("
+                + (System.currentTimeMillis() - start) + " ms)");
+    }
+
+    private static boolean belowAny(String path, Set<String> folders) {
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (folders.contains(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True if something had to be written
+    private boolean copyIfDifferent(FileMetadata remote, FileMetadata current) throws Exception {
+        String path = remote.getPath();
+        if (current != null && current.isDirectory() != remote.isDirectory()) {
+            delete(path, current);
+            current = null;
+        }
+        if (remote.isDirectory()) {
+            return current == null && local.createFolder(path);
+        }
+        if (current != null && current.getSize() == remote.getSize()
+                && current.getLastModified() == remote.getLastModified()) {
+            return false;
+        }
+        copy(remote);
+        return true;
+    }
+
+    private void delete(String path, FileMetadata current) throws RemoteException {
+        if (current != null && current.isDirectory()) {
+            local.deleteFolder(path);
+        } else if (current != null) {
+            local.deleteFile(path);
+        }
+    }
+
+    // Streams the primary's file across in chunks; it appears here atomically on commit
+    private void copy(FileMetadata remote) throws Exception {
+        String path = remote.getPath();
+        TransferSession download = primary.openDownload(path);
+        if (download == null) {
+            return; // Deleted meanwhile
+        }
+        int slash = path.lastIndexOf('/');
+        TransferSession upload = local.openUpload(slash < 0 ? "" : path.substring(0, slash), path.substring(slash + 1));
+        if (upload == null) {
+            primary.closeDownload(download.getSessionId());
+            throw new IOException("cannot store " + path);
+        }
+        boolean committed = false;
+        try {
+            int chunk = Math.min(download.getMaxChunkSize(), upload.getMaxChunkSize());
+            for (long offset = 0; offset < download.getSize(); ) {
+                byte[] data = primary.readChunk(download.getSessionId(), offset,
+                        (int) Math.min(chunk, download.getSize() - offset));
+                if (data == null || data.length == 0 || !local.writeChunk(upload.getSessionId(), offset, data)) {
+                    throw new IOException("copy of " + path + " stopped at byte " + offset);
+                }
+                offset += data.length;
+            }
+            committed = local.commitReplica(upload.getSessionId(), remote.getLastModified());
+            if (!committed) {
+                throw new IOException("cannot commit " + path);
+            }
+        } finally {
+            if (!committed) {
+                local.abortUpload(upload.getSessionId());
+            }
+            primary.closeDownload(download.getSessionId());
+        }
+    }
+
+    private static FileMetadata stat(FileInterface node, String path) throws RemoteException {
+        List<BatchResult> result = node.statFiles(List.of(path));
+        return result != null && result.get(0).isSuccess() ? result.get(0).getMetadata() : null;
+    }
+
+    private void loadPosition() {
+        if (positionFile == null) {
+            return;
+        }
+        try {
+            String[] parts = Files.readString(positionFile).trim().split(" ");
+            logId = Long.parseLong(parts[0]);
+            seq = Long.parseLong(parts[1]);
+        } catch (NoSuchFileException e) {
+            // A new replica: the first read resets and copies everything
+        } catch (IOException | RuntimeException e) {
+            System.err.println("✗ Unreadable replication position, resynchronizing: " + e.getMessage());
+        }
+    }
+
+    private void savePosition() throws IOException {
+        if (positionFile == null) {
+            return;
+        }
+        Path temp = positionFile.resolveSibling(positionFile.getFileName() + ".tmp");
+        Files.writeString(temp, logId + " " + seq);
+        Files.move(temp, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,385 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import shared.FileMetadata;
+
+/**
+ * Name/path index over all of server_storage. Entries are kept in two sorted maps:
+ * by path, and by lower-cased name (for prefix queries), and the names' trigrams
+ * are indexed for substring queries (see TrigramIndex). The index is saved to a
+ * front-coded binary file so it loads quickly at startup; a background walk then
+ * reconciles it with whatever changed on disk while the server was down. Without
+ * an index file (e.g. for in-memory storage) it is only built by that walk.
+ */
+public class SearchIndex {
+    // Notified for every entry that is added (previous == null), changed or removed (current == null)
+    public interface Listener {
+        void onChange(FileMetadata previous, FileMetadata current);
+    }
+
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int VERSION = 2;
+    private static final long SAVE_INTERVAL_SECONDS = 30;
+
+    private final StorageBackend storage;
+    private final Path indexFile; // null when the index is not persisted
+    private final ConcurrentSkipListMap<String, FileMetadata> byPath = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, FileMetadata> byName = new ConcurrentSkipListMap<>();
+    private final TrigramIndex nameTrigrams = new TrigramIndex();
+    private final ScheduledExecutorService background;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean dirty;
+
+    public SearchIndex(StorageBackend storage, Path indexFile) {
+        this.storage = storage;
+        this.indexFile = indexFile;
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Loads the saved index, then reconciles and saves periodically in the background
+    public void start() {
+        if (indexFile != null) {
+            long start = System.currentTimeMillis();
+            try {
+                load();
+                System.out.println("✓ Search index loaded: " + byPath.size() + " entries in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (NoSuchFileException e) {
+                System.out.println("✓ No search index yet, building it from storage");
+            } catch (IOException e) {
+                System.err.println("✗ Search index unreadable, rebuilding: " + e.getMessage());
+            }
+            background.scheduleWithFixedDelay(this::saveIfDirty, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::saveIfDirty, "search-index-save"));
+        }
+        background.execute(this::reconcile);
+    }
+
+    public int size() {
+        return byPath.size();
+    }
+
+    // Indexes a path and its ancestor folders from their current attributes
+    public void update(String relativePath) {
+        String path = relativePath;
+        while (!path.isEmpty()) {
+            try {
+                FileMetadata metadata = storage.stat(path);
+                if (metadata != null) {
+                    put(metadata);
+                } else {
+                    remove(path);
+                }
+            } catch (IOException e) {
+                remove(path);
+            }
+            int lastSlash = path.lastIndexOf('/');
+            path = lastSlash == -1 ? "" : path.substring(0, lastSlash);
+        }
+    }
+
+    // Mutations are serialized so listeners see a consistent previous/current pair
+    public synchronized void remove(String relativePath) {
+        FileMetadata removed = byPath.remove(relativePath);
+        if (removed != null) {
+            byName.remove(nameKey(removed));
+            nameTrigrams.remove(relativePath);
+            dirty = true;
+            notifyListeners(removed, null);
+        }
+    }
+
+    // Removes a folder and everything below it
+    public void removeTree(String relativePath) {
+        // Deepest entries first, so listeners never see a child outlive its folder
+        String prefix = relativePath + "/";
+        for (String path : new ArrayList<>(byPath.subMap(prefix, prefix + Character.MAX_VALUE).descendingKeySet())) {
+            remove(path);
+        }
+        remove(relativePath);
+    }
+
+    /**
+     * Finds entries whose name starts with (mode "prefix") or whose path contains
+     * (mode "substring", the default) the query, ignoring case.
+     */
+    public List<FileMetadata> search(String query, String mode, int limit) {
+        List<FileMetadata> results = new ArrayList<>();
+        if (query == null || query.isBlank() || limit <= 0) {
+            return results;
+        }
+        String needle = query.trim().toLowerCase(Locale.ROOT);
+
+        if ("prefix".equalsIgnoreCase(mode)) {
+            for (FileMetadata metadata : byName.subMap(needle, needle + Character.MAX_VALUE).values()) {
+                results.add(copy(metadata));
+                if (results.size() >= limit) {
+                    break;
+                }
+            }
+            return results;
+        }
+
+        // A path holds the query when the query's longest slash-free piece is part of one of its
+        // names: that entry, or one below that folder. Only a query spanning names needs checking.
+        String piece = longestPiece(needle);
+        if (piece.isEmpty()) {
+            return results; // Slashes only
+        }
+        boolean spansNames = needle.contains("/");
+        Set<String> found = new HashSet<>();
+        Set<String> expanded = new HashSet<>();
+        nameTrigrams.forEachContaining(piece, path -> {
+            if (below(path, expanded)) {
+                return true; // Listed with its folder already
+            }
+            addMatch(byPath.get(path), needle, spansNames, found, results);
+            String prefix = path + "/";
+            for (FileMetadata metadata : byPath.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                if (results.size() >= limit) {
+                    return false;
+                }
+                addMatch(metadata, needle, spansNames, found, results);
+            }
+            expanded.add(path);
+            return results.size() < limit;
+        });
+        results.sort(Comparator.comparing(FileMetadata::getPath));
+        return results;
+    }
+
+    private static void addMatch(FileMetadata metadata, String needle, boolean verify, Set<String> found,
+            List<FileMetadata> results) {
+        if (metadata != null && (!verify || metadata.getPath().toLowerCase(Locale.ROOT).contains(needle))
+                && found.add(metadata.getPath())) {
+            results.add(copy(metadata));
+        }
+    }
+
+    private static boolean below(String path, Set<String> folders) {
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (folders.contains(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String longestPiece(String needle) {
+        String longest = "";
+        for (String piece : needle.split("/")) {
+            if (piece.length() > longest.length()) {
+                longest = piece;
+            }
+        }
+        return longest;
+    }
+
+    private synchronized void put(FileMetadata metadata) {
+        FileMetadata previous = byPath.put(metadata.getPath(), metadata);
+        if (previous != null) {
+            byName.remove(nameKey(previous));
+        }
+        byName.put(nameKey(metadata), metadata);
+        nameTrigrams.add(metadata.getPath(), metadata.getName());
+        dirty = true;
+        notifyListeners(previous, metadata);
+    }
+
+    private void notifyListeners(FileMetadata previous, FileMetadata current) {
+        for (Listener listener : listeners) {
+            listener.onChange(previous, current);
+        }
+    }
+
+    private void reconcile() {
+        long start = System.currentTimeMillis();
+        ConcurrentSkipListMap<String, FileMetadata> seen = new ConcurrentSkipListMap<>();
+        try {
+            storage.walk("", metadata -> {
+                if (metadata.getName().startsWith(TransferManager.TEMP_PREFIX)) {
+                    return;
+                }
+                seen.put(metadata.getPath(), metadata);
+                FileMetadata known = byPath.get(metadata.getPath());
+                if (known == null || known.getLastModified() != metadata.getLastModified()
+                        || known.getSize() != metadata.getSize()
+                        || known.getPhysicalSize() != metadata.getPhysicalSize()) {
+                    put(metadata);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("✗ Search index reconcile failed: " + e.getMessage());
+            return;
+        }
+
+        // Anything indexed but no longer on disk was deleted while we were down
+        for (String path : byPath.keySet()) {
+            if (!seen.containsKey(path) && !exists(path)) {
+                remove(path);
+            }
+        }
+        System.out.println("✓ Search index reconciled: " + byPath.size() + " entries in "
+                + (System.currentTimeMillis() - start) + " ms");
+        saveIfDirty();
+    }
+
+    private boolean exists(String path) {
+        try {
+            return storage.stat(path) != null;
+        } catch (IOException e) {
+            return true; // Unknown; keep the entry until the next reconcile
+        }
+    }
+
+    private synchronized void saveIfDirty() {
+        if (indexFile == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            save();
+        } catch (IOException e) {
+            dirty = true;
+            System.err.println("✗ Failed to save search index: " + e.getMessage());
+        }
+    }
+
+    // Format: magic, version, count, then per entry (sorted by path):
+    // shared-prefix length, path suffix, size, physical size, lastModified, isDirectory
+    private void save() throws IOException {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        List<FileMetadata> snapshot = new ArrayList<>(byPath.values());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            byte[] previous = new byte[0];
+            for (FileMetadata metadata : snapshot) {
+                byte[] path = metadata.getPath().getBytes(StandardCharsets.UTF_8);
+                int shared = commonPrefix(previous, path);
+                writeVarInt(out, shared);
+                writeVarInt(out, path.length - shared);
+                out.write(path, shared, path.length - shared);
+                writeVarLong(out, metadata.getSize());
+                writeVarLong(out, metadata.getPhysicalSize());
+                writeVarLong(out, metadata.getLastModified());
+                out.writeBoolean(metadata.isDirectory());
+                previous = path;
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unsupported index format");
+            }
+            int count = in.readInt();
+            byte[] previous = new byte[0];
+            for (int i = 0; i < count; i++) {
+                int shared = readVarInt(in);
+                int suffixLength = readVarInt(in);
+                byte[] path = new byte[shared + suffixLength];
+                System.arraycopy(previous, 0, path, 0, shared);
+                in.readFully(path, shared, suffixLength);
+                String relativePath = new String(path, StandardCharsets.UTF_8);
+                long size = readVarLong(in);
+                long physicalSize = readVarLong(in);
+                long lastModified = readVarLong(in);
+                boolean isDirectory = in.readBoolean();
+                FileMetadata metadata = new FileMetadata(nameOf(relativePath), relativePath, size, lastModified, isDirectory);
+                metadata.setPhysicalSize(physicalSize);
+                byPath.put(relativePath, metadata);
+                byName.put(nameKey(metadata), metadata);
+                nameTrigrams.add(relativePath, metadata.getName());
+                notifyListeners(null, metadata);
+                previous = path;
+            }
+        }
+    }
+
+    private static FileMetadata copy(FileMetadata metadata) {
+        FileMetadata copy = new FileMetadata(metadata.getName(), metadata.getPath(), metadata.getSize(),
+                metadata.getLastModified(), metadata.isDirectory());
+        copy.setPhysicalSize(metadata.getPhysicalSize());
+        return copy;
+    }
+
+    private static String nameOf(String relativePath) {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+    }
+
+    // Name first so prefix queries are a range scan; path keeps keys unique
+    private static String nameKey(FileMetadata metadata) {
+        return metadata.getName().toLowerCase(Locale.ROOT) + '\0' + metadata.getPath();
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
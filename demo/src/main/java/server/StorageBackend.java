@@ -0,0 +1,121 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import shared.FileMetadata;
+
+/**
+ * Where FileImpl keeps its files. Paths are sanitized, "/"-separated and relative
+ * to the storage root ("" is the root itself). Content is streamed through
+ * channels; whole-file put/get are built on top of them. Writers create a temp
+ * entry and move() it over the target, which must be atomic, so readers never
+ * see a partially written file.
+ */
+public interface StorageBackend {
+
+    // Opens an existing file for reading; NoSuchFileException if it is missing
+    SeekableByteChannel openRead(String path) throws IOException;
+
+    // Creates a new, empty file for writing; its folder must already exist
+    SeekableByteChannel create(String path) throws IOException;
+
+    // Atomically moves source to target, replacing a file already at target
+    void move(String source, String target) throws IOException;
+
+    // Attributes of a file or folder, or null if nothing is there
+    FileMetadata stat(String path) throws IOException;
+
+    // Streams the entries of a folder whose name passes the filter, without sorting them
+    void list(String folder, Predicate<String> names, Consumer<FileMetadata> visitor) throws IOException;
+
+    // Creates a folder and any missing parents; false if it already existed
+    boolean mkdirs(String path) throws IOException;
+
+    // Deletes a file or an empty folder; false if nothing was there
+    boolean delete(String path) throws IOException;
+
+    // Deletes a folder and everything below it
+    void deleteTree(String path) throws IOException;
+
+    // Forces a file's contents, or a folder's entries, to stable storage; nothing to do in memory
+    default void sync(String path) throws IOException {
+    }
+
+    // Sets an entry's modification time, as replicas keep the one their primary has
+    default void setLastModified(String path, long lastModified) throws IOException {
+        Path local = localPath(path);
+        if (local != null) {
+            Files.setLastModifiedTime(local, FileTime.fromMillis(lastModified));
+        }
+    }
+
+    long getTotalSpace() throws IOException;
+
+    long getUsableSpace() throws IOException;
+
+    long getFreeSpace() throws IOException;
+
+    // The file system path behind an entry, or null when the backend is not disk based
+    default Path localPath(String path) {
+        return null;
+    }
+
+    default List<FileMetadata> list(String folder) throws IOException {
+        List<FileMetadata> entries = new ArrayList<>();
+        list(folder, name -> true, entries::add);
+        return entries;
+    }
+
+    // Visits everything below a folder, parents before their children, from several threads at once
+    default void walk(String folder, Consumer<FileMetadata> visitor) throws IOException {
+        ParallelWalker.walk(this, folder, visitor);
+    }
+
+    // Replaces a file with the given content through a temp entry and an atomic move
+    default void put(String path, byte[] data) throws IOException {
+        String temp = tempSibling(path, ".part");
+        try {
+            try (SeekableByteChannel channel = create(temp)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            move(temp, path);
+        } finally {
+            delete(temp);
+        }
+    }
+
+    default byte[] get(String path) throws IOException {
+        try (SeekableByteChannel channel = openRead(path)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large to read at once: " + path);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until full or the file was truncated
+            }
+            return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    // A hidden, unique name next to path for staging a write
+    static String tempSibling(String path, String suffix) {
+        int lastSlash = path.lastIndexOf('/');
+        String name = TransferManager.TEMP_PREFIX + UUID.randomUUID() + suffix;
+        return lastSlash == -1 ? name : path.substring(0, lastSlash + 1) + name;
+    }
+}
@@ -0,0 +1,424 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import shared.MultipartUpload;
+import shared.TransferSession;
+
+/**
+ * Keeps track of open chunked upload/download sessions. Uploads are written to a
+ * temp entry next to the target and moved into place on commit, so readers never
+ * see a partially transferred file; the WriteSync policy decides what is forced to
+ * disk first. Sessions that stay idle are closed by a reaper, and temp entries
+ * left behind by a previous run are removed at startup.
+ * <p>
+ * Multipart uploads write their parts straight into a temp file created at its
+ * final size, with positional writes so parts from parallel requests do not
+ * take turns; the file is committed once every part has been stored.
+ */
+public class TransferManager {
+    // Moves a fully written temp file into place at its target (both storage-relative paths)
+    public interface Committer {
+        void commit(String temp, String target) throws IOException;
+    }
+
+    // Re-encodes a fully written temp file before it is committed; returns the entry to commit instead
+    public interface Compressor {
+        String compress(String temp, String target) throws IOException;
+    }
+
+    public static final String TEMP_PREFIX = ".upload-";
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024; // 4 MB
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final StorageBackend storage;
+    private final WriteSync writeSync;
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reaper;
+    private volatile Committer committer;
+    private volatile Compressor compressor = (temp, target) -> temp;
+
+    public TransferManager(StorageBackend storage, WriteSync writeSync) {
+        this.storage = storage;
+        this.writeSync = writeSync;
+        this.committer = storage::move;
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "transfer-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::closeIdleSessions, 1, 1, TimeUnit.MINUTES);
+        reaper.execute(this::removeStaleTemps);
+    }
+
+    public void setCommitter(Committer committer) {
+        this.committer = committer;
+    }
+
+    public void setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    // Writes a whole file through a temp entry and commits it like an upload
+    public void write(String relativePath, byte[] data) throws IOException {
+        String temp = StorageBackend.tempSibling(relativePath, ".part");
+        try {
+            try (SeekableByteChannel channel = storage.create(temp)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            commit(temp, relativePath);
+        } finally {
+            // Already gone after a successful commit
+            storage.delete(temp);
+        }
+    }
+
+    public TransferSession openUpload(String relativePath) throws IOException {
+        String id = UUID.randomUUID().toString();
+        String temp = StorageBackend.tempSibling(relativePath, ".part");
+        SeekableByteChannel channel = storage.create(temp);
+        sessions.put(id, new Session(channel, temp, relativePath, true));
+        return new TransferSession(id, relativePath, 0, MAX_CHUNK_SIZE);
+    }
+
+    public boolean writeChunk(String sessionId, long offset, byte[] data) throws IOException {
+        Session session = getSession(sessionId, true);
+        if (session == null || offset < 0 || data == null) {
+            return false;
+        }
+        synchronized (session) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            session.channel.position(offset);
+            while (buffer.hasRemaining()) {
+                session.channel.write(buffer);
+            }
+            session.touch();
+        }
+        return true;
+    }
+
+    // Target of an open upload session, or null for an unknown session
+    public String uploadPath(String sessionId) {
+        Session session = getSession(sessionId, true);
+        return session == null ? null : session.relativePath;
+    }
+
+    // Returns the committed file's relative path, or null for an unknown session
+    public String commitUpload(String sessionId) throws IOException {
+        return commitUpload(sessionId, -1);
+    }
+
+    /**
+     * Commits like commitUpload, with the given modification time, as a file of its
+     * own: a shared blob would pass the time on to every path linked to it.
+     */
+    public String commitReplica(String sessionId, long lastModified) throws IOException {
+        return commitUpload(sessionId, lastModified);
+    }
+
+    private String commitUpload(String sessionId, long lastModified) throws IOException {
+        Session session = sessions.remove(sessionId);
+        if (session == null || !session.upload) {
+            return null;
+        }
+        synchronized (session) {
+            try {
+                session.channel.close();
+                if (lastModified < 0) {
+                    commit(session.temp, session.relativePath);
+                } else {
+                    commit(session.temp, session.relativePath, storage::move, lastModified);
+                }
+            } catch (IOException e) {
+                // The session is gone, so abortUpload could no longer clean up
+                storage.delete(session.temp);
+                throw e;
+            }
+        }
+        return session.relativePath;
+    }
+
+    public void abortUpload(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session != null) {
+            discard(session);
+        }
+    }
+
+    public MultipartUpload openMultipart(String relativePath, long size, int partSize) throws IOException {
+        if (size < 0 || partSize <= 0 || partSize > MAX_CHUNK_SIZE) {
+            return null;
+        }
+        long partCount = size / partSize + (size % partSize == 0 ? 0 : 1);
+        if (partCount > Integer.MAX_VALUE) {
+            return null;
+        }
+        String id = UUID.randomUUID().toString();
+        String temp = StorageBackend.tempSibling(relativePath, ".part");
+        SeekableByteChannel channel = storage.create(temp);
+        try {
+            // Writing the last byte sizes the file up front (sparse on most file systems)
+            if (size > 0) {
+                channel.position(size - 1).write(ByteBuffer.allocate(1));
+            }
+        } catch (IOException e) {
+            channel.close();
+            storage.delete(temp);
+            throw e;
+        }
+        PartsSession session = new PartsSession(channel, temp, relativePath, size, partSize, (int) partCount);
+        sessions.put(id, session);
+        return session.describe(id);
+    }
+
+    // False for an unknown upload, a part number or length that does not fit, or a checksum mismatch
+    public boolean writePart(String uploadId, int part, byte[] data, String crc32c) throws IOException {
+        Session found = getSession(uploadId, true);
+        if (!(found instanceof PartsSession) || data == null || crc32c == null) {
+            return false;
+        }
+        PartsSession session = (PartsSession) found;
+        if (part < 0 || part >= session.partCount || data.length != session.partLength(part)
+                || !crc32c.equalsIgnoreCase(crc32c(data))) {
+            return false;
+        }
+        long position = (long) part * session.partSize;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (session.channel instanceof FileChannel) {
+            FileChannel file = (FileChannel) session.channel;
+            while (buffer.hasRemaining()) {
+                position += file.write(buffer, position);
+            }
+        } else {
+            synchronized (session) {
+                session.channel.position(position);
+                while (buffer.hasRemaining()) {
+                    session.channel.write(buffer);
+                }
+            }
+        }
+        synchronized (session) {
+            session.received.set(part);
+            session.touch();
+        }
+        return true;
+    }
+
+    // Null for an unknown upload
+    public MultipartUpload getMultipart(String uploadId) {
+        Session session = getSession(uploadId, true);
+        if (!(session instanceof PartsSession)) {
+            return null;
+        }
+        synchronized (session) {
+            session.touch();
+            return ((PartsSession) session).describe(uploadId);
+        }
+    }
+
+    // Commits like commitUpload once all parts are stored; null (and the upload kept) otherwise
+    public String completeMultipart(String uploadId) throws IOException {
+        Session session = getSession(uploadId, true);
+        if (!(session instanceof PartsSession)) {
+            return null;
+        }
+        synchronized (session) {
+            if (((PartsSession) session).received.cardinality() != ((PartsSession) session).partCount) {
+                return null;
+            }
+        }
+        return commitUpload(uploadId);
+    }
+
+    static String crc32c(byte[] data) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(data);
+        return String.format("%08x", checksum.getValue());
+    }
+
+    public TransferSession openDownload(String relativePath) throws IOException {
+        String id = UUID.randomUUID().toString();
+        SeekableByteChannel channel = storage.openRead(relativePath);
+        sessions.put(id, new Session(channel, null, relativePath, false));
+        return new TransferSession(id, relativePath, channel.size(), MAX_CHUNK_SIZE);
+    }
+
+    public byte[] readChunk(String sessionId, long offset, int length) throws IOException {
+        Session session = getSession(sessionId, false);
+        if (session == null || offset < 0 || length < 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, MAX_CHUNK_SIZE));
+        // The channel's position is shared, so reads on one session take turns
+        synchronized (session) {
+            session.channel.position(offset);
+            while (buffer.hasRemaining() && session.channel.read(buffer) >= 0) {
+                // Keep reading until the chunk is full or the file ends
+            }
+            session.touch();
+        }
+        return buffer.position() == buffer.capacity()
+                ? buffer.array()
+                : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    public void closeDownload(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session != null) {
+            discard(session);
+        }
+    }
+
+    private void commit(String temp, String target) throws IOException {
+        commit(temp, target, committer, -1);
+    }
+
+    // lastModified < 0 keeps the time the entry was written
+    private void commit(String temp, String target, Committer via, long lastModified) throws IOException {
+        String staged = compressor.compress(temp, target);
+        try {
+            if (lastModified >= 0) {
+                storage.setLastModified(staged, lastModified);
+            }
+            writeSync.commit(staged, target, via);
+        } finally {
+            // Already gone after a successful commit; temp is the caller's to clean up
+            if (!staged.equals(temp)) {
+                storage.delete(staged);
+            }
+        }
+    }
+
+    private Session getSession(String sessionId, boolean upload) {
+        if (sessionId == null) {
+            return null;
+        }
+        Session session = sessions.get(sessionId);
+        if (session == null || session.upload != upload) {
+            return null;
+        }
+        return session;
+    }
+
+    private void closeIdleSessions() {
+        long now = System.currentTimeMillis();
+        sessions.forEach((id, session) -> {
+            if (now - session.lastAccess > IDLE_TIMEOUT_MS && sessions.remove(id, session)) {
+                System.err.println("✗ Transfer session expired: " + id);
+                discard(session);
+            }
+        });
+    }
+
+    // Temp entries from before this process started belong to uploads that can never finish,
+    // and temp folders are deleted folders whose background purge was interrupted
+    private void removeStaleTemps() {
+        List<String> stale = Collections.synchronizedList(new ArrayList<>());
+        List<String> tombstones = Collections.synchronizedList(new ArrayList<>());
+        try {
+            storage.walk("", entry -> {
+                if (!entry.getName().startsWith(TEMP_PREFIX)) {
+                    return;
+                }
+                if (entry.isDirectory()) {
+                    tombstones.add(entry.getPath());
+                } else if (entry.getLastModified() < startedAt) {
+                    stale.add(entry.getPath());
+                }
+            });
+            for (String path : stale) {
+                storage.delete(path);
+            }
+            for (String path : tombstones) {
+                try {
+                    storage.deleteTree(path);
+                } catch (NoSuchFileException e) {
+                    // A purge started by this process got there first
+                }
+            }
+            if (!stale.isEmpty()) {
+                System.out.println("✓ Removed " + stale.size() + " stale temp files from interrupted uploads");
+            }
+            if (!tombstones.isEmpty()) {
+                System.out.println("✓ Purged " + tombstones.size() + " folders left over from interrupted deletes");
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Stale temp file cleanup failed: " + e.getMessage());
+        }
+    }
+
+    private void discard(Session session) {
+        synchronized (session) {
+            try {
+                session.channel.close();
+                if (session.upload) {
+                    storage.delete(session.temp);
+                }
+            } catch (IOException e) {
+                System.err.println("✗ Failed to clean up transfer: " + session.relativePath + " - " + e.getMessage());
+            }
+        }
+    }
+
+    private static class Session {
+        final SeekableByteChannel channel;
+        final String temp;
+        final String relativePath;
+        final boolean upload;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Session(SeekableByteChannel channel, String temp, String relativePath, boolean upload) {
+            this.channel = channel;
+            this.temp = temp;
+            this.relativePath = relativePath;
+            this.upload = upload;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    private static class PartsSession extends Session {
+        final long size;
+        final int partSize;
+        final int partCount;
+        final BitSet received = new BitSet(); // Guarded by the session
+
+        PartsSession(SeekableByteChannel channel, String temp, String relativePath, long size, int partSize,
+                int partCount) {
+            super(channel, temp, relativePath, true);
+            this.size = size;
+            this.partSize = partSize;
+            this.partCount = partCount;
+        }
+
+        long partLength(int part) {
+            return Math.min(partSize, size - (long) part * partSize);
+        }
+
+        MultipartUpload describe(String id) {
+            return new MultipartUpload(id, relativePath, size, partSize, partCount, (BitSet) received.clone());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Finds the entries whose lower-cased name contains a piece of text, through a
+ * posting list of entry ids per three-character sequence (trigram) of a name.
+ * Names rather than whole paths are indexed: a path contains a text without
+ * slashes exactly when one of its names does, which SearchIndex completes by
+ * adding the folders' descendants, and names keep the lists several times shorter.
+ * <p>
+ * Ids are handed out in increasing order, so every list stays sorted. A removed
+ * entry only clears its slot; the lists are rebuilt once most slots are empty.
+ */
+public class TrigramIndex {
+    private static final int MIN_COMPACT = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private String[] paths = new String[1024]; // By id; null once removed
+    private String[] names = new String[1024]; // Lower-cased, by id
+    private int nextId;
+    private int removed;
+
+    public void add(String path, String name) {
+        lock.writeLock().lock();
+        try {
+            if (!ids.containsKey(path)) {
+                index(path, name.toLowerCase(Locale.ROOT));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(path);
+            if (id == null) {
+                return;
+            }
+            paths[id] = null;
+            names[id] = null;
+            removed++;
+            if (removed >= MIN_COMPACT && removed > ids.size()) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Passes the path of every entry whose name contains text (lower case) to
+     * visitor until it returns false. Texts too short for a trigram are looked
+     * for in every name.
+     */
+    public void forEachContaining(String text, Predicate<String> visitor) {
+        lock.readLock().lock();
+        try {
+            if (text.length() < 3) {
+                for (int id = 0; id < nextId; id++) {
+                    if (names[id] != null && names[id].contains(text) && !visitor.test(paths[id])) {
+                        return;
+                    }
+                }
+                return;
+            }
+            List<Postings> lists = new ArrayList<>();
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                Postings list = postings.get(trigram(text, i));
+                if (list == null) {
+                    return; // No name has this trigram
+                }
+                if (!lists.contains(list)) {
+                    lists.add(list);
+                }
+            }
+            // Walk the shortest list; a name holding all trigrams still has to contain the text
+            lists.sort(Comparator.comparingInt(list -> list.size));
+            Postings shortest = lists.get(0);
+            for (int i = 0; i < shortest.size; i++) {
+                int id = shortest.ids[i];
+                if (names[id] == null || !inAll(lists, id) || !names[id].contains(text)) {
+                    continue;
+                }
+                if (!visitor.test(paths[id])) {
+                    return;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean inAll(List<Postings> lists, int id) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void index(String path, String lowerName) {
+        if (nextId == paths.length) {
+            paths = Arrays.copyOf(paths, paths.length * 2);
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        int id = nextId++;
+        ids.put(path, id);
+        paths[id] = path;
+        names[id] = lowerName;
+        for (int i = 0; i + 3 <= lowerName.length(); i++) {
+            // The same trigram twice in a name is listed once: ids only grow
+            postings.computeIfAbsent(trigram(lowerName, i), key -> new Postings()).addIfLast(id);
+        }
+    }
+
+    // Renumbers the remaining entries and rebuilds every list without the removed ones
+    private void compact() {
+        String[] oldPaths = paths;
+        String[] oldNames = names;
+        int count = nextId;
+        paths = new String[Math.max(1024, ids.size() * 2)];
+        names = new String[paths.length];
+        ids.clear();
+        postings.clear();
+        nextId = 0;
+        removed = 0;
+        for (int id = 0; id < count; id++) {
+            if (oldPaths[id] != null) {
+                index(oldPaths[id], oldNames[id]);
+            }
+        }
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    // Sorted, growable list of ids
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void addIfLast(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Applies the fsync policy to committed writes. A commit turns a fully written
+ * temp file into its target; the policy decides what must be on disk before the
+ * commit returns:
+ * <ul>
+ * <li>none: nothing is forced, the OS writes back when it likes (fastest, a
+ * crash can lose recent uploads but never exposes half-written files)</li>
+ * <li>file: the temp file is forced, moved into place, and its directory forced</li>
+ * <li>group: like file, but while each writer forces its own temp file, the
+ * renames arriving within -Dfileserver.groupCommitMs of each other are done
+ * together, so a burst of small files shares one directory fsync per folder</li>
+ * </ul>
+ * Once a file has been moved into place it is committed: a failing directory
+ * fsync after that is logged, not reported as a failed write, since the file is
+ * already visible to readers.
+ */
+public class WriteSync {
+    public enum Mode { NONE, FILE, GROUP }
+
+    private final StorageBackend storage;
+    private final Mode mode;
+    private final long intervalMs;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    public WriteSync(StorageBackend storage, Mode mode, long intervalMs) {
+        this.storage = storage;
+        this.mode = mode;
+        this.intervalMs = intervalMs;
+        if (mode == Mode.GROUP) {
+            Thread flusher = new Thread(this::flushLoop, "group-commit");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    // -Dfileserver.fsync=none|file|group and -Dfileserver.groupCommitMs (default 10)
+    public static WriteSync fromSystemProperties(StorageBackend storage) {
+        Mode mode = Mode.valueOf(System.getProperty("fileserver.fsync", "none").toUpperCase(Locale.ROOT));
+        long intervalMs = Long.getLong("fileserver.groupCommitMs", 10);
+        if (mode != Mode.NONE) {
+            System.out.println("✓ fsync policy: " + (mode == Mode.FILE ? "per file" : "group commit every " + intervalMs + " ms"));
+        }
+        return new WriteSync(storage, mode, intervalMs);
+    }
+
+    public void commit(String temp, String target, TransferManager.Committer committer) throws IOException {
+        switch (mode) {
+            case NONE:
+                committer.commit(temp, target);
+                break;
+            case FILE:
+                storage.sync(temp);
+                committer.commit(temp, target);
+                syncDirectory(parentOf(target));
+                break;
+            case GROUP:
+                // Writers force their data in parallel; only renames and directories wait for the batch
+                storage.sync(temp);
+                Pending pending = new Pending(temp, target, committer);
+                queue.add(pending);
+                await(pending.done);
+                break;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            try {
+                List<Pending> batch = new ArrayList<>();
+                batch.add(queue.take());
+                // Let the rest of the burst arrive, then flush it in one go
+                Thread.sleep(intervalMs);
+                queue.drainTo(batch);
+                flush(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        // The renames, then each affected directory once
+        Map<String, List<Pending>> byDirectory = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            try {
+                pending.committer.commit(pending.temp, pending.target);
+                byDirectory.computeIfAbsent(parentOf(pending.target), key -> new ArrayList<>()).add(pending);
+            } catch (IOException | RuntimeException e) {
+                pending.done.completeExceptionally(e);
+            }
+        }
+        for (Map.Entry<String, List<Pending>> directory : byDirectory.entrySet()) {
+            syncDirectory(directory.getKey());
+            for (Pending pending : directory.getValue()) {
+                pending.done.complete(null);
+            }
+        }
+    }
+
+    private void syncDirectory(String directory) {
+        try {
+            storage.sync(directory);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("✗ Directory fsync failed, recent renames in " + (directory.isEmpty() ? "root" : directory)
+                    + " may not survive a crash: " + e.getMessage());
+        }
+    }
+
+    private static void await(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for group commit", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash == -1 ? "" : path.substring(0, lastSlash);
+    }
+
+    private static class Pending {
+        final String temp;
+        final String target;
+        final TransferManager.Committer committer;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(String temp, String target, TransferManager.Committer committer) {
+            this.temp = temp;
+            this.target = target;
+            this.committer = committer;
+        }
+    }
+}
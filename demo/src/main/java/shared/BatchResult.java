@@ -0,0 +1,85 @@
+package shared;
+
+import java.io.Serializable;
+
+public class BatchResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String path;
+    private boolean success;
+    private String error;
+    private FileMetadata metadata;
+    private byte[] data;
+
+    // Default constructor for serialization
+    public BatchResult() {
+    }
+
+    public BatchResult(String path, boolean success, String error) {
+        this.path = path;
+        this.success = success;
+        this.error = error;
+    }
+
+    public static BatchResult ok(String path) {
+        return new BatchResult(path, true, null);
+    }
+
+    public static BatchResult failed(String path, String error) {
+        return new BatchResult(path, false, error);
+    }
+
+    // Getters and Setters
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    // Set by statFiles and uploadFiles
+    public FileMetadata getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(FileMetadata metadata) {
+        this.metadata = metadata;
+    }
+
+    // Set by downloadFiles
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" +
+                "path='" + path + '\'' +
+                ", success=" + success +
+                ", error='" + error + '\'' +
+                ", metadata=" + metadata +
+                ", data=" + (data == null ? "null" : data.length + " bytes") +
+                '}';
+    }
+}
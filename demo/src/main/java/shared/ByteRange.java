@@ -0,0 +1,96 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * A single HTTP byte range ("bytes=first-last", "bytes=first-" or "bytes=-suffix").
+ * Unresolved ranges use -1 for the missing bound; {@link #resolve(long)} turns them
+ * into an absolute start/length for a file of known size.
+ */
+public class ByteRange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long first;
+    private final long last;
+
+    public ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    // Returns null when the header is absent, malformed or asks for multiple ranges
+    public static ByteRange parse(String header) {
+        if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            if (from.isEmpty()) {
+                return to.isEmpty() ? null : new ByteRange(-1, Long.parseLong(to));
+            }
+            long first = Long.parseLong(from);
+            long last = to.isEmpty() ? -1 : Long.parseLong(to);
+            if (last >= 0 && last < first) {
+                return null;
+            }
+            return new ByteRange(first, last);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static ByteRange full() {
+        return new ByteRange(0, -1);
+    }
+
+    // Returns the absolute range for the given size, or null if it cannot be satisfied
+    public ByteRange resolve(long size) {
+        long start;
+        long end;
+        if (first < 0) {
+            if (last <= 0 || size == 0) {
+                return null;
+            }
+            start = Math.max(0, size - last);
+            end = size - 1;
+        } else {
+            if (first >= size) {
+                // An empty file can still be served as a whole
+                return size == 0 && first == 0 ? new ByteRange(0, -1) : null;
+            }
+            start = first;
+            end = last < 0 || last >= size ? size - 1 : last;
+        }
+        return new ByteRange(start, end);
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last < first ? 0 : last - first + 1;
+    }
+
+    public String toContentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteRange{" +
+                "first=" + first +
+                ", last=" + last +
+                '}';
+    }
+}
@@ -0,0 +1,60 @@
+package shared;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Answer to a change-feed poll: the events after the caller's position, or reset if that
+// position is no longer known (too old, or the file server restarted and its epoch changed)
+public class ChangeBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long epoch;
+    private long lastSeq;
+    private boolean reset;
+    private List<ChangeEvent> events;
+
+    // Default constructor for serialization
+    public ChangeBatch() {
+    }
+
+    public ChangeBatch(long epoch, long lastSeq, boolean reset, List<ChangeEvent> events) {
+        this.epoch = epoch;
+        this.lastSeq = lastSeq;
+        this.reset = reset;
+        this.events = events;
+    }
+
+    // Getters and Setters
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    // Position to poll from next
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void setLastSeq(long lastSeq) {
+        this.lastSeq = lastSeq;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    public List<ChangeEvent> getEvents() {
+        return events;
+    }
+
+    public void setEvents(List<ChangeEvent> events) {
+        this.events = events;
+    }
+}
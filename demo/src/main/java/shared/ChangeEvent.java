@@ -0,0 +1,78 @@
+package shared;
+
+import java.io.Serializable;
+
+// One change in storage, numbered in the order the file server saw it
+public class ChangeEvent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        UPDATED, // Created or replaced; metadata is the entry as it is now
+        DELETED, // Removed with everything below it
+        RESET    // Too many changes at once to list; clients reload what they show
+    }
+
+    private long seq;
+    private Type type;
+    private String path;
+    private FileMetadata metadata;
+
+    // Default constructor for serialization
+    public ChangeEvent() {
+    }
+
+    public ChangeEvent(long seq, Type type, String path, FileMetadata metadata) {
+        this.seq = seq;
+        this.type = type;
+        this.path = path;
+        this.metadata = metadata;
+    }
+
+    // Getters and Setters
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    // Folder the changed entry is listed in ("" for the root)
+    public String getFolder() {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash == -1 ? "" : path.substring(0, lastSlash);
+    }
+
+    public FileMetadata getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(FileMetadata metadata) {
+        this.metadata = metadata;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "seq=" + seq +
+                ", type=" + type +
+                ", path='" + path + '\'' +
+                '}';
+    }
+}
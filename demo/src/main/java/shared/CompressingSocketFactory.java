@@ -0,0 +1,321 @@
+package shared;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+
+/**
+ * Tuned RMI sockets whose traffic is cut into frames of up to 64 KB at every
+ * flush (RMI flushes after each call and reply) and LZ4-compressed when that
+ * pays. Compression adapts per connection: a frame that does not shrink by 10%
+ * is sent raw and compression is skipped for the next few frames, backing off
+ * further while data stays incompressible (e.g. a JPEG upload), so it costs
+ * little CPU where it cannot help.
+ * <p>
+ * A connection opens with one byte from the client saying whether it wants
+ * compression; the server follows. {@link #setClientCompression(boolean)} lets
+ * a client turn it off for itself even though the server offers it.
+ */
+public class CompressingSocketFactory extends TunedSocketFactory {
+    private static final long serialVersionUID = 1L;
+
+    private static final int FRAME_SIZE = 64 * 1024;
+    // Small frames (pings, acks, short replies) are not worth the CPU
+    private static final int MIN_COMPRESS = 512;
+    private static final double MAX_RATIO = 0.9;
+    private static final int MAX_BACKOFF = 64;
+    private static final int COMPRESSED_FLAG = 0x80000000;
+
+    private static volatile boolean clientCompression = true;
+
+    public CompressingSocketFactory(int bufferSize) {
+        super(bufferSize);
+    }
+
+    public static void setClientCompression(boolean enabled) {
+        clientCompression = enabled;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = super.createSocket(host, port);
+        try {
+            ((FramedSocket) socket).announce(clientCompression);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    @Override
+    protected Socket newSocket() {
+        return new FramedSocket(false);
+    }
+
+    @Override
+    protected Socket newAcceptedSocket() {
+        return new FramedSocket(true);
+    }
+
+    private static class FramedSocket extends Socket {
+        private final boolean accepted;
+        // Own lock, so the blocking handshake read never holds up getOutputStream()
+        private final Object handshake = new Object();
+        private Boolean compress; // null until the handshake byte was sent or read
+        private InputStream in;
+        private OutputStream out;
+
+        FramedSocket(boolean accepted) {
+            this.accepted = accepted;
+        }
+
+        void announce(boolean enabled) throws IOException {
+            synchronized (handshake) {
+                OutputStream raw = super.getOutputStream();
+                raw.write(enabled ? 1 : 0);
+                raw.flush();
+                compress = enabled;
+            }
+        }
+
+        // The server learns the mode from the client's first byte
+        boolean compress() throws IOException {
+            synchronized (handshake) {
+                if (compress == null) {
+                    int mode = super.getInputStream().read();
+                    if (mode < 0) {
+                        throw new EOFException("Connection closed before the compression handshake");
+                    }
+                    compress = mode == 1;
+                }
+                return compress;
+            }
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new FrameInputStream(super.getInputStream(), this);
+            }
+            return in;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new FrameOutputStream(super.getOutputStream(), this);
+            }
+            return out;
+        }
+
+        @Override
+        public String toString() {
+            return (accepted ? "accepted " : "") + "compressing " + super.toString();
+        }
+    }
+
+    // Frame: int header (flag bit + stored length), then for compressed frames the raw length, then the bytes
+    private static class FrameOutputStream extends FilterOutputStream {
+        private final FramedSocket socket;
+        private final byte[] buffer = new byte[FRAME_SIZE];
+        private final Lz4Compressor compressor = new Lz4Compressor();
+        private final byte[] compressed = new byte[compressor.maxCompressedLength(FRAME_SIZE)];
+        private final byte[] header = new byte[8];
+        private int count;
+        private int skip;
+        private int backoff = 1;
+
+        FrameOutputStream(OutputStream out, FramedSocket socket) {
+            super(out);
+            this.socket = socket;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeFrame();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeFrame();
+                }
+                int chunk = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                writeFrame();
+            }
+            out.flush();
+        }
+
+        private void writeFrame() throws IOException {
+            int length = count;
+            count = 0;
+            if (length >= MIN_COMPRESS && socket.compress()) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    int compressedLength = compressor.compress(buffer, 0, length, compressed, 0, compressed.length);
+                    if (compressedLength <= length * MAX_RATIO) {
+                        backoff = 1;
+                        putInt(0, COMPRESSED_FLAG | compressedLength);
+                        putInt(4, length);
+                        out.write(header, 0, 8);
+                        out.write(compressed, 0, compressedLength);
+                        return;
+                    }
+                    // Incompressible: skip a growing number of frames before trying again
+                    skip = backoff;
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                }
+            }
+            putInt(0, length);
+            out.write(header, 0, 4);
+            out.write(buffer, 0, length);
+        }
+
+        private void putInt(int at, int value) {
+            header[at] = (byte) (value >>> 24);
+            header[at + 1] = (byte) (value >>> 16);
+            header[at + 2] = (byte) (value >>> 8);
+            header[at + 3] = (byte) value;
+        }
+    }
+
+    private static class FrameInputStream extends FilterInputStream {
+        private final FramedSocket socket;
+        private final Lz4Decompressor decompressor = new Lz4Decompressor();
+        private final byte[] buffer = new byte[FRAME_SIZE];
+        private byte[] compressed = new byte[0];
+        private int position;
+        private int limit;
+
+        FrameInputStream(InputStream in, FramedSocket socket) {
+            super(in);
+            this.socket = socket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !nextFrame()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !nextFrame()) {
+                return -1;
+            }
+            int count = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && (position < limit || nextFrame())) {
+                int count = (int) Math.min(n - skipped, limit - position);
+                position += count;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        // False at a clean end of stream between frames
+        private boolean nextFrame() throws IOException {
+            socket.compress();
+            int header;
+            do {
+                int first = in.read();
+                if (first < 0) {
+                    return false;
+                }
+                header = (first << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+            } while (header == 0); // An empty flush carries no bytes
+            int stored = header & ~COMPRESSED_FLAG;
+            if (stored > FRAME_SIZE * 2) {
+                throw new IOException("Corrupt frame of " + stored + " bytes");
+            }
+            if ((header & COMPRESSED_FLAG) == 0) {
+                readFully(buffer, stored);
+                limit = stored;
+            } else {
+                int length = readInt();
+                if (length > FRAME_SIZE) {
+                    throw new IOException("Corrupt frame of " + length + " bytes");
+                }
+                if (compressed.length < stored) {
+                    compressed = new byte[stored];
+                }
+                readFully(compressed, stored);
+                try {
+                    limit = decompressor.decompress(compressed, 0, stored, buffer, 0, length);
+                } catch (RuntimeException e) {
+                    throw new IOException("Corrupt compressed frame", e);
+                }
+            }
+            position = 0;
+            return true;
+        }
+
+        private int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed mid-frame");
+            }
+            return b;
+        }
+
+        private void readFully(byte[] target, int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                int count = in.read(target, read, length - read);
+                if (count < 0) {
+                    throw new EOFException("Connection closed mid-frame");
+                }
+                read += count;
+            }
+        }
+    }
+}
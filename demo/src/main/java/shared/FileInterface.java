@@ -8,14 +8,51 @@ public interface FileInterface extends Remote {
     // File operations
     boolean uploadFile(String filename, byte[] data) throws RemoteException;
     boolean uploadFileToFolder(String folderPath, String filename, byte[] data) throws RemoteException;
+    // Stores a reference to already known content; false means the data must be uploaded
+    boolean uploadByHash(String folderPath, String filename, String sha256) throws RemoteException;
     byte[] downloadFile(String filepath) throws RemoteException;
     List<FileMetadata> listFilesExtended() throws RemoteException;
     List<FileMetadata> listFolderContents(String folderPath) throws RemoteException;
+    // Paginated listing: sortKey is name|size|modified, order is asc|desc, nameFilter is a substring
+    FolderPage listFolderContents(String folderPath, int offset, int limit, String sortKey,
+            String order, String nameFilter) throws RemoteException;
+    FolderPage listFolderPage(String cursor) throws RemoteException;
     boolean deleteFile(String filepath) throws RemoteException;
+    // Searches the whole storage tree; mode is "prefix" (name) or "substring" (path)
+    List<FileMetadata> search(String query, String mode, int limit) throws RemoteException;
     
     // Folder operations
     boolean createFolder(String folderPath) throws RemoteException;
     boolean deleteFolder(String folderPath) throws RemoteException;
     List<String> listFolders() throws RemoteException;
+    // Every file and folder below a folder, parents first; null if the folder doesn't exist
+    List<FileMetadata> listTree(String folderPath) throws RemoteException;
     boolean folderExists(String folderPath) throws RemoteException;
+    // Recursive totals for a folder plus the capacity of the underlying file store
+    StorageStats getStorageStats(String folderPath) throws RemoteException;
+
+    // Batch operations: one result per item, in request order; null if the batch is too large
+    List<BatchResult> uploadFiles(List<FileUpload> uploads) throws RemoteException;
+    List<BatchResult> downloadFiles(List<String> filepaths) throws RemoteException;
+    List<BatchResult> deleteFiles(List<String> filepaths) throws RemoteException;
+    List<BatchResult> statFiles(List<String> paths) throws RemoteException;
+
+    // Chunked transfer operations (offsets are absolute positions in the file)
+    TransferSession openUpload(String folderPath, String filename) throws RemoteException;
+    boolean writeChunk(String sessionId, long offset, byte[] data) throws RemoteException;
+    boolean commitUpload(String sessionId) throws RemoteException;
+    void abortUpload(String sessionId) throws RemoteException;
+    TransferSession openDownload(String filepath) throws RemoteException;
+    byte[] readChunk(String sessionId, long offset, int length) throws RemoteException;
+    void closeDownload(String sessionId) throws RemoteException;
+
+    // Multipart uploads: parts arrive in any order, also in parallel, each with the hex CRC32C of
+    // its bytes; complete assembles the file and fails (keeping the upload) while parts are
+    // missing. getMultipartUpload tells a resuming client which parts are stored. abortUpload
+    // discards the upload.
+    MultipartUpload openMultipartUpload(String folderPath, String filename, long size, int partSize)
+            throws RemoteException;
+    boolean writePart(String uploadId, int part, byte[] data, String crc32c) throws RemoteException;
+    MultipartUpload getMultipartUpload(String uploadId) throws RemoteException;
+    boolean completeMultipartUpload(String uploadId) throws RemoteException;
 }
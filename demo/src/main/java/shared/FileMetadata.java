@@ -1,6 +1,7 @@
 package shared;
 
 import java.io.Serializable;
+import java.util.Comparator;
 
 public class FileMetadata implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -8,6 +9,7 @@ public class FileMetadata implements Serializable {
     private String name;
     private String path;
     private long size;
+    private long physicalSize; // bytes on disk; below size when stored compressed
     private long lastModified;
     private boolean isDirectory;
 
@@ -20,6 +22,7 @@ public class FileMetadata implements Serializable {
         this.name = name;
         this.path = path;
         this.size = size;
+        this.physicalSize = size;
         this.lastModified = lastModified;
         this.isDirectory = isDirectory;
     }
@@ -54,6 +57,14 @@ public class FileMetadata implements Serializable {
         this.size = size;
     }
 
+    public long getPhysicalSize() {
+        return physicalSize;
+    }
+
+    public void setPhysicalSize(long physicalSize) {
+        this.physicalSize = physicalSize;
+    }
+
     public long getLastModified() {
         return lastModified;
     }
@@ -74,12 +85,35 @@ public class FileMetadata implements Serializable {
         isDirectory = directory;
     }
 
+    // Order of paged listings; the web tier merges pages from several servers with it
+    public static Comparator<FileMetadata> listingOrder(String sortKey, boolean descending) {
+        Comparator<FileMetadata> byName = Comparator.comparing(FileMetadata::getName, String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(FileMetadata::getName);
+        Comparator<FileMetadata> byKey;
+        switch (sortKey) {
+            case "size":
+                byKey = Comparator.comparingLong(FileMetadata::getSize).thenComparing(byName);
+                break;
+            case "modified":
+                byKey = Comparator.comparingLong(FileMetadata::getLastModified).thenComparing(byName);
+                break;
+            default:
+                byKey = byName;
+        }
+        if (descending) {
+            byKey = byKey.reversed();
+        }
+        // Folders always come first, like the UI shows them
+        return Comparator.comparing((FileMetadata m) -> !m.isDirectory()).thenComparing(byKey);
+    }
+
     @Override
     public String toString() {
         return "FileMetadata{" +
                 "name='" + name + '\'' +
                 ", path='" + path + '\'' +
                 ", size=" + size +
+                ", physicalSize=" + physicalSize +
                 ", lastModified=" + lastModified +
                 ", isDirectory=" + isDirectory +
                 '}';
@@ -0,0 +1,17 @@
+package shared;
+
+import java.rmi.RemoteException;
+
+// What one file server answers about itself. A client spanning several servers (such as the
+// web tier's ShardRouter) offers only FileInterface; these are asked of each server in turn.
+public interface FileNodeInterface extends FileInterface {
+    // Change feed (long poll): blocks up to timeoutMs for events after afterSeq. Start with
+    // epoch 0; a batch with reset set means the caller missed changes and should reload.
+    ChangeBatch pollChanges(long epoch, long afterSeq, long timeoutMs) throws RemoteException;
+
+    // Replication: replicas tail the primary's operation log like the change feed (start with
+    // log id 0; reset means copy what differs). getReplicationLag is how many ms a replica's
+    // reads may trail its primary, or -1 on a server that is not a replica.
+    ChangeBatch readOperations(long logId, long afterSeq, long timeoutMs) throws RemoteException;
+    long getReplicationLag() throws RemoteException;
+}
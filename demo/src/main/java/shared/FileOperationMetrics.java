@@ -0,0 +1,166 @@
+package shared;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Per-method metrics for FileInterface calls, used on both sides of RMI under
+ * different prefixes. For each method it records:
+ * <ul>
+ * <li>{@code <prefix>.calls}: latency histogram, tagged outcome=success|failure|error
+ * (failure is a false or null result, error a thrown exception)</li>
+ * <li>{@code <prefix>.errors}: thrown exceptions, tagged with the exception type</li>
+ * <li>{@code <prefix>.bytes}: byte[] payloads (also inside batch items), direction=request|response</li>
+ * <li>{@code <prefix>.active}: calls currently in flight</li>
+ * </ul>
+ */
+public class FileOperationMetrics {
+    // Instrumented body of a call; exceptions are rethrown unchanged
+    public interface Call {
+        Object proceed() throws Throwable;
+    }
+
+    private final MeterRegistry registry;
+    private final String prefix;
+    // Keyed by name: overloads share their meters
+    private final Map<String, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    public FileOperationMetrics(MeterRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+    }
+
+    // Wraps a file server so every call through it is measured
+    public static FileNodeInterface wrap(FileNodeInterface target, FileOperationMetrics metrics) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(target, args);
+            }
+            return metrics.record(method, args, () -> {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        };
+        return (FileNodeInterface) Proxy.newProxyInstance(FileNodeInterface.class.getClassLoader(),
+                new Class<?>[] { FileNodeInterface.class }, handler);
+    }
+
+    public Object record(Method method, Object[] args, Call call) throws Throwable {
+        MethodMeters m = meters.computeIfAbsent(method.getName(), MethodMeters::new);
+        m.requestBytes.increment(payloadSize(args));
+        m.active.incrementAndGet();
+        long start = System.nanoTime();
+        Timer outcome = m.error;
+        try {
+            Object result = call.proceed();
+            boolean failed = method.getReturnType() != void.class && (result == null || Boolean.FALSE.equals(result));
+            outcome = failed ? m.failure : m.success;
+            m.responseBytes.increment(payloadSize(result));
+            return result;
+        } catch (Throwable e) {
+            Counter.builder(prefix + ".errors")
+                    .description("FileInterface calls that threw")
+                    .tag("method", method.getName())
+                    .tag("exception", e.getClass().getSimpleName())
+                    .register(registry)
+                    .increment();
+            throw e;
+        } finally {
+            outcome.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            m.active.decrementAndGet();
+        }
+    }
+
+    private static long payloadSize(Object[] args) {
+        long size = 0;
+        if (args != null) {
+            for (Object arg : args) {
+                size += payloadSize(arg);
+            }
+        }
+        return size;
+    }
+
+    // byte[] values, including those carried by the items of a batch
+    private static long payloadSize(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof FileUpload && ((FileUpload) value).getData() != null) {
+            return ((FileUpload) value).getData().length;
+        }
+        if (value instanceof BatchResult && ((BatchResult) value).getData() != null) {
+            return ((BatchResult) value).getData().length;
+        }
+        long size = 0;
+        // Lists are homogeneous; checking the first item keeps big listings cheap
+        if (value instanceof List && !((List<?>) value).isEmpty()
+                && isBatchItem(((List<?>) value).get(0))) {
+            for (Object item : (List<?>) value) {
+                size += payloadSize(item);
+            }
+        }
+        return size;
+    }
+
+    private static boolean isBatchItem(Object item) {
+        return item instanceof FileUpload || item instanceof BatchResult;
+    }
+
+    private class MethodMeters {
+        final Timer success;
+        final Timer failure;
+        final Timer error;
+        final Counter requestBytes;
+        final Counter responseBytes;
+        final AtomicInteger active = new AtomicInteger();
+
+        MethodMeters(String name) {
+            success = timer(name, "success");
+            failure = timer(name, "failure");
+            error = timer(name, "error");
+            requestBytes = bytes(name, "request");
+            responseBytes = bytes(name, "response");
+            Gauge.builder(prefix + ".active", active, AtomicInteger::get)
+                    .description("FileInterface calls in flight")
+                    .tag("method", name)
+                    .register(registry);
+        }
+
+        private Timer timer(String method, String outcome) {
+            return Timer.builder(prefix + ".calls")
+                    .description("FileInterface call latency")
+                    .tag("method", method)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(100_000))
+                    .maximumExpectedValue(Duration.ofMinutes(5))
+                    .register(registry);
+        }
+
+        private Counter bytes(String method, String direction) {
+            return Counter.builder(prefix + ".bytes")
+                    .description("byte[] payload carried by FileInterface calls")
+                    .baseUnit("bytes")
+                    .tag("method", method)
+                    .tag("direction", direction)
+                    .register(registry);
+        }
+    }
+}
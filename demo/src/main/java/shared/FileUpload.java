@@ -0,0 +1,55 @@
+package shared;
+
+import java.io.Serializable;
+
+public class FileUpload implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String folderPath;
+    private String filename;
+    private byte[] data;
+
+    // Default constructor for serialization
+    public FileUpload() {
+    }
+
+    public FileUpload(String folderPath, String filename, byte[] data) {
+        this.folderPath = folderPath;
+        this.filename = filename;
+        this.data = data;
+    }
+
+    // Getters and Setters
+    public String getFolderPath() {
+        return folderPath;
+    }
+
+    public void setFolderPath(String folderPath) {
+        this.folderPath = folderPath;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "FileUpload{" +
+                "folderPath='" + folderPath + '\'' +
+                ", filename='" + filename + '\'' +
+                ", size=" + (data == null ? 0 : data.length) +
+                '}';
+    }
+}
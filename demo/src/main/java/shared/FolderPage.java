@@ -0,0 +1,83 @@
+package shared;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FolderPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // Most items one page holds; the file server caps larger requests to this
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private List<FileMetadata> items = new ArrayList<>();
+    private int offset;
+    private int limit;
+    private long total;
+    private String nextCursor;
+
+    // Default constructor for serialization
+    public FolderPage() {
+    }
+
+    public FolderPage(List<FileMetadata> items, int offset, int limit, long total, String nextCursor) {
+        this.items = items;
+        this.offset = offset;
+        this.limit = limit;
+        this.total = total;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public List<FileMetadata> getItems() {
+        return items;
+    }
+
+    public void setItems(List<FileMetadata> items) {
+        this.items = items;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    // Number of entries matching the filter, across all pages
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    // Opaque token for the next page, or null on the last page
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "FolderPage{" +
+                "items=" + items.size() +
+                ", offset=" + offset +
+                ", limit=" + limit +
+                ", total=" + total +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
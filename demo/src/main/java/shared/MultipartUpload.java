@@ -0,0 +1,101 @@
+package shared;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// State of a multipart upload: part i covers bytes [i * partSize, min(size, (i + 1) * partSize))
+public class MultipartUpload implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String uploadId;
+    private String path;
+    private long size;
+    private int partSize;
+    private int partCount;
+    private BitSet received;
+
+    // Default constructor for serialization
+    public MultipartUpload() {
+    }
+
+    public MultipartUpload(String uploadId, String path, long size, int partSize, int partCount, BitSet received) {
+        this.uploadId = uploadId;
+        this.path = path;
+        this.size = size;
+        this.partSize = partSize;
+        this.partCount = partCount;
+        this.received = received;
+    }
+
+    // Getters and Setters
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(int partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    public void setPartCount(int partCount) {
+        this.partCount = partCount;
+    }
+
+    public BitSet getReceived() {
+        return received;
+    }
+
+    public void setReceived(BitSet received) {
+        this.received = received;
+    }
+
+    // Part numbers stored so far, for a client resuming the upload
+    public List<Integer> getReceivedParts() {
+        List<Integer> parts = new ArrayList<>(received.cardinality());
+        received.stream().forEach(parts::add);
+        return parts;
+    }
+
+    public boolean isComplete() {
+        return received.cardinality() == partCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MultipartUpload{" +
+                "uploadId='" + uploadId + '\'' +
+                ", path='" + path + '\'' +
+                ", size=" + size +
+                ", parts=" + received.cardinality() + "/" + partCount +
+                '}';
+    }
+}
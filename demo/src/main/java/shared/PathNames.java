@@ -0,0 +1,52 @@
+package shared;
+
+/**
+ * How the file server turns the paths and file names clients send into the ones
+ * it stores. Clients that place data by path (see client.HashRing) apply the same
+ * rules, so they agree with the server on where an entry lives.
+ */
+public final class PathNames {
+
+    private PathNames() {
+    }
+
+    public static String normalize(String path) {
+        if (path == null || path.trim().isEmpty()) {
+            return "";
+        }
+        
+        // Replace backslashes with forward slashes
+        path = path.replace("\\", "/");
+        
+        // Remove leading/trailing slashes
+        path = path.replaceAll("^/+|/+$", "");
+        
+        // Remove any directory traversal attempts
+        path = path.replace("..", "");
+        
+        return path;
+    }
+    
+    public static String filename(String filename) {
+        if (filename == null || filename.trim().isEmpty()) {
+            return "unnamed_" + System.currentTimeMillis();
+        }
+        
+        // Extract just the filename from path
+        filename = filename.replace("\\", "/");
+        int lastSlash = filename.lastIndexOf("/");
+        if (lastSlash != -1) {
+            filename = filename.substring(lastSlash + 1);
+        }
+        
+        // Remove problematic characters
+        filename = filename.replaceAll("[\\\\/:*?\"<>|]", "_");
+        
+        // Ensure filename is not empty
+        if (filename.isEmpty()) {
+            return "unnamed_" + System.currentTimeMillis();
+        }
+        
+        return filename;
+    }
+}
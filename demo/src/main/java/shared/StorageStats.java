@@ -0,0 +1,111 @@
+package shared;
+
+import java.io.Serializable;
+
+public class StorageStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String folder;
+    private long totalSize;      // Recursive bytes under the folder
+    private long fileCount;      // Recursive file count under the folder
+    private long folderCount;    // Recursive folder count under the folder
+    private long usedSpace;      // Bytes used by the whole storage tree
+    private long totalSpace;     // Capacity of the underlying file store
+    private long usableSpace;    // Bytes still available to the server
+    private long freeSpace;      // Unallocated bytes on the file store
+
+    // Default constructor for serialization
+    public StorageStats() {
+    }
+
+    public StorageStats(String folder, long totalSize, long fileCount, long folderCount,
+            long usedSpace, long totalSpace, long usableSpace, long freeSpace) {
+        this.folder = folder;
+        this.totalSize = totalSize;
+        this.fileCount = fileCount;
+        this.folderCount = folderCount;
+        this.usedSpace = usedSpace;
+        this.totalSpace = totalSpace;
+        this.usableSpace = usableSpace;
+        this.freeSpace = freeSpace;
+    }
+
+    // Getters and Setters
+    public String getFolder() {
+        return folder;
+    }
+
+    public void setFolder(String folder) {
+        this.folder = folder;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public void setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(long fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public long getFolderCount() {
+        return folderCount;
+    }
+
+    public void setFolderCount(long folderCount) {
+        this.folderCount = folderCount;
+    }
+
+    public long getUsedSpace() {
+        return usedSpace;
+    }
+
+    public void setUsedSpace(long usedSpace) {
+        this.usedSpace = usedSpace;
+    }
+
+    public long getTotalSpace() {
+        return totalSpace;
+    }
+
+    public void setTotalSpace(long totalSpace) {
+        this.totalSpace = totalSpace;
+    }
+
+    public long getUsableSpace() {
+        return usableSpace;
+    }
+
+    public void setUsableSpace(long usableSpace) {
+        this.usableSpace = usableSpace;
+    }
+
+    public long getFreeSpace() {
+        return freeSpace;
+    }
+
+    public void setFreeSpace(long freeSpace) {
+        this.freeSpace = freeSpace;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageStats{" +
+                "folder='" + folder + '\'' +
+                ", totalSize=" + totalSize +
+                ", fileCount=" + fileCount +
+                ", folderCount=" + folderCount +
+                ", usedSpace=" + usedSpace +
+                ", totalSpace=" + totalSpace +
+                ", usableSpace=" + usableSpace +
+                ", freeSpace=" + freeSpace +
+                '}';
+    }
+}
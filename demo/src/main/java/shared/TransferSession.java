@@ -0,0 +1,66 @@
+package shared;
+
+import java.io.Serializable;
+
+public class TransferSession implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String sessionId;
+    private String path;
+    private long size;
+    private int maxChunkSize;
+
+    // Default constructor for serialization
+    public TransferSession() {
+    }
+
+    public TransferSession(String sessionId, String path, long size, int maxChunkSize) {
+        this.sessionId = sessionId;
+        this.path = path;
+        this.size = size;
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    // Getters and Setters
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferSession{" +
+                "sessionId='" + sessionId + '\'' +
+                ", path='" + path + '\'' +
+                ", size=" + size +
+                ", maxChunkSize=" + maxChunkSize +
+                '}';
+    }
+}
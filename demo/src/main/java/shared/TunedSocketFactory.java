@@ -0,0 +1,127 @@
+package shared;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * RMI socket factory with TCP_NODELAY and explicit socket buffer sizes. The file
+ * server exports its service with it, so the factory travels inside the stub and
+ * the web app's connections are set up the same way. A client can still pick its
+ * own buffer size with {@link #setClientBufferSize(int)}.
+ * <p>
+ * RMI shares connections between stubs whose factories are equal, so equals and
+ * hashCode cover every setting.
+ */
+public class TunedSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+
+    // Client-side override of the server's buffer size; 0 keeps the server's choice
+    private static volatile int clientBufferSize;
+
+    protected final int bufferSize; // 0 leaves the OS default (and its auto-tuning) alone
+
+    public TunedSocketFactory(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * The factories picked by -Dfileserver.rmiSockets=default|tuned|compressed,
+     * with buffers of -Dfileserver.rmiSocketBuffer bytes (default 1 MB). Returns
+     * null for "default", i.e. RMI's own sockets.
+     */
+    public static TunedSocketFactory fromSystemProperties() {
+        String kind = System.getProperty("fileserver.rmiSockets", "default").toLowerCase(Locale.ROOT);
+        int bufferSize = Integer.getInteger("fileserver.rmiSocketBuffer", 1024 * 1024);
+        switch (kind) {
+            case "default":
+                return null;
+            case "tuned":
+                return new TunedSocketFactory(bufferSize);
+            case "compressed":
+                return new CompressingSocketFactory(bufferSize);
+            default:
+                throw new IllegalArgumentException("Unknown fileserver.rmiSockets: " + kind);
+        }
+    }
+
+    public static void setClientBufferSize(int bytes) {
+        clientBufferSize = bytes;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = newSocket();
+        int buffers = clientBufferSize > 0 ? clientBufferSize : bufferSize;
+        // Buffer sizes must be set before connecting to affect the TCP window
+        if (buffers > 0) {
+            socket.setSendBufferSize(buffers);
+            socket.setReceiveBufferSize(buffers);
+        }
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        ServerSocket server = new ServerSocket() {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = newAcceptedSocket();
+                implAccept(socket);
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                if (bufferSize > 0) {
+                    socket.setSendBufferSize(bufferSize);
+                }
+                return socket;
+            }
+        };
+        // Accepted sockets inherit the receive buffer, which has to be set before bind
+        if (bufferSize > 0) {
+            server.setReceiveBufferSize(bufferSize);
+        }
+        server.bind(new InetSocketAddress(port));
+        return server;
+    }
+
+    // Unconnected socket for an outgoing connection
+    protected Socket newSocket() {
+        return new Socket();
+    }
+
+    // Unconnected socket for ServerSocket.implAccept to fill in
+    protected Socket newAcceptedSocket() {
+        return new Socket();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other != null && other.getClass() == getClass()
+                && ((TunedSocketFactory) other).bufferSize == bufferSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), bufferSize);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(buffers " + (bufferSize > 0 ? bufferSize + " bytes" : "OS default") + ")";
+    }
+}
@@ -5,6 +5,11 @@ let viewMode = 'grid';
 let currentContextFile = null;
 let currentFolder = ''; // Track current folder path
 let breadcrumbs = []; // Track breadcrumb navigation
+let nextCursor = null; // Cursor for the next page of the current folder, null when fully loaded
+let serverSearchActive = false; // True while the listing shows server-side search results
+
+// Folder listings are fetched from the server one page at a time
+const PAGE_SIZE = 500;
 
 // Authentication constants
 const USERS_KEY = 'fileManagerUsers';
@@ -104,52 +109,160 @@ function updateUserUI(user) {
 async function loadFiles(folder = '') {
     showLoading(true);
     try {
-        const url = folder ? `/api/files?folder=${encodeURIComponent(folder)}` : '/api/files';
+        const url = `/api/files?folder=${encodeURIComponent(folder)}&size=${PAGE_SIZE}&sort=modified&order=desc`;
         const response = await fetch(url);
         const data = await response.json();
         
         console.log('API Response for folder:', folder, data); // Debug log
         
-        if (response.ok && Array.isArray(data)) {
-            files = data.map(file => {
-                const name = file.name || file.filename || 'unknown';
-                const size = file.size || 0;
-                const lastModified = file.lastModified || file.modified || Date.now();
-                const isDirectory = file.isDirectory || file.directory || false;
-                const path = file.path || name;
-                
-                return {
-                    id: path + '_' + lastModified,
-                    name: name,
-                    size: size,
-                    modified: lastModified,
-                    type: isDirectory ? 'folder' : getFileType(name),
-                    icon: isDirectory ? 'fas fa-folder' : getFileIcon(name),
-                    color: isDirectory ? 'folder' : getFileColor(name),
-                    isDirectory: isDirectory,
-                    path: path
-                };
-            });
+        if (response.ok && Array.isArray(data.items)) {
+            files = data.items.map(toFileEntry);
             
+            // Add parent folder entry if we're in a subfolder
+            if (folder) {
+                const parentPath = folder.includes('/') ? folder.substring(0, folder.lastIndexOf('/')) : '';
+                files.unshift(toFileEntry({ name: '..', path: parentPath, size: 0, lastModified: Date.now(), isDirectory: true }));
+            }
+            
+            nextCursor = data.nextCursor || null;
+            serverSearchActive = false;
             currentFolder = folder;
             updateBreadcrumbs();
             renderFiles();
             updateStorageInfo();
+            watchFolder(folder);
         } else {
             showToast('Failed to load files: ' + (data.error || 'Unknown error'), 'error');
             files = [];
+            nextCursor = null;
             renderFiles();
         }
     } catch (error) {
         console.error('Error loading files:', error);
         showToast('Error loading files: ' + error.message, 'error');
         files = [];
+        nextCursor = null;
         renderFiles();
     } finally {
         showLoading(false);
     }
 }
 
+// ========================
+// Change Events
+// ========================
+
+let changeEvents = null; // EventSource for the current folder; null when the server does not offer one
+let changeEventsFolder = null;
+let storageRefreshTimer = null;
+
+// Follows server-sent changes to the folder on screen: our own uploads and deletes as
+// well as other users' are applied to the listing instead of reloading it
+function watchFolder(folder) {
+    if (changeEvents && changeEventsFolder === folder) return;
+    if (changeEvents) {
+        changeEvents.close();
+    }
+    changeEventsFolder = folder;
+    changeEvents = new EventSource(`/api/events?folder=${encodeURIComponent(folder)}`);
+    changeEvents.addEventListener('change', event => applyChange(JSON.parse(event.data)));
+    changeEvents.onerror = () => {
+        // The browser reconnects by itself (resuming from the last event) unless the endpoint is off
+        if (changeEvents && changeEvents.readyState === EventSource.CLOSED) {
+            changeEvents = null;
+        }
+    };
+}
+
+// After our own change: reload only if no change events will bring it
+function refreshAfterChange() {
+    if (!changeEvents || changeEvents.readyState !== EventSource.OPEN) {
+        loadFiles(currentFolder);
+    }
+}
+
+function applyChange(change) {
+    if (change.type === 'RESET') {
+        loadFiles(currentFolder);
+        return;
+    }
+    if (change.type === 'DELETED' && (change.path === currentFolder || currentFolder.startsWith(change.path + '/'))) {
+        showToast('This folder was deleted', 'info');
+        const parentPath = change.path.includes('/') ? change.path.substring(0, change.path.lastIndexOf('/')) : '';
+        navigateToFolder(parentPath);
+        return;
+    }
+    scheduleStorageRefresh();
+    if (change.folder !== currentFolder || serverSearchActive) return;
+    
+    const index = files.findIndex(f => f.name !== '..' && f.path === change.path);
+    if (index !== -1) {
+        selectedFiles.delete(files[index].id);
+    }
+    if (change.type === 'DELETED') {
+        if (index !== -1) {
+            files.splice(index, 1);
+        }
+    } else if (index !== -1) {
+        files[index] = toFileEntry(change.metadata);
+    } else {
+        // Newest first, as the listing is sorted, after the parent folder entry
+        files.splice(currentFolder ? 1 : 0, 0, toFileEntry(change.metadata));
+    }
+    updateSelectionUI();
+    renderFiles();
+}
+
+// Storage totals change with every event; fetch them once things calm down
+function scheduleStorageRefresh() {
+    clearTimeout(storageRefreshTimer);
+    storageRefreshTimer = setTimeout(updateStorageInfo, 1000);
+}
+
+// Load the next page of the current folder
+async function loadMoreFiles() {
+    if (!nextCursor) return;
+    
+    try {
+        const response = await fetch(`/api/files?cursor=${encodeURIComponent(nextCursor)}`);
+        const data = await response.json();
+        
+        if (response.ok && Array.isArray(data.items)) {
+            files = files.concat(data.items.map(toFileEntry));
+            nextCursor = data.nextCursor || null;
+            renderFiles();
+        } else {
+            showToast('Failed to load more files: ' + (data.error || 'Unknown error'), 'error');
+        }
+    } catch (error) {
+        console.error('Error loading more files:', error);
+        showToast('Error loading more files: ' + error.message, 'error');
+    }
+}
+
+// Convert an API file entry into the shape used by the UI
+function toFileEntry(file) {
+    const name = file.name || file.filename || 'unknown';
+    const size = file.size || 0;
+    const physicalSize = file.physicalSize || size;
+    const lastModified = file.lastModified || file.modified || Date.now();
+    const isDirectory = file.isDirectory || file.directory || false;
+    const path = file.path || name;
+    
+    return {
+        id: path + '_' + lastModified,
+        name: name,
+        size: size,
+        physicalSize: physicalSize,
+        modified: lastModified,
+        type: isDirectory ? 'folder' : getFileType(name),
+        icon: isDirectory ? 'fas fa-folder' : getFileIcon(name),
+        color: isDirectory ? 'folder' : getFileColor(name),
+        isDirectory: isDirectory,
+        path: path
+    };
+}
+
 // Setup folder navigation
 function setupFolderNavigation() {
     const breadcrumbElement = document.getElementById('breadcrumb');
@@ -507,7 +620,7 @@ function renderFiles() {
                 </div>
                 ${!isParentFolder ? `
                 <div class="file-actions">
-                    <button class="file-action-btn" onclick="event.stopPropagation(); downloadFile('${file.id}')" ${file.isDirectory ? 'style="display:none"' : ''}>
+                    <button class="file-action-btn" onclick="event.stopPropagation(); downloadFile('${file.id}')">
                         <i class="fas fa-download"></i>
                     </button>
                     <button class="file-action-btn" onclick="event.stopPropagation(); deleteFile('${file.id}')">
@@ -522,11 +635,11 @@ function renderFiles() {
                         <i class="${isParentFolder ? 'fas fa-level-up-alt' : file.icon}"></i>
                     </div>
                     <div class="file-name">${file.name}</div>
-                    <div class="file-size">${file.isDirectory ? '—' : formatFileSize(file.size)}</div>
+                    <div class="file-size"${!file.isDirectory && file.physicalSize < file.size ? ` title="${formatFileSize(file.physicalSize)} on disk (compressed)"` : ''}>${file.isDirectory ? '—' : formatFileSize(file.size)}</div>
                     <div class="file-modified">${isParentFolder ? 'Parent Folder' : formatDate(file.modified)}</div>
                     ${!isParentFolder ? `
                     <div class="file-actions">
-                        <button class="file-action-btn" onclick="event.stopPropagation(); downloadFile('${file.id}')" ${file.isDirectory ? 'style="display:none"' : ''}>
+                        <button class="file-action-btn" onclick="event.stopPropagation(); downloadFile('${file.id}')">
                             <i class="fas fa-download"></i>
                         </button>
                         <button class="file-action-btn" onclick="event.stopPropagation(); deleteFile('${file.id}')">
@@ -539,6 +652,18 @@ function renderFiles() {
         
         container.appendChild(fileElement);
     });
+    
+    // More entries are still on the server
+    if (nextCursor) {
+        const loadMore = document.createElement('div');
+        loadMore.className = 'empty-state';
+        loadMore.innerHTML = `
+            <button class="btn btn-secondary" onclick="loadMoreFiles()">
+                <i class="fas fa-chevron-down"></i> Load more
+            </button>
+        `;
+        container.appendChild(loadMore);
+    }
 }
 
 // Handle file click (selection)
@@ -619,8 +744,15 @@ function setViewMode(mode) {
 }
 
 // Search files
-function searchFiles() {
+async function searchFiles() {
     const searchTerm = document.getElementById('search-input').value.toLowerCase();
+    
+    // Only part of the folder is loaded, so let the server filter it
+    if (nextCursor || serverSearchActive) {
+        await searchFilesOnServer(searchTerm);
+        return;
+    }
+    
     const filteredFiles = files.filter(file => 
         file.name.toLowerCase().includes(searchTerm)
     );
@@ -646,6 +778,36 @@ function searchFiles() {
     files = originalFiles;
 }
 
+// Search the current folder on the server (used for folders larger than one page)
+async function searchFilesOnServer(searchTerm) {
+    if (!searchTerm) {
+        loadFiles(currentFolder);
+        return;
+    }
+    
+    try {
+        const url = `/api/files?folder=${encodeURIComponent(currentFolder)}&size=${PAGE_SIZE}&sort=modified&order=desc&q=${encodeURIComponent(searchTerm)}`;
+        const response = await fetch(url);
+        const data = await response.json();
+        
+        if (document.getElementById('search-input').value.toLowerCase() !== searchTerm) {
+            return; // A newer search is in flight
+        }
+        
+        if (response.ok && Array.isArray(data.items)) {
+            files = data.items.map(toFileEntry);
+            nextCursor = data.nextCursor || null;
+            serverSearchActive = true;
+            renderFiles();
+        } else {
+            showToast('Search failed: ' + (data.error || 'Unknown error'), 'error');
+        }
+    } catch (error) {
+        console.error('Error searching files:', error);
+        showToast('Error searching files: ' + error.message, 'error');
+    }
+}
+
 // Show context menu
 function showContextMenu(event, fileId) {
     event.preventDefault();
@@ -687,19 +849,34 @@ async function handleFileSelect(fileList) {
     
     for (let i = 0; i < fileList.length; i++) {
         const file = fileList[i];
-        const formData = new FormData();
-        formData.append('file', file);
         
-        // Add current folder to upload
+        if (file.size > PART_SIZE) {
+            try {
+                await uploadInParts(file, fraction => updateProgress(uploadedCount + fraction, totalFiles));
+                uploadedCount++;
+                updateProgress(uploadedCount, totalFiles);
+            } catch (error) {
+                console.error('Error uploading file:', error);
+                showToast(`Error uploading ${file.name}: ${error.message}. Select it again to resume.`, 'error');
+            }
+            continue;
+        }
+        
+        // Send the raw file as the request body so it streams through to the file server
+        let url = `/api/upload-stream?filename=${encodeURIComponent(file.name)}`;
         if (currentFolder) {
-            formData.append('folder', currentFolder);
+            url += `&folder=${encodeURIComponent(currentFolder)}`;
         }
         
         try {
-            const response = await fetch('/upload', {
-                method: 'POST',
-                body: formData
-            });
+            let response = await fetch(url, { method: 'POST', body: file });
+            
+            // Too many transfers in flight for this user: wait and try again
+            for (let attempt = 0; response.status === 429 && attempt < 5; attempt++) {
+                const retryAfter = parseInt(response.headers.get('Retry-After') || '1', 10);
+                await new Promise(resolve => setTimeout(resolve, retryAfter * 1000));
+                response = await fetch(url, { method: 'POST', body: file });
+            }
             
             const result = await response.json();
             
@@ -719,11 +896,132 @@ async function handleFileSelect(fileList) {
         progressOverlay.classList.remove('active');
         if (uploadedCount > 0) {
             showToast(`Successfully uploaded ${uploadedCount} files`, 'success');
-            loadFiles(currentFolder); // Refresh file list
+            refreshAfterChange();
         }
     }, 500);
 }
 
+// Files above PART_SIZE go up in parts, PARALLEL_PARTS at a time; parts are retried on
+// their own and an interrupted upload resumes when the same file is selected again
+const PART_SIZE = 4 * 1024 * 1024;
+const PARALLEL_PARTS = 4;
+const PART_ATTEMPTS = 3;
+
+const CRC32C_TABLE = (() => {
+    const table = new Uint32Array(256);
+    for (let n = 0; n < 256; n++) {
+        let c = n;
+        for (let k = 0; k < 8; k++) {
+            c = c & 1 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+        }
+        table[n] = c >>> 0;
+    }
+    return table;
+})();
+
+// Checksum the server verifies for each part, as 8 hex digits
+function crc32c(bytes) {
+    let crc = 0xFFFFFFFF;
+    for (let i = 0; i < bytes.length; i++) {
+        crc = CRC32C_TABLE[(crc ^ bytes[i]) & 0xFF] ^ (crc >>> 8);
+    }
+    return ((crc ^ 0xFFFFFFFF) >>> 0).toString(16).padStart(8, '0');
+}
+
+// Too many transfers in flight for this user: wait and try again
+async function fetchWhenAllowed(url, options) {
+    let response = await fetch(url, options);
+    for (let attempt = 0; response.status === 429 && attempt < 5; attempt++) {
+        const retryAfter = parseInt(response.headers.get('Retry-After') || '1', 10);
+        await new Promise(resolve => setTimeout(resolve, retryAfter * 1000));
+        response = await fetch(url, options);
+    }
+    return response;
+}
+
+async function uploadInParts(file, onProgress) {
+    const resumeKey = `multipart:${currentFolder}/${file.name}:${file.size}:${file.lastModified}`;
+    let upload = null;
+    
+    const savedId = localStorage.getItem(resumeKey);
+    if (savedId) {
+        const response = await fetch(`/api/multipart/${encodeURIComponent(savedId)}`);
+        if (response.ok) {
+            upload = await response.json();
+        } else {
+            localStorage.removeItem(resumeKey); // Expired on the server
+        }
+    }
+    if (!upload) {
+        let url = `/api/multipart/start?filename=${encodeURIComponent(file.name)}&size=${file.size}&partSize=${PART_SIZE}`;
+        if (currentFolder) {
+            url += `&folder=${encodeURIComponent(currentFolder)}`;
+        }
+        const response = await fetchWhenAllowed(url, { method: 'POST' });
+        const result = await response.json();
+        if (!response.ok) {
+            throw new Error(result.error || 'Cannot start upload');
+        }
+        upload = result;
+        localStorage.setItem(resumeKey, upload.uploadId);
+    }
+    
+    const received = new Set(upload.received);
+    const pending = [];
+    for (let part = 0; part < upload.partCount; part++) {
+        if (!received.has(part)) {
+            pending.push(part);
+        }
+    }
+    let done = received.size;
+    onProgress(done / upload.partCount);
+    
+    const sendPart = async (part) => {
+        const start = part * upload.partSize;
+        const bytes = new Uint8Array(await file.slice(start, Math.min(start + upload.partSize, file.size)).arrayBuffer());
+        const checksum = crc32c(bytes);
+        for (let attempt = 1; ; attempt++) {
+            let error;
+            let retry = attempt < PART_ATTEMPTS;
+            try {
+                const response = await fetchWhenAllowed(`/api/multipart/${upload.uploadId}/part/${part}`, {
+                    method: 'POST',
+                    headers: { 'X-Part-CRC32C': checksum },
+                    body: bytes
+                });
+                if (response.ok) {
+                    return;
+                }
+                error = new Error((await response.json()).error || `Part ${part} failed`);
+                // 409: the file server rejected the part (e.g. the upload expired); sending again cannot help
+                retry = retry && response.status !== 409;
+            } catch (networkError) {
+                error = networkError;
+            }
+            if (!retry) {
+                throw error;
+            }
+            await new Promise(resolve => setTimeout(resolve, 500 * attempt));
+        }
+    };
+    
+    // Each worker takes the next missing part until none are left
+    const worker = async () => {
+        while (pending.length > 0) {
+            await sendPart(pending.shift());
+            onProgress(++done / upload.partCount);
+        }
+    };
+    await Promise.all(Array.from({ length: Math.min(PARALLEL_PARTS, pending.length) }, worker));
+    
+    const response = await fetchWhenAllowed(`/api/multipart/${upload.uploadId}/complete`, { method: 'POST' });
+    const result = await response.json();
+    if (!response.ok) {
+        throw new Error(result.error || 'Cannot assemble file');
+    }
+    localStorage.removeItem(resumeKey);
+}
+
 // Update progress
 function updateProgress(current, total) {
     const percentage = Math.round((current / total) * 100);
@@ -731,13 +1029,18 @@ function updateProgress(current, total) {
     const progressText = document.getElementById('progress-text');
     
     progressFill.style.width = percentage + '%';
-    progressText.textContent = `${percentage}% • ${current} of ${total} files`;
+    progressText.textContent = `${percentage}% • ${Math.floor(current)} of ${total} files`;
 }
 
 // Download file
 async function downloadFile(fileId) {
     const file = files.find(f => f.id === fileId);
-    if (!file || file.isDirectory) return;
+    if (!file) return;
+    
+    if (file.isDirectory) {
+        downloadFolder(file);
+        return;
+    }
     
     try {
         let url = `/download/${encodeURIComponent(file.name)}`;
@@ -766,6 +1069,17 @@ async function downloadFile(fileId) {
     }
 }
 
+// Download a folder as a ZIP; the browser streams it straight to disk
+function downloadFolder(folder) {
+    const a = document.createElement('a');
+    a.href = `/api/download-folder?path=${encodeURIComponent(folder.path || folder.name)}`;
+    a.download = `${folder.name}.zip`;
+    document.body.appendChild(a);
+    a.click();
+    document.body.removeChild(a);
+    showToast(`Downloading ${folder.name}.zip`, 'info');
+}
+
 // Download selected files
 async function downloadSelected() {
     if (selectedFiles.size === 0) return;
@@ -813,7 +1127,7 @@ async function deleteFile(fileId) {
             if (response.ok) {
                 selectedFiles.delete(fileId);
                 showToast(`Deleted ${itemType} "${file.name}"`, 'success');
-                loadFiles(currentFolder); // Refresh file list
+                refreshAfterChange();
             } else {
                 showToast(`Failed to delete ${itemType}: ${result.error || 'Unknown error'}`, 'error');
             }
@@ -841,18 +1155,29 @@ async function deleteSelected() {
         showToast(`Deleting ${selectedItems.length} items...`, 'info');
         
         let deletedCount = 0;
-        for (const file of selectedItems) {
+        
+        // Files go to the server in one batch call
+        const filePaths = selectedItems.filter(f => !f.isDirectory)
+            .map(f => currentFolder ? `${currentFolder}/${f.name}` : f.name);
+        if (filePaths.length > 0) {
             try {
-                let url;
-                if (file.isDirectory) {
-                    url = `/api/delete-folder?path=${encodeURIComponent(file.path || file.name)}`;
-                } else {
-                    url = `/delete/${encodeURIComponent(file.name)}`;
-                    if (currentFolder) {
-                        url += `?folder=${encodeURIComponent(currentFolder)}`;
-                    }
+                const response = await fetch('/api/batch/delete', {
+                    method: 'POST',
+                    headers: { 'Content-Type': 'application/json' },
+                    body: JSON.stringify(filePaths)
+                });
+                if (response.ok) {
+                    const results = await response.json();
+                    deletedCount += results.filter(r => r.success).length;
                 }
-                
+            } catch (error) {
+                console.error('Error deleting files:', error);
+            }
+        }
+        
+        for (const folder of selectedItems.filter(f => f.isDirectory)) {
+            try {
+                const url = `/api/delete-folder?path=${encodeURIComponent(folder.path || folder.name)}`;
                 const response = await fetch(url);
                 if (response.ok) {
                     deletedCount++;
@@ -865,7 +1190,7 @@ async function deleteSelected() {
         selectedFiles.clear();
         updateSelectionUI();
         showToast(`Successfully deleted ${deletedCount} items`, 'success');
-        loadFiles(currentFolder);
+        refreshAfterChange();
     }
 }
 
@@ -898,7 +1223,7 @@ async function createNewFolder() {
         if (response.ok) {
             hideModal('new-folder-modal');
             showToast(`Created folder "${folderName}"`, 'success');
-            loadFiles(currentFolder); // Refresh file list
+            refreshAfterChange();
         } else {
             showToast(`Failed to create folder: ${result.error || 'Unknown error'}`, 'error');
         }
@@ -0,0 +1,126 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import shared.FileInterface;
+import shared.FileMetadata;
+import shared.FolderPage;
+
+class ShardRouterTest {
+    private final List<List<FileMetadata>> roots = List.of(new ArrayList<>(), new ArrayList<>());
+    private final AtomicInteger calls = new AtomicInteger();
+    private ShardRouter router;
+
+    @BeforeEach
+    void setUp() {
+        // Interleaved names, so almost every page takes entries from both nodes
+        for (int i = 0; i < 50; i++) {
+            boolean folder = i % 7 == 0;
+            String name = (folder ? "Folder-" : "file-") + String.format("%02d", i) + (folder ? "" : ".txt");
+            roots.get(i % 2).add(new FileMetadata(name, name, folder ? 0 : (i * 37) % 101, 1_000L * i, folder));
+        }
+        router = new ShardRouter(List.of(node(0), node(1)), new HashRing(List.of("node-a", "node-b"), 16),
+                new int[] {0, 1}, null, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.shutdown();
+    }
+
+    @Test
+    void pagesThroughTheRootOfBothNodesInOrder() throws RemoteException {
+        for (String sortKey : List.of("name", "size", "modified")) {
+            for (String order : List.of("asc", "desc")) {
+                List<String> expected = all(sortKey, order);
+                FolderPage page = router.listFolderContents("", 0, 7, sortKey, order, null);
+                List<String> listed = new ArrayList<>();
+                int pages = 0;
+                while (true) {
+                    assertNotNull(page);
+                    assertEquals(50, page.getTotal());
+                    assertTrue(page.getItems().size() <= 7);
+                    page.getItems().forEach(item -> listed.add(item.getPath()));
+                    pages++;
+                    if (page.getNextCursor() == null) {
+                        break;
+                    }
+                    calls.set(0);
+                    page = router.listFolderPage(page.getNextCursor());
+                    assertEquals(2, calls.get(), "one request per node and page");
+                }
+                assertEquals(expected, listed, sortKey + " " + order);
+                assertEquals(8, pages);
+            }
+        }
+    }
+
+    @Test
+    void skipsAnOffsetAcrossBothNodes() throws RemoteException {
+        List<String> expected = all("name", "asc");
+        FolderPage page = router.listFolderContents("", 20, 10, "name", "asc", null);
+        assertEquals(expected.subList(20, 30), paths(page));
+        assertEquals(expected.subList(30, 40), paths(router.listFolderPage(page.getNextCursor())));
+
+        FolderPage last = router.listFolderContents("", 45, 10, "name", "asc", null);
+        assertEquals(expected.subList(45, 50), paths(last));
+        assertNull(last.getNextCursor());
+    }
+
+    @Test
+    void rejectsCursorsForAnotherNodeCount() throws RemoteException {
+        String cursor = router.listFolderContents("", 0, 5, "name", "asc", null).getNextCursor();
+        ShardRouter single = new ShardRouter(List.of(node(0)), new HashRing(List.of("node-a"), 16),
+                new int[] {0}, null, null);
+        try {
+            assertNull(single.listFolderPage(cursor));
+            assertNull(router.listFolderPage("*~not base64!"));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    private List<String> all(String sortKey, String order) {
+        return roots.stream().flatMap(List::stream)
+                .sorted(FileMetadata.listingOrder(sortKey, "desc".equals(order)))
+                .map(FileMetadata::getPath).collect(Collectors.toList());
+    }
+
+    private static List<String> paths(FolderPage page) {
+        return page.getItems().stream().map(FileMetadata::getPath).collect(Collectors.toList());
+    }
+
+    // A file server that only lists its part of the root, by offset like FolderPager does
+    private FileInterface node(int index) {
+        return (FileInterface) Proxy.newProxyInstance(FileInterface.class.getClassLoader(),
+                new Class<?>[] {FileInterface.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("listFolderContents") || args.length != 6) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    calls.incrementAndGet();
+                    int offset = (Integer) args[1];
+                    int limit = (Integer) args[2];
+                    Comparator<FileMetadata> order = FileMetadata.listingOrder((String) args[3],
+                            "desc".equals(args[4]));
+                    List<FileMetadata> sorted = roots.get(index).stream().sorted(order).collect(Collectors.toList());
+                    int end = Math.min(sorted.size(), offset + limit);
+                    return new FolderPage(new ArrayList<>(sorted.subList(Math.min(offset, end), end)), offset, limit,
+                            sorted.size(), null);
+                });
+    }
+}
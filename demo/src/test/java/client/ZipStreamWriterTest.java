@@ -0,0 +1,229 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZipStreamWriterTest {
+    private static final long TIME = 1_700_000_000_000L;
+
+    private static ExecutorService compressors;
+
+    @TempDir
+    Path temp;
+
+    @BeforeAll
+    static void startCompressors() {
+        compressors = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void stopCompressors() {
+        compressors.shutdownNow();
+    }
+
+    @Test
+    void mixedFolderReadsBackWithStreamingAndCentralDirectoryReaders() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("docs/notes.txt", text(700_000)); // Several 128 KB blocks
+        files.put("docs/photo.jpg", random(300_000));
+        files.put("docs/empty.jpg", new byte[0]);
+        files.put("docs/exact.bin", random(128 * 1024));
+
+        for (ExecutorService executor : new ExecutorService[] {compressors, null}) {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            try (ZipStreamWriter zip = new ZipStreamWriter(archive, executor, 8)) {
+                zip.addFolder("docs", TIME);
+                for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                    boolean compress = file.getKey().endsWith(".txt");
+                    zip.addFile(file.getKey(), TIME, file.getValue().length, compress,
+                            new ByteArrayInputStream(file.getValue()));
+                }
+                zip.finish();
+            }
+
+            assertContents(files, archive.toByteArray());
+        }
+    }
+
+    @Test
+    void zip64EntryPast4GbReadsBack() throws IOException {
+        long size = (4L << 30) + 12_345;
+        Path file = temp.resolve("big.zip");
+        try (OutputStream out = Files.newOutputStream(file);
+                ZipStreamWriter zip = new ZipStreamWriter(out, compressors, 16)) {
+            zip.addFile("small.txt", TIME, 3, true, new ByteArrayInputStream(new byte[] {1, 2, 3}));
+            zip.addFile("zeros.bin", TIME, size, true, new Zeros(size));
+            zip.addFile("after.txt", TIME, 3, true, new ByteArrayInputStream(new byte[] {4, 5, 6}));
+            zip.finish();
+        }
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(file))) {
+            assertEquals("small.txt", in.getNextEntry().getName());
+            assertArrayEquals(new byte[] {1, 2, 3}, in.readAllBytes());
+            assertEquals("zeros.bin", in.getNextEntry().getName());
+            assertEquals(size, countZeros(in));
+            assertEquals("after.txt", in.getNextEntry().getName());
+            assertArrayEquals(new byte[] {4, 5, 6}, in.readAllBytes());
+        }
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            ZipEntry entry = zip.getEntry("zeros.bin");
+            assertEquals(size, entry.getSize());
+            try (InputStream in = zip.getInputStream(entry)) {
+                assertEquals(size, countZeros(in));
+            }
+            try (InputStream in = zip.getInputStream(zip.getEntry("after.txt"))) {
+                assertArrayEquals(new byte[] {4, 5, 6}, in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void zip64EndRecordForManyEntries() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < 70_000; i++) {
+            files.put("f" + i + ".jpg", new byte[] {(byte) i});
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(archive, null, 8)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                zip.addFile(file.getKey(), TIME, 1, false, new ByteArrayInputStream(file.getValue()));
+            }
+            zip.finish();
+        }
+
+        assertContents(files, archive.toByteArray());
+    }
+
+    // Folders are skipped; every file must read back identically both ways
+    private void assertContents(Map<String, byte[]> expected, byte[] archive) throws IOException {
+        Map<String, byte[]> streamed = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    streamed.put(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+        assertSame(expected, streamed);
+
+        Path file = Files.write(temp.resolve("archive-" + System.nanoTime() + ".zip"), archive);
+        Map<String, byte[]> indexed = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                assertEquals(expected.get(entry.getName()).length, entry.getSize(), entry.getName());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    indexed.put(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+        assertSame(expected, indexed);
+    }
+
+    private static void assertSame(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+            assertArrayEquals(file.getValue(), actual.get(file.getKey()), file.getKey());
+        }
+    }
+
+    private static byte[] text(int size) {
+        StringBuilder text = new StringBuilder(size + 64);
+        for (int line = 0; text.length() < size; line++) {
+            text.append("line ").append(line).append(" of a compressible file\n");
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static long countZeros(InputStream in) throws IOException {
+        byte[] buffer = new byte[1 << 20];
+        long count = 0;
+        int bits = 0;
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                bits |= buffer[i];
+            }
+            count += read;
+        }
+        assertEquals(0, bits, "non-zero bytes read back");
+        return count;
+    }
+
+    // A long run of zero bytes without holding it in memory
+    private static class Zeros extends InputStream {
+        private long remaining;
+
+        Zeros(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return len == 0 ? 0 : -1;
+            }
+            int count = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + count, (byte) 0);
+            remaining -= count;
+            return count;
+        }
+    }
+
+    @Test
+    void filesNotWorthCompressingStayAboutTheirSize() throws IOException {
+        byte[] data = random(1_000_000);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(archive, compressors, 8)) {
+            zip.addFile("movie.mp4", TIME, data.length, false, new ByteArrayInputStream(data));
+            zip.finish();
+        }
+        assertTrue(archive.size() < data.length + 1024, "archive of " + archive.size() + " bytes");
+    }
+}
@@ -0,0 +1,136 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import shared.FileMetadata;
+
+class CompressedStorageBackendTest {
+    private static final int BLOCK = 64 * 1024;
+
+    private MemoryStorageBackend inner;
+    private CompressedStorageBackend storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        inner = new MemoryStorageBackend(1L << 30);
+        storage = new CompressedStorageBackend(inner,
+                new CompressionPolicy(CompressionPolicy.Codec.LZ4, Set.of("txt"), List.of()));
+        storage.mkdirs("docs");
+    }
+
+    @Test
+    void roundTripsAcrossBlockBoundaries() throws IOException {
+        for (int size : new int[] {BLOCK - 1, BLOCK, BLOCK + 1, 3 * BLOCK, 3 * BLOCK + 17}) {
+            byte[] data = text(size);
+            String path = "docs/file" + size + ".txt";
+            assertTrue(store(path, data), "stored compressed: " + size);
+
+            assertArrayEquals(data, storage.get(path), "size " + size);
+            FileMetadata metadata = storage.stat(path);
+            assertEquals(size, metadata.getSize());
+            assertTrue(metadata.getPhysicalSize() < size);
+            assertNotEquals(size, inner.stat(path).getSize());
+
+            // Reads that start in one block and end in the next
+            try (SeekableByteChannel channel = storage.openRead(path)) {
+                assertEquals(size, channel.size());
+                for (long start = BLOCK - 10; start < size; start += BLOCK) {
+                    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(20, size - start));
+                    channel.position(start);
+                    while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                        // Until full
+                    }
+                    byte[] expected = new byte[buffer.capacity()];
+                    System.arraycopy(data, (int) start, expected, 0, expected.length);
+                    assertArrayEquals(expected, buffer.array(), "at " + start + " of " + size);
+                }
+                channel.position(size);
+                assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            }
+        }
+    }
+
+    @Test
+    void blocksThatDoNotShrinkAreKeptRaw() throws IOException {
+        byte[] data = text(4 * BLOCK);
+        byte[] noise = random(BLOCK);
+        System.arraycopy(noise, 0, data, BLOCK, BLOCK);
+        assertTrue(store("docs/mixed.txt", data));
+        assertArrayEquals(data, storage.get("docs/mixed.txt"));
+    }
+
+    @Test
+    void skipsWhatTheSamplesSayWillNotCompress() throws IOException {
+        // Noise everywhere: the first block already shows it
+        byte[] noise = random(4 * BLOCK);
+        assertFalse(store("docs/noise.txt", noise));
+        assertArrayEquals(noise, inner.get("docs/noise.txt"));
+
+        // Too small to be worth the header
+        byte[] small = text(1000);
+        assertFalse(store("docs/small.txt", small));
+        assertArrayEquals(small, inner.get("docs/small.txt"));
+
+        // Not picked by the policy
+        byte[] other = text(4 * BLOCK);
+        assertFalse(store("docs/other.bin", other));
+        assertArrayEquals(other, inner.get("docs/other.bin"));
+    }
+
+    @Test
+    void dropsTheResultWhenTheSamplesWereNotRepresentative() throws IOException {
+        // Only the sampled blocks (the first and the middle one) compress
+        int blocks = 20;
+        byte[] data = random(blocks * BLOCK);
+        byte[] text = text(BLOCK);
+        System.arraycopy(text, 0, data, 0, BLOCK);
+        System.arraycopy(text, 0, data, blocks / 2 * BLOCK, BLOCK);
+
+        assertFalse(store("docs/misleading.txt", data));
+        assertArrayEquals(data, inner.get("docs/misleading.txt"));
+        assertArrayEquals(data, storage.get("docs/misleading.txt"));
+    }
+
+    // Writes data to a temp entry and commits it the way uploads are; true if it was stored compressed
+    private boolean store(String path, byte[] data) throws IOException {
+        String temp = StorageBackend.tempSibling(path, ".part");
+        try (SeekableByteChannel channel = storage.create(temp)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        String staged = storage.compress(temp, path);
+        storage.move(staged, path);
+        return !staged.equals(temp);
+    }
+
+    private static byte[] text(int size) {
+        StringBuilder text = new StringBuilder(size + 64);
+        for (int line = 0; text.length() < size; line++) {
+            text.append("line ").append(line).append(" of a compressible file\n");
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,103 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import shared.ChangeBatch;
+import shared.ChangeEvent;
+
+class OperationLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversFromATornLastRecord() throws Exception {
+        OperationLog log = new OperationLog(directory, 1 << 20, 4);
+        log.updated("docs/a.txt");
+        log.updated("docs/b.txt");
+        log.deleted("docs/a.txt");
+        log.updated("docs/a-much-longer-name-that-the-crash-cut-short.txt");
+        long logId = log.getLogId();
+
+        // A crash in the middle of writing the last record
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        OperationLog reopened = new OperationLog(directory, 1 << 20, 4);
+        assertEquals(logId, reopened.getLogId());
+        ChangeBatch batch = reopened.read(logId, 0, 0);
+        assertFalse(batch.isReset());
+        assertEquals(3, batch.getLastSeq());
+        assertEquals(List.of("UPDATED docs/a.txt", "UPDATED docs/b.txt", "DELETED docs/a.txt"),
+                describe(batch));
+
+        // Appends continue right after the last complete record
+        reopened.updated("docs/c.txt");
+        OperationLog again = new OperationLog(directory, 1 << 20, 4);
+        batch = again.read(logId, 2, 0);
+        assertEquals(List.of("DELETED docs/a.txt", "UPDATED docs/c.txt"), describe(batch));
+        assertEquals(4, batch.getLastSeq());
+    }
+
+    @Test
+    void recoversWhenOnlyTheRecordHeaderWasWritten() throws Exception {
+        OperationLog log = new OperationLog(directory, 1 << 20, 4);
+        log.updated("x");
+        log.updated("y");
+        Path segment = segments().get(0);
+        // seq (8), type (1) and half of the length of a third record
+        Files.write(segment, new byte[] {0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        OperationLog reopened = new OperationLog(directory, 1 << 20, 4);
+        assertEquals(List.of("UPDATED x", "UPDATED y"), describe(reopened.read(log.getLogId(), 0, 0)));
+        reopened.updated("z");
+        assertEquals(List.of("UPDATED z"),
+                describe(new OperationLog(directory, 1 << 20, 4).read(log.getLogId(), 2, 0)));
+    }
+
+    @Test
+    void resetsPositionsTheLogNoLongerHolds() throws Exception {
+        // Tiny segments, of which two are kept
+        OperationLog log = new OperationLog(directory, 4096, 2);
+        for (int i = 0; i < 1000; i++) {
+            log.updated("docs/file-" + i + ".txt");
+        }
+        assertEquals(2, segments().size());
+
+        OperationLog reopened = new OperationLog(directory, 4096, 2);
+        assertTrue(reopened.read(log.getLogId(), 0, 0).isReset());
+        assertTrue(reopened.read(log.getLogId() + 1, 999, 0).isReset());
+        ChangeBatch tail = reopened.read(log.getLogId(), 998, 0);
+        assertEquals(List.of("UPDATED docs/file-998.txt", "UPDATED docs/file-999.txt"), describe(tail));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> describe(ChangeBatch batch) {
+        return batch.getEvents().stream().map(OperationLogTest::describe).collect(Collectors.toList());
+    }
+
+    private static String describe(ChangeEvent event) {
+        return event.getType() + " " + event.getPath();
+    }
+}
@@ -0,0 +1,181 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+class PathLocksTest {
+    private static final long BLOCKED_MS = 200;
+
+    private final PathLocks locks = new PathLocks(1024);
+
+    @Test
+    void folderWriteWaitsForEverythingBelowIt() throws Exception {
+        PathLocks.Hold file = locks.read("docs/a/report.txt");
+        Holder folder = holder(() -> locks.write("docs"));
+        assertFalse(folder.acquired(BLOCKED_MS));
+        file.close();
+        assertTrue(folder.acquired(1000));
+
+        // And everything below waits for the folder
+        Holder below = holder(() -> locks.write("docs/a/other.txt"));
+        assertFalse(below.acquired(BLOCKED_MS));
+        folder.release();
+        assertTrue(below.acquired(1000));
+        below.release();
+    }
+
+    @Test
+    void unrelatedAndCompatibleHoldersDoNotWait() throws Exception {
+        try (PathLocks.Hold write = locks.write("docs/a.txt");
+                PathLocks.Hold other = locks.write("docs/b.txt");
+                PathLocks.Hold listing = locks.browse("docs");
+                PathLocks.Hold elsewhere = locks.write("photos")) {
+            Holder reader = holder(() -> locks.read("docs/c.txt"));
+            assertTrue(reader.acquired(1000));
+            Holder secondReader = holder(() -> locks.read("docs/c.txt"));
+            assertTrue(secondReader.acquired(1000));
+            reader.release();
+            secondReader.release();
+
+            Holder sameFile = holder(() -> locks.read("docs/a.txt"));
+            assertFalse(sameFile.acquired(BLOCKED_MS));
+            write.close();
+            assertTrue(sameFile.acquired(1000));
+            sameFile.release();
+        }
+    }
+
+    @Test
+    void waitingWriterGoesBeforeLaterReaders() throws Exception {
+        List<String> order = new ArrayList<>();
+        PathLocks.Hold first = locks.read("docs/a.txt");
+        Holder writer = holder(() -> {
+            PathLocks.Hold hold = locks.write("docs");
+            record(order, "writer");
+            return hold;
+        });
+        assertFalse(writer.acquired(BLOCKED_MS));
+
+        // Would be compatible with the reader holding the lock, but the writer asked first
+        Holder reader = holder(() -> {
+            PathLocks.Hold hold = locks.read("docs/b.txt");
+            record(order, "reader");
+            return hold;
+        });
+        assertFalse(reader.acquired(BLOCKED_MS));
+
+        first.close();
+        assertTrue(writer.acquired(1000));
+        assertFalse(reader.acquired(BLOCKED_MS));
+        writer.release();
+        assertTrue(reader.acquired(1000));
+        reader.release();
+        assertEquals(List.of("writer", "reader"), order);
+    }
+
+    @Test
+    void interruptedWaiterStillGetsTheLockAndKeepsTheFlag() throws Exception {
+        PathLocks.Hold folder = locks.write("docs");
+        AtomicBoolean flagged = new AtomicBoolean();
+        Holder waiter = holder(() -> {
+            PathLocks.Hold hold = locks.read("docs/a.txt");
+            flagged.set(Thread.currentThread().isInterrupted());
+            return hold;
+        });
+        assertFalse(waiter.acquired(BLOCKED_MS));
+        waiter.thread.interrupt();
+        assertFalse(waiter.acquired(BLOCKED_MS));
+        folder.close();
+        assertTrue(waiter.acquired(1000));
+        assertTrue(flagged.get());
+        waiter.release();
+    }
+
+    // Two stripes: nearly every pair of paths collides, in every order and mode
+    @Test
+    void collidingPathsNeverDeadlock() {
+        PathLocks crowded = new PathLocks(2);
+        String[] paths = {"a", "a/b", "a/b/c", "a/c", "b", "b/a", "b/a/c", "c/d/e/f"};
+        List<Function<String, PathLocks.Hold>> modes = List.of(crowded::read, crowded::write, crowded::browse);
+        AtomicInteger done = new AtomicInteger();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Random random = new Random(t);
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        String path = paths[random.nextInt(paths.length)];
+                        try (PathLocks.Hold hold = modes.get(random.nextInt(modes.size())).apply(path)) {
+                            done.incrementAndGet();
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        });
+        assertEquals(8 * 2000, done.get());
+    }
+
+    private static synchronized void record(List<String> order, String event) {
+        order.add(event);
+    }
+
+    private interface Acquire {
+        PathLocks.Hold acquire() throws Exception;
+    }
+
+    // Takes a lock on its own thread and holds it until released
+    private static Holder holder(Acquire acquire) {
+        return new Holder(acquire);
+    }
+
+    private static class Holder {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final Thread thread;
+
+        Holder(Acquire acquire) {
+            thread = new Thread(() -> {
+                try (PathLocks.Hold hold = acquire.acquire()) {
+                    acquired.countDown();
+                    release.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    released.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean acquired(long timeoutMs) throws InterruptedException {
+            return acquired.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        void release() throws InterruptedException {
+            release.countDown();
+            assertTrue(released.await(1, TimeUnit.SECONDS));
+        }
+    }
+}
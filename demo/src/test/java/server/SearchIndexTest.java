@@ -0,0 +1,148 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import shared.FileMetadata;
+
+class SearchIndexTest {
+    @TempDir
+    Path directory;
+
+    private MemoryStorageBackend storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storage = new MemoryStorageBackend(1L << 30);
+        storage.mkdirs("Projects/Alpha/docs");
+        storage.mkdirs("Projects/Beta");
+        storage.mkdirs("Archive/2023");
+        storage.put("Projects/Alpha/docs/Report.PDF", bytes(1234));
+        storage.put("Projects/Alpha/docs/notes.txt", bytes(10));
+        storage.put("Projects/Alpha/readme.md", bytes(0));
+        storage.put("Projects/Beta/report-final.pdf", bytes(99));
+        storage.put("Archive/2023/Ünïcode naïve.txt", bytes(7));
+        storage.setLastModified("Projects/Alpha/docs/Report.PDF", 1_600_000_000_123L);
+    }
+
+    @Test
+    void substringMatchesNamesAndEverythingBelowMatchingFolders() {
+        SearchIndex index = indexAll();
+
+        assertEquals(List.of("Projects/Alpha/docs/Report.PDF", "Projects/Beta/report-final.pdf"),
+                search(index, "REPORT"));
+        // "alpha" is a folder name: the folder and all it holds
+        assertEquals(List.of("Projects/Alpha", "Projects/Alpha/docs", "Projects/Alpha/docs/Report.PDF",
+                "Projects/Alpha/docs/notes.txt", "Projects/Alpha/readme.md"), search(index, "lph"));
+        // Across names, in part of the first and the last one
+        assertEquals(List.of("Projects/Alpha/docs/Report.PDF", "Projects/Alpha/docs/notes.txt"),
+                search(index, "ha/docs/"));
+        assertEquals(List.of("Projects/Beta/report-final.pdf"), search(index, "ta/rep"));
+        // Shorter than a trigram
+        assertEquals(List.of("Projects/Alpha/docs/notes.txt"), search(index, "es"));
+        assertEquals(List.of("Projects/Alpha/readme.md"), search(index, "md"));
+        assertEquals(List.of("Archive/2023/Ünïcode naïve.txt"), search(index, "ÜNÏCODE NA"));
+        assertEquals(List.of(), search(index, "missing"));
+        assertEquals(List.of(), search(index, "/"));
+        assertEquals(2, index.search("o", "substring", 2).size());
+    }
+
+    @Test
+    void prefixMatchesTheStartOfNames() {
+        SearchIndex index = indexAll();
+        assertEquals(List.of("Projects/Alpha/docs/Report.PDF", "Projects/Beta/report-final.pdf"),
+                index.search("rep", "prefix", 10).stream().map(FileMetadata::getPath).sorted()
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void forgetsRemovedEntries() throws IOException {
+        SearchIndex index = indexAll();
+        storage.deleteTree("Projects/Alpha");
+        index.removeTree("Projects/Alpha");
+        assertEquals(List.of("Projects/Beta/report-final.pdf"), search(index, "report"));
+        assertEquals(List.of(), search(index, "alpha"));
+
+        // Enough removals to make the trigram lists get rebuilt
+        storage.mkdirs("bulk");
+        for (int i = 0; i < 3000; i++) {
+            storage.put("bulk/item-" + i + ".log", bytes(1));
+            index.update("bulk/item-" + i + ".log");
+        }
+        for (int i = 0; i < 2990; i++) {
+            index.remove("bulk/item-" + i + ".log");
+        }
+        assertEquals(List.of("bulk/item-2995.log"), search(index, "item-2995"));
+        assertEquals(10, index.search("item-", "substring", 100).size());
+        assertEquals(List.of("Projects/Beta/report-final.pdf"), search(index, "report"));
+    }
+
+    @Test
+    void savedIndexLoadsBackIdentically() throws Exception {
+        Path file = directory.resolve("storage.idx");
+        SearchIndex first = new SearchIndex(storage, file);
+        first.start(); // Builds from storage and saves once done
+        for (int i = 0; i < 100 && !Files.exists(file); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.exists(file), "index saved");
+
+        // Storage that cannot be walked, so all the second index knows is what it loaded
+        MemoryStorageBackend unwalkable = new MemoryStorageBackend(1L << 20) {
+            @Override
+            public void walk(String folder, Consumer<FileMetadata> visitor) throws IOException {
+                throw new IOException("not now");
+            }
+        };
+        SearchIndex loaded = new SearchIndex(unwalkable, file);
+        loaded.start();
+
+        assertEquals(11, loaded.size()); // Six folders, five files
+        // Between them these two queries match every entry
+        assertEquals(describe(first.search("a", "substring", 100)), describe(loaded.search("a", "substring", 100)));
+        assertEquals(describe(first.search("o", "substring", 100)), describe(loaded.search("o", "substring", 100)));
+        FileMetadata report = loaded.search("report.pdf", "substring", 10).get(0);
+        assertEquals("Report.PDF", report.getName());
+        assertEquals(1234, report.getSize());
+        assertEquals(1_600_000_000_123L, report.getLastModified());
+        assertEquals(List.of("Archive/2023/Ünïcode naïve.txt"), search(loaded, "naïve"));
+        assertTrue(loaded.search("docs", "prefix", 1).get(0).isDirectory());
+    }
+
+    private SearchIndex indexAll() {
+        SearchIndex index = new SearchIndex(storage, null);
+        for (String path : List.of("Projects/Alpha/docs/Report.PDF", "Projects/Alpha/docs/notes.txt",
+                "Projects/Alpha/readme.md", "Projects/Beta/report-final.pdf", "Archive/2023/Ünïcode naïve.txt")) {
+            index.update(path);
+        }
+        return index;
+    }
+
+    private static List<String> search(SearchIndex index, String query) {
+        return index.search(query, "substring", 100).stream().map(FileMetadata::getPath).collect(Collectors.toList());
+    }
+
+    private static List<String> describe(List<FileMetadata> entries) {
+        return entries.stream()
+                .map(entry -> entry.getPath() + " " + entry.getSize() + " " + entry.getPhysicalSize() + " "
+                        + entry.getLastModified() + " " + entry.isDirectory())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static byte[] bytes(int size) {
+        return "x".repeat(size).getBytes(StandardCharsets.UTF_8);
+    }
+}